@@ -0,0 +1,39 @@
+package io.github.rururunu.mqttmacchiatto.benchmarks;
+
+import io.github.rururunu.mqttmacchiatto.tool.MqttPush;
+import io.github.rururunu.mqttmacchiatto.tool.MqttPut;
+
+import java.util.UUID;
+
+/**
+ * 连接内嵌 broker 的客户端，不依赖 Spring 配置 Clients connected to the embedded broker, without Spring configuration
+ */
+final class Clients {
+
+    private Clients() {
+    }
+
+    static MqttPush push(String uri, int maxInflight) {
+        return new MqttPush.builder()
+                .host(uri)
+                .username("bench")
+                .password("bench")
+                .timeout(10)
+                .keepalive(60)
+                .cleanSession(true)
+                .serviceId("bench-push-" + UUID.randomUUID())
+                .maxInflight(maxInflight)
+                .build()
+                .init();
+    }
+
+    static MqttPut put(String uri, String topic) {
+        return MqttPut.of(topic)
+                .host(uri)
+                .username("bench")
+                .password("bench")
+                .timeout(10)
+                .keepalive(60)
+                .cleanSession(true);
+    }
+}
@@ -0,0 +1,78 @@
+package io.github.rururunu.mqttmacchiatto.benchmarks;
+
+import io.github.rururunu.mqttmacchiatto.broker.MQTTEmbeddedBroker;
+import io.github.rururunu.mqttmacchiatto.content.MQTTOverflow;
+import io.github.rururunu.mqttmacchiatto.tool.MqttPut;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MqttPut 回调分发开销：直接驱动 Paho 回调，不经过网络
+ * <br/>
+ * MqttPut callback dispatch overhead; drives the Paho callback directly, without the network
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DispatchBenchmark {
+
+    private static final String TOPIC = "bench/dispatch";
+
+    /**
+     * inline：在回调线程处理；pool：工作线程池；ordered：按主题固定通道
+     * inline: on the callback thread; pool: worker pool; ordered: lanes pinned by topic
+     */
+    @Param({"inline", "pool", "ordered"})
+    public String mode;
+
+    private MQTTEmbeddedBroker broker;
+    private MqttPut put;
+    private MqttCallback callback;
+    private final MqttMessage message = new MqttMessage(new byte[64]);
+    private final LongAdder handled = new LongAdder();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        broker = MQTTEmbeddedBroker.start();
+        put = Clients.put(broker.getUri(), TOPIC);
+        if ("pool".equals(mode)) {
+            put.dispatch(4, 4096, MQTTOverflow.BLOCK);
+        } else if ("ordered".equals(mode)) {
+            put.dispatchOrdered(4, 4096, MQTTOverflow.BLOCK);
+        }
+        put.responseRow((topic, m) -> handled.increment());
+        put.start();
+        callback = put.getMonitor().getMqttCallback();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        put.stop();
+        broker.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void messageArrived() throws Exception {
+        callback.messageArrived(TOPIC, message);
+    }
+}
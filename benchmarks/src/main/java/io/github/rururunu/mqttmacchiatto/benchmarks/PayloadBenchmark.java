@@ -0,0 +1,93 @@
+package io.github.rururunu.mqttmacchiatto.benchmarks;
+
+import io.github.rururunu.mqttmacchiatto.broker.MQTTEmbeddedBroker;
+import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import io.github.rururunu.mqttmacchiatto.tool.MqttPush;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * String 与字节消息体的编码、解码与推送 Encoding, decoding and pushing String versus byte payloads
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadBenchmark {
+
+    private static final String TOPIC = "bench/payload";
+
+    @Param({"16", "1024", "65536"})
+    public int payloadSize;
+
+    private MQTTEmbeddedBroker broker;
+    private MqttPush push;
+    private String text;
+    private byte[] bytes;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        broker = MQTTEmbeddedBroker.start();
+        push = Clients.push(broker.getUri(), 256);
+        char[] chars = new char[payloadSize];
+        Arrays.fill(chars, 'x');
+        text = new String(chars);
+        bytes = text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, MqttException {
+        push.stop();
+        broker.close();
+    }
+
+    @Benchmark
+    public byte[] encodeString() {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String decodeString() {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * MqttPut.responseBuffer 交给处理器的只读视图 The read-only view MqttPut.responseBuffer hands to handlers
+     */
+    @Benchmark
+    public ByteBuffer decodeBuffer() {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    @Benchmark
+    public CompletableFuture<IMqttToken> pushString() {
+        return push.pushAsync(TOPIC, text, MQTTQos.AT_MOST_ONCE);
+    }
+
+    @Benchmark
+    public CompletableFuture<IMqttToken> pushBytes() {
+        return push.pushAsync(TOPIC, bytes, MQTTQos.AT_MOST_ONCE);
+    }
+}
@@ -0,0 +1,85 @@
+package io.github.rururunu.mqttmacchiatto.benchmarks;
+
+import io.github.rururunu.mqttmacchiatto.broker.MQTTEmbeddedBroker;
+import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import io.github.rururunu.mqttmacchiatto.tool.MqttPush;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MqttPush 各 QoS 的吞吐与延迟 MqttPush throughput and latency at each QoS
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PushBenchmark {
+
+    private static final String TOPIC = "bench/push";
+
+    @Param({"AT_MOST_ONCE", "AT_LEAST_ONCE", "EXACTLY_ONCE"})
+    public MQTTQos qos;
+
+    @Param({"16", "1024"})
+    public int payloadSize;
+
+    /**
+     * tcp 走 127.0.0.1 套接字，local 走进程内管道 tcp goes through a 127.0.0.1 socket, local through in-process pipes
+     */
+    @Param({"tcp", "local"})
+    public String transport;
+
+    private MQTTEmbeddedBroker broker;
+    private MqttPush push;
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        broker = MQTTEmbeddedBroker.start();
+        push = Clients.push("local".equals(transport) ? broker.getLocalUri() : broker.getUri(), 256);
+        payload = new byte[payloadSize];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, MqttException {
+        push.stop();
+        broker.close();
+    }
+
+    /**
+     * 同步推送，逐条等待确认 Synchronous push, waits for every acknowledgement
+     */
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void push() throws MqttException {
+        push.push(TOPIC, payload, qos);
+    }
+
+    /**
+     * 流水线推送，受 maxInflight 窗口约束 Pipelined push, bounded by the maxInflight window
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public CompletableFuture<IMqttToken> pushAsync() {
+        return push.pushAsync(TOPIC, payload, qos);
+    }
+}
@@ -0,0 +1,117 @@
+package io.github.rururunu.mqttmacchiatto.benchmarks;
+
+import io.github.rururunu.mqttmacchiatto.broker.MQTTEmbeddedBroker;
+import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import io.github.rururunu.mqttmacchiatto.tool.MQTTTopicTrie;
+import io.github.rururunu.mqttmacchiatto.tool.MqttPush;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttTopic;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 主题查找：MqttPush.topicMap 与订阅过滤器匹配（前缀树对比逐个匹配）
+ * <br/>
+ * Topic lookup: MqttPush.topicMap and subscription filter matching (trie versus a linear scan)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TopicBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int topics;
+
+    @Param({"10", "100", "1000"})
+    public int filters;
+
+    private MQTTEmbeddedBroker broker;
+    private MqttPush push;
+    private Map<String, ?> topicMap;
+    private String[] names;
+    private int next;
+    private final byte[] payload = new byte[16];
+    private final List<String> filterList = new ArrayList<>();
+    private final MQTTTopicTrie<String> trie = new MQTTTopicTrie<>();
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() throws IOException, ReflectiveOperationException {
+        broker = MQTTEmbeddedBroker.start();
+        push = Clients.push(broker.getUri(), 256).topicCache(topics);
+        names = new String[topics];
+        for (int i = 0; i < topics; i++) {
+            names[i] = "device/" + i + "/status";
+            push.foundTopic(names[i]);
+        }
+        Field field = MqttPush.class.getDeclaredField("topicMap");
+        field.setAccessible(true);
+        topicMap = (Map<String, ?>) field.get(push);
+        for (int i = 0; i < filters; i++) {
+            String filter = i % 2 == 0 ? "device/" + i + "/+" : "site/" + i + "/#";
+            filterList.add(filter);
+            trie.add(filter, filter);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, MqttException {
+        push.stop();
+        broker.close();
+    }
+
+    private String nextTopic() {
+        String topic = names[next];
+        next = next + 1 == names.length ? 0 : next + 1;
+        return topic;
+    }
+
+    @Benchmark
+    public Object topicMapLookup() {
+        return topicMap.get(nextTopic());
+    }
+
+    /**
+     * 经 MqttPush.push 的完整路径，包含 topicMap 查找 The full MqttPush.push path, topicMap lookup included
+     */
+    @Benchmark
+    public void pushAcrossTopics() throws MqttException {
+        push.push(nextTopic(), payload, MQTTQos.AT_MOST_ONCE);
+    }
+
+    @Benchmark
+    public List<String> trieMatch() {
+        return trie.match(nextTopic());
+    }
+
+    @Benchmark
+    public int linearMatch() {
+        String topic = nextTopic();
+        int matched = 0;
+        for (String filter : filterList) {
+            if (MqttTopic.isMatched(filter, topic)) matched++;
+        }
+        return matched;
+    }
+}
@@ -0,0 +1,46 @@
+package io.github.rururunu.mqttmacchiatto.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * <h3>JSON 编解码器</h3>
+ * <h3>JSON codec</h3>
+ * <p>
+ * 基于 Jackson，直接从消息体字节解析；Jackson 的读写缓冲按线程复用
+ * <p>
+ * Backed by Jackson and parses straight from the payload bytes; Jackson recycles its read and write buffers per thread
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+public class JsonCodec implements PayloadCodec<Object> {
+
+    static final JsonCodec INSTANCE = new JsonCodec(new ObjectMapper());
+
+    private final ObjectMapper mapper;
+
+    public JsonCodec(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        try {
+            return mapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException("MQTT payload JSON encoding exception", e);
+        }
+    }
+
+    @Override
+    public <V> V decode(byte[] payload, Class<V> type) {
+        try {
+            return mapper.readValue(payload, type);
+        } catch (IOException e) {
+            throw new UncheckedIOException("MQTT payload JSON decoding exception", e);
+        }
+    }
+}
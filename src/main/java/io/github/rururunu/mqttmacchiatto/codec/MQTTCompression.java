@@ -0,0 +1,175 @@
+package io.github.rururunu.mqttmacchiatto.codec;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <h3>带标记头的消息体压缩</h3>
+ * <h3>Payload compression with a marker header</h3>
+ * <p>
+ * 压缩后的消息体以 8 字节标记头开始：0x00 'M' 'Z'、算法号、原始长度（大端 int），其后为 zlib 格式的 Deflate 数据。
+ * 接收方据此识别压缩消息，因此同一主题上可以混合压缩与未压缩的消息；标记头不符、长度或校验和不一致时按原样处理。
+ * Deflater、Inflater 与压缩缓冲按线程复用
+ * <p>
+ * A compressed payload starts with an 8 byte marker: 0x00 'M' 'Z', the algorithm number and the original length as a
+ * big-endian int, followed by Deflate data in zlib format. Receivers use it to tell compressed payloads apart, so
+ * compressed and plain messages can be mixed on one topic; a payload whose marker, length or checksum does not hold
+ * is treated as plain. Deflaters, inflaters and the compression buffer are reused per thread
+ * <p>
+ * 标记头来自发送方，不可信：声明长度超过上限或超过 Deflate 可能达到的压缩比时不解压，解压缓冲随实际输出增长，
+ * 不按声明长度预先分配
+ * <p>
+ * The marker comes from the sender and is not trusted: a declared length above the limit, or beyond any ratio Deflate
+ * can reach, is not inflated, and the output buffer grows with the actual output instead of being allocated up front
+ * from the declared length
+ * <pre>{@code
+ *   byte[] wire = MQTTCompression.compress(json, 1024, Deflater.BEST_SPEED);
+ *   byte[] back = MQTTCompression.decompress(wire); // 未压缩时原样返回 returned as is when not compressed
+ * }</pre>
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+public final class MQTTCompression {
+
+    /**
+     * 标记头长度 Marker header length
+     */
+    public static final int HEADER = 8;
+
+    /**
+     * 默认解压上限 Default limit on the decompressed length
+     */
+    public static final int DEFAULT_MAX_LENGTH = 16 * 1024 * 1024;
+
+    private static final byte DEFLATE = 1;
+    /**
+     * Deflate 的理论最大压缩比约为 1032:1 Deflate cannot compress better than about 1032:1
+     */
+    private static final int MAX_RATIO = 1032;
+    private static final int INITIAL_OUTPUT = 64 * 1024;
+    private static final int MAX_RETAINED_BUFFER = 1024 * 1024;
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(Deflater::new);
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
+    private MQTTCompression() {
+    }
+
+    /**
+     * 压缩 Compress
+     *
+     * @param payload   消息体 payload
+     * @param threshold 小于该字节数时不压缩 payloads shorter than this stay plain
+     * @param level     Deflate 压缩级别 0-9 Deflate level 0-9
+     * @return 压缩结果；未达到阈值或压缩后不更小时返回原数组 the compressed payload, or the same array when it is
+     * under the threshold or would not get smaller
+     */
+    public static byte[] compress(byte[] payload, int threshold, int level) {
+        if (payload.length < threshold || payload.length <= HEADER) {
+            return payload;
+        }
+        byte[] buffer = BUFFER.get();
+        if (buffer.length < payload.length) {
+            buffer = new byte[payload.length];
+            if (buffer.length <= MAX_RETAINED_BUFFER) {
+                BUFFER.set(buffer);
+            }
+        }
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setLevel(level);
+        deflater.setInput(payload);
+        deflater.finish();
+        // 只接受比原文更短的结果 Only a result shorter than the original is kept
+        int limit = payload.length;
+        int length = HEADER;
+        while (!deflater.finished() && length < limit) {
+            length += deflater.deflate(buffer, length, limit - length);
+        }
+        if (!deflater.finished()) {
+            return payload;
+        }
+        buffer[0] = 0;
+        buffer[1] = 'M';
+        buffer[2] = 'Z';
+        buffer[3] = DEFLATE;
+        buffer[4] = (byte) (payload.length >>> 24);
+        buffer[5] = (byte) (payload.length >>> 16);
+        buffer[6] = (byte) (payload.length >>> 8);
+        buffer[7] = (byte) payload.length;
+        byte[] compressed = new byte[length];
+        System.arraycopy(buffer, 0, compressed, 0, length);
+        return compressed;
+    }
+
+    /**
+     * 是否带压缩标记头 Whether the payload carries the compression marker
+     *
+     * @param payload 消息体 payload
+     * @return 带标记头 marked
+     */
+    public static boolean isCompressed(byte[] payload) {
+        return payload.length > HEADER && payload[0] == 0 && payload[1] == 'M' && payload[2] == 'Z' && payload[3] == DEFLATE;
+    }
+
+    /**
+     * 以默认上限解压 Decompress with the default limit
+     *
+     * @param payload 消息体 payload
+     * @return 解压结果；未压缩或无法解压时返回原数组 the original payload, or the same array when it is plain or cannot be decompressed
+     */
+    public static byte[] decompress(byte[] payload) {
+        return decompress(payload, DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * 解压 Decompress
+     *
+     * @param payload   消息体 payload
+     * @param maxLength 解压后的长度上限，超出时按原样返回 limit on the decompressed length; longer payloads are returned as is
+     * @return 解压结果；未压缩、超出上限或无法解压时返回原数组 the original payload, or the same array when it is plain,
+     * over the limit or cannot be decompressed
+     */
+    public static byte[] decompress(byte[] payload, int maxLength) {
+        if (!isCompressed(payload)) {
+            return payload;
+        }
+        int length = (payload[4] & 0xff) << 24 | (payload[5] & 0xff) << 16 | (payload[6] & 0xff) << 8 | (payload[7] & 0xff);
+        if (length < 0 || length > maxLength || length > (long) (payload.length - HEADER) * MAX_RATIO) {
+            return payload;
+        }
+        // 随输出增长，无效的流不会引起大块分配 Grows with the output, so an invalid stream never causes a large allocation
+        byte[] plain = new byte[Math.min(length, INITIAL_OUTPUT)];
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(payload, HEADER, payload.length - HEADER);
+        try {
+            int count = 0;
+            while (count < length && !inflater.finished()) {
+                if (count == plain.length) {
+                    plain = Arrays.copyOf(plain, (int) Math.min(length, 2L * plain.length));
+                }
+                int n = inflater.inflate(plain, count, plain.length - count);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return payload;
+                }
+                count += n;
+            }
+            if (count != length) {
+                return payload;
+            }
+            // 已达声明长度，流也必须在此结束 The declared length is reached, so the stream must end here too
+            if (!inflater.finished() && (inflater.inflate(new byte[1]) != 0 || !inflater.finished())) {
+                return payload;
+            }
+        } catch (DataFormatException e) {
+            // 恰好以标记头开始的普通消息 A plain payload that happens to start with the marker
+            return payload;
+        }
+        return plain;
+    }
+}
@@ -0,0 +1,51 @@
+package io.github.rururunu.mqttmacchiatto.codec;
+
+/**
+ * <h3>消息体编解码器</h3>
+ * <h3>Payload codec</h3>
+ * <p>
+ * 在对象与 MQTT 消息体之间转换，解码直接读取消息体字节，不经过中间 String
+ * <p>
+ * Converts between objects and MQTT payloads; decoding reads the payload bytes directly, without an intermediate String
+ * <pre>{@code
+ *   mqttPush.push("device/42/state", state, MQTTQos.AT_LEAST_ONCE);
+ *   MqttPut.of("device/+/state")
+ *           .response(DeviceState.class, state -> System.out.println(state))
+ *           .start();
+ * }</pre>
+ *
+ * @param <T> 可编解码的类型 type the codec handles
+ * @author rururunu
+ * @since 0.1.6
+ */
+public interface PayloadCodec<T> {
+
+    /**
+     * 编码 Encode
+     *
+     * @param value 对象 value
+     * @return 消息体，调用方可直接持有 payload, owned by the caller
+     */
+    byte[] encode(T value);
+
+    /**
+     * 解码 Decode
+     *
+     * @param payload 消息体 payload
+     * @param type    目标类型 target type
+     * @param <V>     目标类型 target type
+     * @return 对象 value
+     */
+    <V extends T> V decode(byte[] payload, Class<V> type);
+
+    /**
+     * 默认的 JSON 编解码器，需要 jackson-databind
+     * <br/>
+     * The default JSON codec; requires jackson-databind on the classpath
+     *
+     * @return JsonCodec
+     */
+    static PayloadCodec<Object> json() {
+        return JsonCodec.INSTANCE;
+    }
+}
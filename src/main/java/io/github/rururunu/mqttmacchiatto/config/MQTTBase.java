@@ -1,9 +1,13 @@
 package io.github.rururunu.mqttmacchiatto.config;
 
+import io.github.rururunu.mqttmacchiatto.content.MQTTPersistence;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.Charset;
+import java.util.Locale;
+
 /**
  * MQTT 配置连接的基础信息
  */
@@ -23,6 +27,22 @@ public class MQTTBase implements InitializingBean {
 
     private Integer reconnectFrequencyMs;
 
+    private Integer maxInflight;
+
+    private Integer reconnectMaxMs;
+
+    private Integer reconnectConcurrency;
+
+    private String charset;
+
+    private String persistence;
+
+    private String persistenceDir;
+
+    private Boolean sharedConnection;
+
+    private Boolean metricsHistograms;
+
     // 连接Host
     public static String HOST;
 
@@ -41,6 +61,30 @@ public class MQTTBase implements InitializingBean {
     // 重连频率ms
     public static Integer RECONNECT_FREQUENCY_MS;
 
+    // 最大在途消息数
+    public static Integer MAX_INFLIGHT;
+
+    // 重连退避上限ms
+    public static Integer RECONNECT_MAX_MS;
+
+    // 同时进行的重连数上限
+    public static Integer RECONNECT_CONCURRENCY;
+
+    // 字符串消息编码
+    public static Charset CHARSET;
+
+    // 在途消息持久化方式 memory / file / mapped
+    public static MQTTPersistence PERSISTENCE;
+
+    // 持久化目录
+    public static String PERSISTENCE_DIR;
+
+    // 同一 broker 与账号的实例共用连接
+    public static Boolean SHARED_CONNECTION;
+
+    // 发布耗时指标带百分位直方图
+    public static Boolean METRICS_HISTOGRAMS;
+
     @Override
     public void afterPropertiesSet() throws Exception {
         HOST = getHost();
@@ -49,6 +93,78 @@ public class MQTTBase implements InitializingBean {
         TIMEOUT = getTimeout();
         KEEP_ALIVE = getKeepalive();
         RECONNECT_FREQUENCY_MS = getReconnectFrequencyMs();
+        MAX_INFLIGHT = getMaxInflight();
+        RECONNECT_MAX_MS = getReconnectMaxMs();
+        RECONNECT_CONCURRENCY = getReconnectConcurrency();
+        CHARSET = getCharset() == null ? null : Charset.forName(getCharset());
+        PERSISTENCE = getPersistence() == null ? null : MQTTPersistence.valueOf(getPersistence().trim().toUpperCase(Locale.ROOT));
+        PERSISTENCE_DIR = getPersistenceDir();
+        SHARED_CONNECTION = getSharedConnection();
+        METRICS_HISTOGRAMS = getMetricsHistograms();
+    }
+
+    public Boolean getMetricsHistograms() {
+        return metricsHistograms;
+    }
+
+    public void setMetricsHistograms(Boolean metricsHistograms) {
+        this.metricsHistograms = metricsHistograms;
+    }
+
+    public Boolean getSharedConnection() {
+        return sharedConnection;
+    }
+
+    public void setSharedConnection(Boolean sharedConnection) {
+        this.sharedConnection = sharedConnection;
+    }
+
+    public String getPersistence() {
+        return persistence;
+    }
+
+    public void setPersistence(String persistence) {
+        this.persistence = persistence;
+    }
+
+    public String getPersistenceDir() {
+        return persistenceDir;
+    }
+
+    public void setPersistenceDir(String persistenceDir) {
+        this.persistenceDir = persistenceDir;
+    }
+
+    public String getCharset() {
+        return charset;
+    }
+
+    public void setCharset(String charset) {
+        this.charset = charset;
+    }
+
+    public Integer getReconnectMaxMs() {
+        return reconnectMaxMs;
+    }
+
+    public void setReconnectMaxMs(Integer reconnectMaxMs) {
+        this.reconnectMaxMs = reconnectMaxMs;
+    }
+
+    public Integer getReconnectConcurrency() {
+        return reconnectConcurrency;
+    }
+
+    public void setReconnectConcurrency(Integer reconnectConcurrency) {
+        this.reconnectConcurrency = reconnectConcurrency;
+    }
+
+    public Integer getMaxInflight() {
+        return maxInflight;
+    }
+
+    public void setMaxInflight(Integer maxInflight) {
+        this.maxInflight = maxInflight;
     }
 
     public Integer getReconnectFrequencyMs() {
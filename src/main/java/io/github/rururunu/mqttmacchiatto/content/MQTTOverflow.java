@@ -0,0 +1,17 @@
+package io.github.rururunu.mqttmacchiatto.content;
+
+/**
+ * 分发队列已满时的处理策略
+ * <br/>
+ * What to do when the dispatch queue is full
+ */
+public enum MQTTOverflow {
+    // 阻塞回调线程直至队列有空位 Block the callback thread until the queue has room
+    BLOCK,
+    // 丢弃队列中最旧的消息 Drop the oldest queued message
+    DROP_OLDEST,
+    // 丢弃新到达的消息 Drop the message that just arrived
+    DROP_NEWEST,
+    // 在回调线程上直接处理 Run the handler on the callback thread
+    CALLER_RUNS
+}
@@ -0,0 +1,15 @@
+package io.github.rururunu.mqttmacchiatto.content;
+
+/**
+ * 客户端在途消息状态的持久化方式
+ * <br/>
+ * Where a client keeps its in-flight message state
+ */
+public enum MQTTPersistence {
+    // 仅内存，重启后丢失 Memory only, lost on restart
+    MEMORY,
+    // Paho 的文件持久化，每条消息一个文件 Paho's file persistence, one file per message
+    FILE,
+    // 内存映射日志，重启后 QoS 1/2 仍可续传 Memory-mapped log, QoS 1/2 deliveries resume after a restart
+    MAPPED
+}
@@ -14,4 +14,13 @@ public enum MQTTQos {
     public int getValue() {
         return value;
     }
+
+    public static MQTTQos of(int value) {
+        for (MQTTQos qos : values()) {
+            if (qos.value == value) {
+                return qos;
+            }
+        }
+        throw new IllegalArgumentException("Unknown MQTT QoS " + value);
+    }
 }
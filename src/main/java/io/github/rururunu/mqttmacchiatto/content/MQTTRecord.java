@@ -0,0 +1,64 @@
+package io.github.rururunu.mqttmacchiatto.content;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <h3>一条待推送的消息</h3>
+ * <h3>A message waiting to be pushed</h3>
+ * <pre>{@code
+ *   mqttPush.pushBatch(Arrays.asList(
+ *           new MQTTRecord("sensor/1", "25.6", MQTTQos.AT_LEAST_ONCE),
+ *           new MQTTRecord("sensor/2", "26.1", MQTTQos.AT_LEAST_ONCE)
+ *   ));
+ * }</pre>
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+public class MQTTRecord {
+
+    private final String topic;
+    private final String message;
+    private final byte[] payload;
+    private final MQTTQos qos;
+
+    /**
+     * @param message 消息，推送时按 MqttPush 的字符集编码 message, encoded with the charset of the MqttPush sending it
+     */
+    public MQTTRecord(String topic, String message, MQTTQos qos) {
+        this.topic = topic;
+        this.message = message;
+        this.payload = null;
+        this.qos = qos;
+    }
+
+    public MQTTRecord(String topic, byte[] payload, MQTTQos qos) {
+        this.topic = topic;
+        this.message = null;
+        this.payload = payload;
+        this.qos = qos;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * 文本消息按 UTF-8 编码 A text message is encoded as UTF-8
+     */
+    public byte[] getPayload() {
+        return getPayload(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 文本消息按给定字符集编码 A text message is encoded with the given charset
+     */
+    public byte[] getPayload(Charset charset) {
+        return payload != null ? payload : message.getBytes(charset);
+    }
+
+    public MQTTQos getQos() {
+        return qos;
+    }
+}
@@ -0,0 +1,155 @@
+package io.github.rururunu.mqttmacchiatto.metrics;
+
+import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * <h3>指标记录</h3>
+ * <h3>Metrics recorder</h3>
+ * <p>
+ * 推送、接收与连接生命周期的埋点。默认实现什么都不做；容器中存在 MeterRegistry 时自动换成 {@link MicrometerMetrics}。
+ * 埋点处先检查 {@link #enabled()}，未启用时连计时都不做
+ * <p>
+ * Instrumentation points for publishing, receiving and the connection lifecycle. The default does nothing; when a
+ * MeterRegistry bean exists it is replaced by {@link MicrometerMetrics} automatically. Call sites check
+ * {@link #enabled()} first, so nothing is even timed while metrics are off
+ * <pre>{@code
+ *   // 非 Spring 环境 Outside Spring
+ *   MQTTMetrics.install(new MicrometerMetrics(registry));
+ * }</pre>
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+public interface MQTTMetrics {
+
+    MQTTMetrics NOOP = new MQTTMetrics() {
+    };
+
+    /**
+     * 当前生效的记录器 The recorder in effect
+     *
+     * @return MQTTMetrics
+     */
+    static MQTTMetrics current() {
+        return Installed.current;
+    }
+
+    /**
+     * 替换当前记录器，null 表示关闭 Replace the recorder in effect; null turns metrics off
+     *
+     * @param metrics 记录器 recorder
+     */
+    static void install(MQTTMetrics metrics) {
+        Installed.current = metrics == null ? NOOP : metrics;
+    }
+
+    default boolean enabled() {
+        return false;
+    }
+
+    /**
+     * 一条消息发布完成 A publish completed
+     *
+     * @param client  客户端 id client id
+     * @param qos     等级 qos
+     * @param bytes   消息体大小 payload size
+     * @param nanos   从发出到确认的耗时 time from send to acknowledgement
+     * @param success 是否成功 whether it succeeded
+     */
+    default void published(String client, MQTTQos qos, int bytes, long nanos, boolean success) {
+    }
+
+    /**
+     * 收到一条消息 A message arrived
+     *
+     * @param client 客户端 id client id
+     * @param bytes  消息体大小 payload size
+     */
+    default void received(String client, int bytes) {
+    }
+
+    /**
+     * 一次消息处理完成 A message handler finished
+     *
+     * @param client 客户端 id client id
+     * @param nanos  耗时 duration
+     */
+    default void handled(String client, long nanos) {
+    }
+
+    /**
+     * 一次重连尝试 A reconnect attempt
+     *
+     * @param client  客户端 id client id
+     * @param success 是否连上 whether it connected
+     */
+    default void reconnectAttempt(String client, boolean success) {
+    }
+
+    /**
+     * 一次断线在重连后结束 An outage ended with a reconnect
+     *
+     * @param client 客户端 id client id
+     * @param nanos  断线时长 outage duration
+     */
+    default void outage(String client, long nanos) {
+    }
+
+    /**
+     * 登记一个随时读取的值，如在途消息数、队列深度；不持有 target 的强引用
+     * <br/>
+     * Register a value read on demand, such as the in-flight count or a queue depth; target is not strongly referenced
+     *
+     * @param name   指标名 metric name
+     * @param client 客户端 id client id
+     * @param target 被读取的对象 object the value is read from
+     * @param value  读取函数 reader
+     * @param <T>    对象类型 object type
+     */
+    default <T> void gauge(String name, String client, T target, ToDoubleFunction<T> value) {
+    }
+
+    /**
+     * 登记一个只增不减的计数，如丢弃数 Register a monotonically increasing count, such as a drop count
+     *
+     * @param name   指标名 metric name
+     * @param client 客户端 id client id
+     * @param target 被读取的对象 object the value is read from
+     * @param value  读取函数 reader
+     * @param <T>    对象类型 object type
+     */
+    default <T> void counter(String name, String client, T target, ToDoubleFunction<T> value) {
+    }
+
+    /**
+     * 客户端已停止，丢弃它的全部指标；客户端 id 多为随机 UUID，不丢弃会一直留在注册表里
+     * <br/>
+     * The client has stopped, drop all of its meters; client ids are often random UUIDs and would otherwise stay in
+     * the registry forever
+     *
+     * @param client 客户端 id client id
+     */
+    default void release(String client) {
+    }
+
+    /**
+     * 启用时返回当前时间，否则返回 0 The current time when enabled, otherwise 0
+     *
+     * @return System.nanoTime() or 0
+     */
+    static long start() {
+        return Installed.current.enabled() ? System.nanoTime() : 0;
+    }
+}
+
+/**
+ * 当前生效的记录器 Holds the recorder in effect
+ */
+final class Installed {
+    static volatile MQTTMetrics current = MQTTMetrics.NOOP;
+
+    private Installed() {
+    }
+}
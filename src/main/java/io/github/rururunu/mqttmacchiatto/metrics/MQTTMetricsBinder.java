@@ -0,0 +1,42 @@
+package io.github.rururunu.mqttmacchiatto.metrics;
+
+import io.github.rururunu.mqttmacchiatto.config.MQTTBase;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.stereotype.Component;
+
+/**
+ * 类路径上有 Micrometer 且容器中存在唯一的 MeterRegistry 时启用指标
+ * <br/>
+ * Turns metrics on when Micrometer is on the classpath and the context holds a single MeterRegistry
+ */
+@Component
+@ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+public class MQTTMetricsBinder implements InitializingBean, DisposableBean {
+
+    private final ObjectProvider<MeterRegistry> registry;
+    private final ObjectProvider<MQTTBase> base;
+
+    public MQTTMetricsBinder(ObjectProvider<MeterRegistry> registry, ObjectProvider<MQTTBase> base) {
+        this.registry = registry;
+        this.base = base;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        MeterRegistry current = registry.getIfUnique();
+        if (current != null) {
+            MQTTBase config = base.getIfAvailable();
+            boolean histograms = config != null && Boolean.TRUE.equals(config.getMetricsHistograms());
+            MQTTMetrics.install(new MicrometerMetrics(current, histograms));
+        }
+    }
+
+    @Override
+    public void destroy() {
+        MQTTMetrics.install(null);
+    }
+}
@@ -0,0 +1,162 @@
+package io.github.rururunu.mqttmacchiatto.metrics;
+
+import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * <h3>Micrometer 指标</h3>
+ * <h3>Micrometer metrics</h3>
+ * <p>
+ * 所有指标以 client 标签区分连接，发布耗时另带 qos 与 outcome 标签。每个客户端的指标首次使用时创建并缓存，
+ * 之后的记录不再查找注册表
+ * <p>
+ * Every meter is tagged with the client id; publish latency also carries qos and outcome tags. A client's meters
+ * are created on first use and cached, so recording never goes back to the registry
+ * <p>
+ * 客户端停止时通过 {@link #release(String)} 移除它的全部指标，避免随机 client id 让注册表无限增长。
+ * mqtt.publish 的百分位直方图每个客户端有六组桶，默认关闭，需要时用 {@code mto-mqtt.metrics-histograms=true} 开启
+ * <p>
+ * A stopped client's meters are removed through {@link #release(String)}, so random client ids do not grow the
+ * registry without bound. The mqtt.publish percentile histograms cost six sets of buckets per client and are off by
+ * default; turn them on with {@code mto-mqtt.metrics-histograms=true}
+ * <ul>
+ *     <li>mqtt.publish — 发布到确认的耗时直方图 publish-to-acknowledgement latency histogram</li>
+ *     <li>mqtt.publish.inflight — 在途消息数 messages awaiting acknowledgement</li>
+ *     <li>mqtt.messages.out / mqtt.bytes.out — 发出的消息数与字节数 messages and bytes sent</li>
+ *     <li>mqtt.messages.in / mqtt.bytes.in — 收到的消息数与字节数 messages and bytes received</li>
+ *     <li>mqtt.handler — 消息处理耗时 handler execution time</li>
+ *     <li>mqtt.dispatch.queue.depth / mqtt.dispatch.dropped — 分发队列深度与丢弃数 dispatch queue depth and drops</li>
+ *     <li>mqtt.reconnect.attempts — 重连尝试，按 outcome 区分 reconnect attempts by outcome</li>
+ *     <li>mqtt.connection.outage — 断线时长 outage duration</li>
+ * </ul>
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+public class MicrometerMetrics implements MQTTMetrics {
+
+    private static final String CLIENT = "client";
+
+    private final MeterRegistry registry;
+    private final boolean histograms;
+    private final ConcurrentMap<String, ClientMeters> clients = new ConcurrentHashMap<>();
+
+    public MicrometerMetrics(MeterRegistry registry) {
+        this(registry, false);
+    }
+
+    /**
+     * @param registry   注册表 registry
+     * @param histograms mqtt.publish 是否发布百分位直方图 whether mqtt.publish publishes percentile histograms
+     */
+    public MicrometerMetrics(MeterRegistry registry, boolean histograms) {
+        this.registry = registry;
+        this.histograms = histograms;
+    }
+
+    @Override
+    public boolean enabled() {
+        return true;
+    }
+
+    @Override
+    public void published(String client, MQTTQos qos, int bytes, long nanos, boolean success) {
+        ClientMeters meters = meters(client);
+        meters.publish[qos.getValue() * 2 + (success ? 0 : 1)].record(nanos, TimeUnit.NANOSECONDS);
+        if (success) {
+            meters.messagesOut.increment();
+            meters.bytesOut.increment(bytes);
+        }
+    }
+
+    @Override
+    public void received(String client, int bytes) {
+        ClientMeters meters = meters(client);
+        meters.messagesIn.increment();
+        meters.bytesIn.increment(bytes);
+    }
+
+    @Override
+    public void handled(String client, long nanos) {
+        meters(client).handler.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void reconnectAttempt(String client, boolean success) {
+        ClientMeters meters = meters(client);
+        (success ? meters.reconnected : meters.reconnectFailed).increment();
+    }
+
+    @Override
+    public void outage(String client, long nanos) {
+        meters(client).outage.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public <T> void gauge(String name, String client, T target, ToDoubleFunction<T> value) {
+        Gauge.builder(name, target, value).tag(CLIENT, client).register(registry);
+    }
+
+    @Override
+    public <T> void counter(String name, String client, T target, ToDoubleFunction<T> value) {
+        FunctionCounter.builder(name, target, value).tag(CLIENT, client).register(registry);
+    }
+
+    @Override
+    public void release(String client) {
+        clients.remove(client);
+        for (Meter meter : registry.getMeters()) {
+            if (client.equals(meter.getId().getTag(CLIENT))) {
+                registry.remove(meter);
+            }
+        }
+    }
+
+    private ClientMeters meters(String client) {
+        ClientMeters meters = clients.get(client);
+        return meters != null ? meters : clients.computeIfAbsent(client, c -> new ClientMeters(registry, c, histograms));
+    }
+
+    private static final class ClientMeters {
+        private final Timer[] publish = new Timer[6];
+        private final Counter messagesOut;
+        private final Counter bytesOut;
+        private final Counter messagesIn;
+        private final Counter bytesIn;
+        private final Timer handler;
+        private final Counter reconnected;
+        private final Counter reconnectFailed;
+        private final Timer outage;
+
+        private ClientMeters(MeterRegistry registry, String client, boolean histograms) {
+            for (MQTTQos qos : MQTTQos.values()) {
+                for (int failed = 0; failed < 2; failed++) {
+                    publish[qos.getValue() * 2 + failed] = Timer.builder("mqtt.publish")
+                            .tag(CLIENT, client)
+                            .tag("qos", String.valueOf(qos.getValue()))
+                            .tag("outcome", failed == 0 ? "success" : "failure")
+                            .publishPercentileHistogram(histograms)
+                            .register(registry);
+                }
+            }
+            messagesOut = Counter.builder("mqtt.messages.out").tag(CLIENT, client).register(registry);
+            bytesOut = Counter.builder("mqtt.bytes.out").baseUnit("bytes").tag(CLIENT, client).register(registry);
+            messagesIn = Counter.builder("mqtt.messages.in").tag(CLIENT, client).register(registry);
+            bytesIn = Counter.builder("mqtt.bytes.in").baseUnit("bytes").tag(CLIENT, client).register(registry);
+            handler = Timer.builder("mqtt.handler").tag(CLIENT, client).register(registry);
+            reconnected = Counter.builder("mqtt.reconnect.attempts").tag(CLIENT, client).tag("outcome", "success").register(registry);
+            reconnectFailed = Counter.builder("mqtt.reconnect.attempts").tag(CLIENT, client).tag("outcome", "failure").register(registry);
+            outage = Timer.builder("mqtt.connection.outage").tag(CLIENT, client).register(registry);
+        }
+    }
+}
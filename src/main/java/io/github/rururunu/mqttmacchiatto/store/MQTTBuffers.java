@@ -0,0 +1,69 @@
+package io.github.rururunu.mqttmacchiatto.store;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * 立即解除内存映射，而不是等到 GC
+ * <br/>
+ * Unmaps a mapped buffer at once instead of waiting for GC
+ * <p>
+ * 映射未解除前，Linux 上删除的文件不释放磁盘空间，Windows 上文件无法删除或替换。
+ * Java 9+ 使用 Unsafe.invokeCleaner，Java 8 使用缓冲区的 Cleaner；都不可用时退回由 GC 解除。解除后不得再访问该缓冲区
+ * <p>
+ * Until a mapping is released, a deleted file keeps its disk space on Linux and cannot be deleted or replaced on
+ * Windows. Java 9+ uses Unsafe.invokeCleaner and Java 8 the buffer's Cleaner; when neither is available GC releases it.
+ * The buffer must not be touched once unmapped
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+final class MQTTBuffers {
+
+    private static final Unmapper UNMAPPER = unmapper();
+
+    private MQTTBuffers() {
+    }
+
+    interface Unmapper {
+        void unmap(ByteBuffer buffer) throws Exception;
+    }
+
+    static void unmap(MappedByteBuffer buffer) {
+        if (buffer == null || UNMAPPER == null) {
+            return;
+        }
+        try {
+            UNMAPPER.unmap(buffer);
+        } catch (Exception e) {
+            // 交给 GC 解除 Left to GC
+            System.err.println("MQTT unmap exception " + e);
+        }
+    }
+
+    private static Unmapper unmapper() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            return buffer -> invokeCleaner.invoke(unsafe, buffer);
+        } catch (Exception | LinkageError java8) {
+            try {
+                Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+                return buffer -> {
+                    Object current = cleaner.invoke(buffer);
+                    if (current != null) {
+                        clean.invoke(current);
+                    }
+                };
+            } catch (Exception | LinkageError e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package io.github.rururunu.mqttmacchiatto.store;
+
+import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import io.github.rururunu.mqttmacchiatto.content.MQTTRecord;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <h3>出站消息日志</h3>
+ * <h3>Outbound message journal</h3>
+ * <p>
+ * 断线期间的推送以追加方式写入内存映射的分段文件，恢复连接后按写入顺序取出重发。
+ * 超过总大小上限时丢弃最旧的分段，超过存活时间的消息在取出时跳过；删除分段前先解除映射，磁盘占用不超过上限
+ * <p>
+ * Pushes made while disconnected are appended to memory-mapped segment files and replayed in order once the
+ * connection is back. When the size cap is reached the oldest segment is dropped; messages older than the TTL
+ * are skipped when read. Segments are unmapped before they are deleted, so disk usage stays within the cap
+ * <pre>{@code
+ *   MQTTJournal journal = new MQTTJournal(Paths.get("/var/lib/app/mqtt-journal"),
+ *           64 * 1024 * 1024, 1024L * 1024 * 1024, 10 * 60 * 1000);
+ *   MqttPush mqttPush = new MqttPush().journal(journal, 2000).init();
+ * }</pre>
+ *
+ * <h3>文件格式 File format</h3>
+ * 每个分段：[long 已读位置][记录...]；每条记录：[int 长度][long 时间戳][byte qos][short 主题长度][主题][消息体]，
+ * 长度最后写入，未写完的记录不可见
+ * <br/>
+ * Each segment: [long read position][records...]; each record: [int length][long timestamp][byte qos]
+ * [short topic length][topic][payload]. The length is written last, so a half-written record is never visible
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+public class MQTTJournal implements Closeable {
+
+    private static final String SUFFIX = ".seg";
+    private static final int SEGMENT_HEADER = 8;
+    private static final int RECORD_HEADER = 4 + 8 + 1 + 2;
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final long ttlMs;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+
+    private long pending;
+    private long dropped;
+    private long expired;
+    private int peekedPosition = -1;
+    private long peekedCount;
+    private long peekedExpired;
+
+    /**
+     * @param dir          分段文件目录 directory of the segment files
+     * @param segmentBytes 单个分段大小 size of one segment
+     * @param maxBytes     所有分段合计上限 cap over all segments
+     * @param ttlMs        消息存活时间，0 表示不过期 message time to live, 0 keeps messages forever
+     * @throws IOException 打开或恢复失败 failed to open or recover the journal
+     */
+    public MQTTJournal(Path dir, int segmentBytes, long maxBytes, long ttlMs) throws IOException {
+        if (segmentBytes <= SEGMENT_HEADER + RECORD_HEADER || maxBytes < 2L * segmentBytes) {
+            throw new IllegalArgumentException("maxBytes must hold at least two segments");
+        }
+        this.dir = Files.createDirectories(dir);
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        this.ttlMs = ttlMs;
+        recover();
+    }
+
+    /**
+     * 追加一条消息 Append a message
+     *
+     * @param topic   主题 topic
+     * @param payload 消息体 payload
+     * @param qos     等级 qos
+     */
+    public synchronized void append(String topic, byte[] payload, MQTTQos qos) {
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        int length = RECORD_HEADER - 4 + topicBytes.length + payload.length;
+        if (4 + length > segmentBytes - SEGMENT_HEADER) {
+            throw new IllegalArgumentException("MQTT message larger than a journal segment");
+        }
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.writePosition + 4 + length > segmentBytes) {
+            tail = roll();
+        }
+        MappedByteBuffer buffer = tail.buffer;
+        int position = tail.writePosition;
+        buffer.putLong(position + 4, System.currentTimeMillis());
+        buffer.put(position + 12, (byte) qos.getValue());
+        buffer.putShort(position + 13, (short) topicBytes.length);
+        // 经 Buffer 调用 position，避免链接到 Java 9+ 的协变重载 Called through Buffer to avoid linking against the Java 9+ covariant override
+        ((Buffer) buffer).position(position + RECORD_HEADER);
+        buffer.put(topicBytes).put(payload);
+        buffer.putInt(position, length);
+        tail.writePosition = position + 4 + length;
+        tail.count++;
+        pending++;
+    }
+
+    /**
+     * 按顺序读取最多 max 条未过期的消息，不移动读位置；确认发送后调用 {@link #commit()}
+     * <br/>
+     * Read up to max unexpired messages in order without moving the read position; call {@link #commit()} once they are sent
+     *
+     * @param max 最多条数 maximum messages
+     * @return 消息 messages
+     */
+    public synchronized List<MQTTRecord> peek(int max) {
+        Segment head = head();
+        if (head == null) {
+            return Collections.emptyList();
+        }
+        List<MQTTRecord> records = new ArrayList<>(Math.min(max, 256));
+        long now = System.currentTimeMillis();
+        int position = head.readPosition;
+        long count = 0;
+        long skipped = 0;
+        while (records.size() < max && position < head.writePosition) {
+            MappedByteBuffer buffer = head.buffer;
+            int length = buffer.getInt(position);
+            long timestamp = buffer.getLong(position + 4);
+            count++;
+            if (ttlMs > 0 && now - timestamp > ttlMs) {
+                skipped++;
+            } else {
+                byte[] topic = new byte[buffer.getShort(position + 13)];
+                byte[] payload = new byte[length - (RECORD_HEADER - 4) - topic.length];
+                ((Buffer) buffer).position(position + RECORD_HEADER);
+                buffer.get(topic).get(payload);
+                records.add(new MQTTRecord(new String(topic, StandardCharsets.UTF_8), payload,
+                        MQTTQos.of(buffer.get(position + 12))));
+            }
+            position += 4 + length;
+        }
+        peekedPosition = position;
+        peekedCount = count;
+        peekedExpired = skipped;
+        return records;
+    }
+
+    /**
+     * 确认上一次 peek 的消息已发送，移动读位置 Mark the messages of the last peek as sent and move the read position
+     */
+    public synchronized void commit() {
+        Segment head = segments.peekFirst();
+        if (head == null || peekedPosition < 0) {
+            return;
+        }
+        head.readPosition = peekedPosition;
+        head.buffer.putLong(0, peekedPosition);
+        head.count -= peekedCount;
+        pending -= peekedCount;
+        expired += peekedExpired;
+        peekedPosition = -1;
+        peekedCount = 0;
+        peekedExpired = 0;
+    }
+
+    public synchronized boolean isEmpty() {
+        return pending == 0;
+    }
+
+    /**
+     * 待发送的消息数 Messages waiting to be sent
+     *
+     * @return 条数 count
+     */
+    public synchronized long getPending() {
+        return pending;
+    }
+
+    /**
+     * 因总大小上限被丢弃的消息数 Messages dropped because of the size cap
+     *
+     * @return 条数 count
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * 因超过存活时间被跳过的消息数 Messages skipped because they outlived the TTL
+     *
+     * @return 条数 count
+     */
+    public synchronized long getExpired() {
+        return expired;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+            MQTTBuffers.unmap(segment.buffer);
+            segment.channel.close();
+        }
+        segments.clear();
+    }
+
+    /**
+     * 读完的旧分段被删除 Fully read segments other than the tail are deleted
+     */
+    private Segment head() {
+        Segment head = segments.peekFirst();
+        while (head != null && head.readPosition >= head.writePosition && head != segments.peekLast()) {
+            delete(segments.pollFirst());
+            peekedPosition = -1;
+            head = segments.peekFirst();
+        }
+        return head;
+    }
+
+    private Segment roll() {
+        try {
+            long next = segments.isEmpty() ? 1 : segments.peekLast().sequence + 1;
+            while ((long) (segments.size() + 1) * segmentBytes > maxBytes) {
+                Segment oldest = segments.pollFirst();
+                dropped += oldest.count;
+                pending -= oldest.count;
+                peekedPosition = -1;
+                delete(oldest);
+            }
+            Segment segment = Segment.open(dir.resolve(String.format("%020d%s", next, SUFFIX)), next, segmentBytes);
+            segments.addLast(segment);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("MQTT journal segment roll exception", e);
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long sequence = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+            Segment segment = Segment.open(file, sequence, segmentBytes);
+            segments.addLast(segment);
+            pending += segment.count;
+        }
+    }
+
+    /**
+     * 先解除映射再删除，磁盘空间立即释放 Unmapped before deleting, so the disk space is freed at once
+     */
+    private static void delete(Segment segment) {
+        try {
+            MQTTBuffers.unmap(segment.buffer);
+            segment.channel.close();
+            Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("MQTT journal segment delete exception", e);
+        }
+    }
+
+    private static final class Segment {
+        private final Path file;
+        private final long sequence;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int readPosition;
+        private int writePosition;
+        private long count;
+
+        private Segment(Path file, long sequence, FileChannel channel, MappedByteBuffer buffer) {
+            this.file = file;
+            this.sequence = sequence;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        private static Segment open(Path file, long sequence, int segmentBytes) throws IOException {
+            FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(file, sequence, channel,
+                    channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+            segment.scan(segmentBytes);
+            return segment;
+        }
+
+        /**
+         * 从头扫描到第一条不完整的记录，恢复读写位置和未读条数
+         * Scans up to the first incomplete record to restore the read/write positions and the unread count
+         */
+        private void scan(int segmentBytes) {
+            long committed = buffer.getLong(0);
+            int position = SEGMENT_HEADER;
+            while (position + 4 <= segmentBytes) {
+                int length = buffer.getInt(position);
+                if (length < RECORD_HEADER - 4 || position + 4 + length > segmentBytes) {
+                    break;
+                }
+                if (position >= committed) {
+                    count++;
+                }
+                position += 4 + length;
+            }
+            writePosition = position;
+            readPosition = (int) Math.max(SEGMENT_HEADER, Math.min(committed, position));
+        }
+    }
+}
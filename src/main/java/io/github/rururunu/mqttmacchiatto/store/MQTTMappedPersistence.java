@@ -0,0 +1,397 @@
+package io.github.rururunu.mqttmacchiatto.store;
+
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+import org.eclipse.paho.client.mqttv3.internal.MqttPersistentData;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <h3>内存映射的客户端持久化</h3>
+ * <h3>Memory-mapped client persistence</h3>
+ * <p>
+ * 将 Paho 的 QoS 1/2 在途状态追加写入一个内存映射的日志文件，并在内存中保留索引，重启后回放日志恢复。
+ * 日志写满时，若失效记录超过一半则压缩为只含有效记录的新文件，否则扩容一倍；打开时同样检查是否需要压缩。
+ * 与 MqttDefaultFilePersistence 每条消息一个文件相比，写入只是一次内存拷贝
+ * <p>
+ * Appends Paho's QoS 1/2 in-flight state to a single memory-mapped log and keeps an index in memory; the log is
+ * replayed on restart. When the log fills up it is compacted into a new file holding only live records if more than
+ * half of it is dead, otherwise it doubles in size; the same check runs on open. Compared with
+ * MqttDefaultFilePersistence, which writes one file per message, a write here is a memory copy
+ * <pre>{@code
+ *   MqttPush mqttPush = new MqttPush()
+ *           .persistence(MQTTPersistence.MAPPED, "/var/lib/app/mqtt-persistence")
+ *           .init();
+ * }</pre>
+ * 写入不逐条刷盘：进程崩溃不丢数据，操作系统崩溃可能丢失最后未刷出的页
+ * <br/>
+ * Writes are not forced one by one: state survives a process crash, an operating system crash may lose the last unflushed pages
+ *
+ * <h3>文件格式 File format</h3>
+ * 每条记录：[int 长度][byte 类型][short 键长度][键]，写入记录另有 [int 头长度][头][消息体]；长度最后写入，未写完的记录不可见
+ * <br/>
+ * Each record: [int length][byte type][short key length][key], put records add [int header length][header][payload].
+ * The length is written last, so a half-written record is never visible
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+public class MQTTMappedPersistence implements MqttClientPersistence {
+
+    private static final String LOG = "mqtt.log";
+    private static final String LOCK = "mqtt.lck";
+    private static final int DEFAULT_INITIAL_BYTES = 4 * 1024 * 1024;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    private final Path root;
+    private final int initialBytes;
+
+    private Path dir;
+    private FileChannel lockChannel;
+    private FileLock lock;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int writePosition;
+    private long liveBytes;
+    private final Map<String, Entry> index = new HashMap<>();
+
+    /**
+     * @param directory 持久化根目录，每个客户端使用其中一个子目录 root directory; every client gets a subdirectory of it
+     */
+    public MQTTMappedPersistence(String directory) {
+        this(directory, DEFAULT_INITIAL_BYTES);
+    }
+
+    /**
+     * @param directory    持久化根目录 root directory
+     * @param initialBytes 日志初始大小 initial size of the log
+     */
+    public MQTTMappedPersistence(String directory, int initialBytes) {
+        if (initialBytes < 1024) {
+            throw new IllegalArgumentException("initialBytes must be at least 1024");
+        }
+        this.root = Paths.get(directory);
+        this.initialBytes = initialBytes;
+    }
+
+    @Override
+    public synchronized void open(String clientId, String serverURI) throws MqttPersistenceException {
+        if (channel != null) {
+            return;
+        }
+        try {
+            dir = Files.createDirectories(root.resolve(key(clientId, serverURI)));
+            lockChannel = FileChannel.open(dir.resolve(LOCK),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                lock = lockChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                lockChannel.close();
+                throw new MqttPersistenceException(MqttPersistenceException.REASON_CODE_PERSISTENCE_IN_USE);
+            }
+            Path log = dir.resolve(LOG);
+            channel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(initialBytes, channel.size()));
+            replay();
+            if (liveBytes * 2 < writePosition) {
+                compact(0);
+            }
+        } catch (IOException e) {
+            release();
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws MqttPersistenceException {
+        if (channel == null) {
+            return;
+        }
+        buffer.force();
+        release();
+    }
+
+    @Override
+    public synchronized void put(String key, MqttPersistable persistable) throws MqttPersistenceException {
+        checkOpen();
+        byte[] header = copy(persistable.getHeaderBytes(), persistable.getHeaderOffset(), persistable.getHeaderLength());
+        byte[] payload = copy(persistable.getPayloadBytes(), persistable.getPayloadOffset(), persistable.getPayloadLength());
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int size = append(PUT, keyBytes, header, payload);
+        Entry previous = index.put(key, new Entry(header, payload, size));
+        liveBytes += size - (previous == null ? 0 : previous.size);
+    }
+
+    @Override
+    public synchronized MqttPersistable get(String key) throws MqttPersistenceException {
+        checkOpen();
+        Entry entry = index.get(key);
+        return entry == null ? null
+                : new MqttPersistentData(key, entry.header, 0, entry.header.length, entry.payload, 0, entry.payload.length);
+    }
+
+    @Override
+    public synchronized void remove(String key) throws MqttPersistenceException {
+        checkOpen();
+        Entry previous = index.remove(key);
+        if (previous != null) {
+            append(REMOVE, key.getBytes(StandardCharsets.UTF_8), null, null);
+            liveBytes -= previous.size;
+        }
+    }
+
+    @Override
+    public synchronized Enumeration<String> keys() throws MqttPersistenceException {
+        checkOpen();
+        return Collections.enumeration(new ArrayList<>(index.keySet()));
+    }
+
+    @Override
+    public synchronized void clear() throws MqttPersistenceException {
+        checkOpen();
+        index.clear();
+        liveBytes = 0;
+        try {
+            compact(0);
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    public synchronized boolean containsKey(String key) throws MqttPersistenceException {
+        checkOpen();
+        return index.containsKey(key);
+    }
+
+    /**
+     * 有效记录数 Live records
+     *
+     * @return 条数 count
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    private int append(byte type, byte[] key, byte[] header, byte[] payload) throws MqttPersistenceException {
+        int length = 1 + 2 + key.length + (type == PUT ? 4 + header.length + payload.length : 0);
+        int size = 4 + length;
+        try {
+            if (writePosition + size > buffer.capacity()) {
+                if (liveBytes * 2 < writePosition) {
+                    compact(size);
+                } else {
+                    grow(size);
+                }
+            }
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+        write(buffer, writePosition, length, type, key, header, payload);
+        writePosition += size;
+        return size;
+    }
+
+    private static void write(MappedByteBuffer buffer, int position, int length,
+                              byte type, byte[] key, byte[] header, byte[] payload) {
+        buffer.put(position + 4, type);
+        buffer.putShort(position + 5, (short) key.length);
+        // 经 Buffer 调用 position，避免链接到 Java 9+ 的协变重载 Called through Buffer to avoid linking against the Java 9+ covariant override
+        ((Buffer) buffer).position(position + 7);
+        buffer.put(key);
+        if (type == PUT) {
+            buffer.putInt(header.length).put(header).put(payload);
+        }
+        buffer.putInt(position, length);
+    }
+
+    private void grow(int needed) throws IOException {
+        long capacity = buffer.capacity();
+        while (capacity < writePosition + (long) needed) {
+            capacity *= 2;
+        }
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException("MQTT persistence log exceeds 2GB");
+        }
+        buffer.force();
+        MappedByteBuffer previous = buffer;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        MQTTBuffers.unmap(previous);
+    }
+
+    /**
+     * 只把有效记录写入新文件后替换旧日志。替换前解除两个文件的映射，否则 Windows 上无法替换；
+     * 替换失败时重新打开旧日志，实例保持可用
+     * <br/>
+     * Writes only the live records to a new file, then replaces the old log. Both files are unmapped before the
+     * replace, which Windows refuses otherwise; if the replace fails the old log is reopened so the instance stays usable
+     */
+    private void compact(int needed) throws IOException {
+        long capacity = initialBytes;
+        while (capacity < liveBytes + needed) {
+            capacity *= 2;
+        }
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException("MQTT persistence log exceeds 2GB");
+        }
+        Path temp = dir.resolve(LOG + ".compact");
+        Files.deleteIfExists(temp);
+        int position = 0;
+        try (FileChannel target = FileChannel.open(temp,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer compacted = target.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            try {
+                for (Map.Entry<String, Entry> live : index.entrySet()) {
+                    Entry entry = live.getValue();
+                    byte[] key = live.getKey().getBytes(StandardCharsets.UTF_8);
+                    write(compacted, position, entry.size - 4, PUT, key, entry.header, entry.payload);
+                    position += entry.size;
+                }
+                compacted.force();
+            } finally {
+                MQTTBuffers.unmap(compacted);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Path log = dir.resolve(LOG);
+        long previous = buffer.capacity();
+        buffer.force();
+        MQTTBuffers.unmap(buffer);
+        buffer = null;
+        channel.close();
+        channel = null;
+        try {
+            replace(temp, log);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            channel = FileChannel.open(log, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, previous);
+            throw e;
+        }
+        channel = FileChannel.open(log, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        writePosition = position;
+    }
+
+    private static void replace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 从头回放到第一条不完整的记录，重建索引 Replays up to the first incomplete record to rebuild the index
+     */
+    private void replay() {
+        int capacity = buffer.capacity();
+        int position = 0;
+        while (position + 4 <= capacity) {
+            int length = buffer.getInt(position);
+            if (length < 3 || position + 4 + length > capacity) {
+                break;
+            }
+            byte type = buffer.get(position + 4);
+            byte[] key = new byte[buffer.getShort(position + 5) & 0xffff];
+            ((Buffer) buffer).position(position + 7);
+            buffer.get(key);
+            String name = new String(key, StandardCharsets.UTF_8);
+            Entry previous;
+            if (type == PUT) {
+                byte[] header = new byte[buffer.getInt()];
+                byte[] payload = new byte[length - 3 - key.length - 4 - header.length];
+                buffer.get(header).get(payload);
+                previous = index.put(name, new Entry(header, payload, 4 + length));
+                liveBytes += 4 + length;
+            } else {
+                previous = index.remove(name);
+            }
+            if (previous != null) {
+                liveBytes -= previous.size;
+            }
+            position += 4 + length;
+        }
+        writePosition = position;
+    }
+
+    private void checkOpen() throws MqttPersistenceException {
+        if (channel == null) {
+            throw new MqttPersistenceException();
+        }
+    }
+
+    private void release() {
+        MQTTBuffers.unmap(buffer);
+        try {
+            if (channel != null) channel.close();
+            if (lock != null) lock.release();
+            if (lockChannel != null) lockChannel.close();
+        } catch (IOException ignored) {
+            // 已关闭 Already closed
+        }
+        channel = null;
+        buffer = null;
+        lock = null;
+        lockChannel = null;
+        index.clear();
+        liveBytes = 0;
+        writePosition = 0;
+    }
+
+    private static byte[] copy(byte[] bytes, int offset, int length) {
+        byte[] copy = new byte[bytes == null ? 0 : length];
+        if (bytes != null) {
+            System.arraycopy(bytes, offset, copy, 0, length);
+        }
+        return copy;
+    }
+
+    /**
+     * 与 MqttDefaultFilePersistence 一样按 clientId 和 serverURI 区分目录
+     * Like MqttDefaultFilePersistence, the directory is keyed by clientId and serverURI
+     */
+    private static String key(String clientId, String serverURI) {
+        StringBuilder key = new StringBuilder();
+        for (char c : (clientId + "-" + serverURI).toCharArray()) {
+            key.append(Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == '.' ? c : '_');
+        }
+        return key.toString();
+    }
+
+    private static final class Entry {
+        private final byte[] header;
+        private final byte[] payload;
+        private final int size;
+
+        private Entry(byte[] header, byte[] payload, int size) {
+            this.header = header;
+            this.payload = payload;
+            this.size = size;
+        }
+    }
+}
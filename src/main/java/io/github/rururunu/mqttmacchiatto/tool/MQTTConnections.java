@@ -0,0 +1,370 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import io.github.rururunu.mqttmacchiatto.config.MQTTBase;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * <h3>进程内共享连接注册表</h3>
+ * <h3>In-process registry of shared connections</h3>
+ * <p>
+ * 同一 broker 地址与账号的 MqttPush、MqttPut、MQTTMonitor、MQTTReport 共用一个引用计数的连接，
+ * 即一个 socket 与一组 Paho 线程；最后一个使用者释放时断开。共享连接使用 clean session 与内存持久化，
+ * 由 Paho 自动重连，并在连上后重新订阅仍在使用的过滤器。到达的消息按过滤器路由，只交给订阅了匹配过滤器的使用者
+ * <p>
+ * MqttPush, MqttPut, MQTTMonitor and MQTTReport instances with the same broker address and credentials share one
+ * reference-counted connection, that is one socket and one set of Paho threads, which is closed when the last user
+ * releases it. Shared connections use a clean session and in-memory persistence; Paho reconnects them and every filter
+ * still in use is subscribed again once connected. Arrived messages are routed by filter, so each user only sees
+ * messages for the filters it subscribed
+ * <p>
+ * 重连只由共享连接负责：首次连接失败时在共享重连器上重试，连上后由 Paho 自动重连，使用者只记录断线，不自行连接。
+ * 处理器抛出异常时其余使用者照常收到消息，随后异常抛给 Paho，消息不被确认，与独立连接一样由 broker 重发
+ * <p>
+ * Only the shared connection reconnects: a failed first connect is retried on the shared reconnector, and Paho takes
+ * over once connected; users only record the outage and never connect on their own. When a handler throws, the other
+ * users still receive the message, then the exception is passed on to Paho so the message is not acknowledged and the
+ * broker redelivers it, as it does on a connection of one's own
+ * <pre>{@code
+ *   // mto-mqtt.shared-connection: true 时默认共享，单个实例可退出 Shared by default with mto-mqtt.shared-connection: true; opt out per instance
+ *   MqttPush isolated = new MqttPush().shared(false).init();
+ *   MQTTConnections.getConnectionCount();
+ * }</pre>
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+public final class MQTTConnections {
+
+    /**
+     * 多个使用者共用在途窗口，各自的 maxInflight 仍由使用者限制
+     * Users share the in-flight window; each user still enforces its own maxInflight
+     */
+    private static final int MAX_INFLIGHT = 65535;
+
+    private static final Map<String, Connection> CONNECTIONS = new HashMap<>();
+
+    private MQTTConnections() {
+    }
+
+    /**
+     * 取得共享连接并增加引用计数；首个使用者的超时与心跳设置生效
+     * Take a shared connection and add a reference; the first user's timeout and keepalive apply
+     */
+    static Connection acquire(String host, String username, String password, Integer timeout, Integer keepalive)
+            throws MqttException {
+        String key = host + '\n' + username + '\n' + password;
+        synchronized (CONNECTIONS) {
+            Connection connection = CONNECTIONS.get(key);
+            if (connection == null) {
+                MqttConnectOptions options = new MqttConnectOptions();
+                options.setCleanSession(true);
+                options.setAutomaticReconnect(true);
+                options.setUserName(username);
+                options.setPassword(password.toCharArray());
+                options.setConnectionTimeout(timeout);
+                options.setKeepAliveInterval(keepalive);
+                options.setMaxInflight(MAX_INFLIGHT);
+                connection = new Connection(key, new MacchiattoClient(host, "macchiatto-" + UUID.randomUUID(),
+                        MQTTPersistences.create(null, null)), options);
+                CONNECTIONS.put(key, connection);
+            }
+            connection.references++;
+            return connection;
+        }
+    }
+
+    /**
+     * 当前打开的共享连接数 Shared connections currently open
+     *
+     * @return 连接数 connection count
+     */
+    public static int getConnectionCount() {
+        synchronized (CONNECTIONS) {
+            return CONNECTIONS.size();
+        }
+    }
+
+    /**
+     * 共享连接 A shared connection
+     */
+    static final class Connection implements MqttCallbackExtended {
+        private final String key;
+        private final MqttClient client;
+        private final MqttConnectOptions options;
+        private int references;
+        private final List<MqttCallback> listeners = new CopyOnWriteArrayList<>();
+        /**
+         * 订阅 -> 使用者及其等级 subscription -> users and their QoS
+         */
+        private final Map<String, Map<MqttCallback, Integer>> subscriptions = new LinkedHashMap<>();
+        private final MQTTTopicTrie<MqttCallback> routes = new MQTTTopicTrie<>();
+        /**
+         * 曾经连上过，此后由 Paho 自动重连 Connected at least once; Paho reconnects from then on
+         */
+        private boolean established;
+        private MQTTReconnector.Task reconnecting;
+
+        private Connection(String key, MqttClient client, MqttConnectOptions options) {
+            this.key = key;
+            this.client = client;
+            this.options = options;
+            client.setCallback(this);
+        }
+
+        MqttClient client() {
+            return client;
+        }
+
+        /**
+         * 首次连接；已连上、Paho 自动重连中或重试已安排时什么也不做
+         * First connect; does nothing when connected, while Paho reconnects or once a retry is scheduled
+         */
+        synchronized void connect() throws MqttException {
+            if (client.isConnected() || established || reconnecting != null) {
+                return;
+            }
+            try {
+                client.connect(options);
+                established = true;
+            } catch (MqttException e) {
+                // 自动重连只在连上过之后生效，首次失败由共享连接自行重试
+                // Automatic reconnect only applies after a first success, so the connection retries a failed first connect
+                reconnecting = MQTTReconnector.schedule(
+                        "MQTT shared connection " + client.getServerURI(),
+                        () -> {
+                            synchronized (this) {
+                                if (!client.isConnected()) {
+                                    client.connect(options);
+                                    established = true;
+                                }
+                            }
+                        },
+                        client::isConnected,
+                        MQTTBase.RECONNECT_FREQUENCY_MS,
+                        MQTTBase.RECONNECT_MAX_MS,
+                        () -> {
+                            synchronized (this) {
+                                reconnecting = null;
+                            }
+                        });
+                throw e;
+            }
+        }
+
+        /**
+         * 接收连接事件与未被路由的投递事件 Receive connection events and delivery notifications
+         */
+        void listen(MqttCallback listener) {
+            if (!listeners.contains(listener)) {
+                listeners.add(listener);
+            }
+        }
+
+        /**
+         * 登记订阅，已连接时立即订阅 Register a subscription and subscribe at once when connected
+         *
+         * @param owner  使用者 user
+         * @param filter 路由用的过滤器 filter used for routing
+         * @param wire   发给 broker 的过滤器，可带 $share 前缀 filter sent to the broker, possibly with a $share prefix
+         * @param qos    等级 QoS
+         */
+        void subscribe(MqttCallback owner, String filter, String wire, int qos) throws MqttException {
+            int granted;
+            synchronized (this) {
+                Map<MqttCallback, Integer> owners = subscriptions.computeIfAbsent(wire, w -> new LinkedHashMap<>());
+                if (owners.put(owner, qos) == null) {
+                    routes.add(filter, owner);
+                }
+                granted = maxQos(owners);
+            }
+            if (client.isConnected()) {
+                client.subscribe(wire, granted);
+            }
+        }
+
+        /**
+         * 撤销订阅，无人使用时向 broker 取消 Drop a subscription, unsubscribing from the broker once nobody uses it
+         */
+        void unsubscribe(MqttCallback owner, String filter, String wire) throws MqttException {
+            boolean last;
+            synchronized (this) {
+                Map<MqttCallback, Integer> owners = subscriptions.get(wire);
+                if (owners == null || owners.remove(owner) == null) {
+                    return;
+                }
+                // 前缀树按过滤器整体移除，其余使用者重新加入 The trie removes per filter, so the other users are added back
+                for (MqttCallback other : routes.remove(filter)) {
+                    if (other != owner) {
+                        routes.add(filter, other);
+                    }
+                }
+                last = owners.isEmpty();
+                if (last) {
+                    subscriptions.remove(wire);
+                }
+            }
+            if (last && client.isConnected()) {
+                client.unsubscribe(wire);
+            }
+        }
+
+        /**
+         * 释放一个引用及其订阅，最后一个引用释放时断开 Release a reference and its subscriptions, disconnecting on the last one
+         *
+         * @param owner 使用者，不订阅时为 null the user, null when it never subscribed
+         */
+        void release(MqttCallback owner) {
+            if (owner != null) {
+                listeners.remove(owner);
+                List<String> owned = new ArrayList<>();
+                synchronized (this) {
+                    for (Map.Entry<String, Map<MqttCallback, Integer>> subscription : subscriptions.entrySet()) {
+                        if (subscription.getValue().containsKey(owner)) {
+                            owned.add(subscription.getKey());
+                        }
+                    }
+                }
+                for (String wire : owned) {
+                    try {
+                        unsubscribe(owner, filterOf(wire), wire);
+                    } catch (MqttException e) {
+                        System.err.println("MQTT shared connection unsubscribe " + wire + " exception " + e);
+                    }
+                }
+            }
+            synchronized (CONNECTIONS) {
+                if (--references > 0) {
+                    return;
+                }
+                CONNECTIONS.remove(key);
+            }
+            MQTTReconnector.Task task;
+            synchronized (this) {
+                task = reconnecting;
+            }
+            if (task != null) {
+                task.cancel();
+            }
+            try {
+                if (client.isConnected()) {
+                    client.disconnect();
+                }
+                client.close();
+            } catch (MqttException e) {
+                System.err.println("MQTT shared connection close exception " + e);
+            }
+        }
+
+        /**
+         * 连上（含自动重连）后重新订阅全部过滤器 Subscribe every filter again once connected, including automatic reconnects
+         */
+        @Override
+        public void connectComplete(boolean reconnect, String serverURI) {
+            for (MqttCallback listener : listeners) {
+                if (listener instanceof MqttCallbackExtended) {
+                    ((MqttCallbackExtended) listener).connectComplete(reconnect, serverURI);
+                }
+            }
+            List<String> wires = new ArrayList<>();
+            List<Integer> qos = new ArrayList<>();
+            synchronized (this) {
+                established = true;
+                for (Map.Entry<String, Map<MqttCallback, Integer>> subscription : subscriptions.entrySet()) {
+                    wires.add(subscription.getKey());
+                    qos.add(maxQos(subscription.getValue()));
+                }
+            }
+            if (wires.isEmpty()) {
+                return;
+            }
+            int[] levels = new int[qos.size()];
+            for (int i = 0; i < levels.length; i++) {
+                levels[i] = qos.get(i);
+            }
+            try {
+                // 回调线程上不等待 SUBACK Do not wait for SUBACK on the callback thread
+                MacchiattoClient.asyncOf(client).subscribe(wires.toArray(new String[0]), levels);
+            } catch (MqttException e) {
+                System.err.println("MQTT shared connection resubscribe exception " + e);
+            }
+        }
+
+        @Override
+        public void connectionLost(Throwable cause) {
+            for (MqttCallback listener : listeners) {
+                listener.connectionLost(cause);
+            }
+        }
+
+        /**
+         * 先交给全部匹配的使用者，再抛出第一个异常，使消息不被确认
+         * Hand the message to every matching user first, then rethrow the first failure so the message is not acked
+         */
+        @Override
+        public void messageArrived(String topic, MqttMessage message) throws Exception {
+            List<MqttCallback> matched = routes.match(topic);
+            Exception failure = null;
+            for (int i = 0; i < matched.size(); i++) {
+                MqttCallback owner = matched.get(i);
+                // 同一使用者的多个过滤器匹配时只投递一次 Deliver once even when several filters of one user match
+                if (matched.subList(0, i).contains(owner)) {
+                    continue;
+                }
+                try {
+                    owner.messageArrived(topic, message);
+                } catch (Exception e) {
+                    // 一个使用者出错不影响其他使用者收到消息 One failing user must not keep the message from the others
+                    System.err.println("MQTT shared connection handler " + topic + " exception " + e);
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        @Override
+        public void deliveryComplete(IMqttDeliveryToken token) {
+            for (MqttCallback listener : listeners) {
+                listener.deliveryComplete(token);
+            }
+        }
+
+        private static int maxQos(Map<MqttCallback, Integer> owners) {
+            int max = 0;
+            for (int qos : owners.values()) {
+                max = Math.max(max, qos);
+            }
+            return max;
+        }
+
+        /**
+         * 去掉 $share/{group}/ 前缀得到路由过滤器 Strip the $share/{group}/ prefix to get the routing filter
+         */
+        private static String filterOf(String wire) {
+            if (wire.startsWith("$share/")) {
+                int slash = wire.indexOf('/', "$share/".length());
+                return slash < 0 ? wire : wire.substring(slash + 1);
+            }
+            return wire;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h3>有界、按时间窗口的重复消息过滤</h3>
+ * <h3>Bounded, time-windowed duplicate suppression</h3>
+ * <p>
+ * 记住最近 capacity 条、且不早于 window 的消息键的 64 位哈希；同一键在窗口内再次出现即判为重复。
+ * 键按到达顺序存放在环形数组中，并由开放寻址的 long 哈希表索引，内存在构造时一次分配，每条最多 48 字节，与消息速率无关
+ * <p>
+ * Remembers 64-bit hashes of the keys of the last capacity messages that are no older than window; a key seen again
+ * inside the window is a duplicate. Keys sit in a ring in arrival order, indexed by an open-addressing table of longs,
+ * so all memory (at most 48 bytes per entry) is allocated once up front, whatever the message rate
+ * <pre>{@code
+ *   // 最近 100 万条、60 秒内 The last million messages within 60 seconds
+ *   MQTTDeduplicator dedup = new MQTTDeduplicator(1_000_000, 60_000);
+ *   if (dedup.firstSeen("order-42")) {
+ *       write(order);
+ *   }
+ * }</pre>
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+public class MQTTDeduplicator {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    /**
+     * 哈希表中表示空槽位 Marks an empty slot in the table
+     */
+    private static final long EMPTY = 0;
+
+    private final int capacity;
+    private final long windowNanos;
+    private final long[] ring;
+    private final long[] times;
+    private final long[] table;
+    private final int mask;
+    private int head;
+    private int count;
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+
+    /**
+     * @param capacity 记住的消息数上限 maximum messages remembered
+     * @param windowMs 时间窗口，毫秒 window in milliseconds
+     */
+    public MQTTDeduplicator(int capacity, long windowMs) {
+        if (capacity < 1 || capacity > 1 << 28 || windowMs < 1) {
+            throw new IllegalArgumentException("capacity must be 1 to 2^28 and windowMs must be positive");
+        }
+        this.capacity = capacity;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+        this.ring = new long[capacity];
+        this.times = new long[capacity];
+        // 装载因子不超过 0.5 Load factor stays at or below 0.5
+        int size = Integer.highestOneBit(capacity) << 2;
+        this.table = new long[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * 按主题与消息体判断 Judge by topic and payload
+     *
+     * @param topic   主题 topic
+     * @param message 消息 message
+     * @return 窗口内首次出现 whether this is the first time inside the window
+     */
+    public boolean firstSeen(String topic, MqttMessage message) {
+        return firstSeenHash(hash(topic, message));
+    }
+
+    /**
+     * 按自定义键判断，例如消息中的业务 id Judge by a key such as a business id in the message
+     *
+     * @param key 键；字符串与字节数组按内容，数字按数值，其他对象按 hashCode
+     *            key; strings and byte arrays by content, numbers by value, other objects by hashCode
+     * @return 窗口内首次出现 whether this is the first time inside the window
+     */
+    public boolean firstSeen(Object key) {
+        return firstSeenHash(hash(key));
+    }
+
+    /**
+     * 主题与消息体的哈希，与 firstSeen(topic, message) 一致 Hash of topic and payload, as used by firstSeen(topic, message)
+     *
+     * @param topic   主题 topic
+     * @param message 消息 message
+     * @return 哈希 hash
+     */
+    public static long hash(String topic, MqttMessage message) {
+        long hash = fnv(FNV_OFFSET, topic);
+        hash = (hash ^ 0xff) * FNV_PRIME;
+        return fnv(hash, message.getPayload());
+    }
+
+    /**
+     * 自定义键的哈希，与 firstSeen(key) 一致 Hash of a key, as used by firstSeen(key)
+     *
+     * @param key 键 key
+     * @return 哈希 hash
+     */
+    public static long hash(Object key) {
+        if (key instanceof CharSequence) {
+            return fnv(FNV_OFFSET, key.toString());
+        } else if (key instanceof byte[]) {
+            return fnv(FNV_OFFSET, (byte[]) key);
+        } else if (key instanceof Number) {
+            return ((Number) key).longValue();
+        }
+        return key == null ? 0 : key.hashCode();
+    }
+
+    /**
+     * 按已算好的 64 位哈希判断 Judge by a 64-bit hash computed by the caller
+     *
+     * @param hash 哈希 hash
+     * @return 窗口内首次出现 whether this is the first time inside the window
+     */
+    public synchronized boolean firstSeenHash(long hash) {
+        long key = key(hash);
+        long now = System.nanoTime();
+        checked.increment();
+        // 环中按到达顺序排列，过期的都在头部 The ring is in arrival order, so expired entries are all at the head
+        while (count > 0 && now - times[head] > windowNanos) {
+            evict();
+        }
+        if (find(key) >= 0) {
+            duplicates.increment();
+            return false;
+        }
+        if (count == capacity) {
+            evict();
+        }
+        int tail = (head + count) % capacity;
+        ring[tail] = key;
+        times[tail] = now;
+        count++;
+        int slot = (int) key & mask;
+        while (table[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = key;
+        return true;
+    }
+
+    /**
+     * 忘掉一个键，使其再次出现时不算重复；用于处理失败、等待重发的消息
+     * Forget a key so that it is not a duplicate when seen again; used for messages whose handling failed and that
+     * are waiting to be redelivered
+     *
+     * @param hash firstSeenHash 用过的哈希 the hash passed to firstSeenHash
+     */
+    public synchronized void forgetHash(long hash) {
+        long key = key(hash);
+        int slot = find(key);
+        if (slot < 0) {
+            return;
+        }
+        // 失败的键通常刚刚加入，从尾部往回找；环中的位置置空，出环时跳过
+        // A failed key was usually added a moment ago, so search back from the tail; its ring entry is blanked and
+        // skipped when it leaves the ring
+        for (int i = count - 1; i >= 0; i--) {
+            int index = (head + i) % capacity;
+            if (ring[index] == key) {
+                ring[index] = EMPTY;
+                break;
+            }
+        }
+        remove(slot);
+    }
+
+    private static long key(long hash) {
+        long key = mix(hash);
+        return key == EMPTY ? 1 : key;
+    }
+
+    private int find(long key) {
+        int slot = (int) key & mask;
+        while (table[slot] != EMPTY) {
+            if (table[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void evict() {
+        long key = ring[head];
+        head = (head + 1) % capacity;
+        count--;
+        if (key == EMPTY) {
+            return;
+        }
+        int slot = find(key);
+        if (slot >= 0) {
+            remove(slot);
+        }
+    }
+
+    private void remove(int slot) {
+        // 线性探测的后移删除，避免墓碑 Backward-shift deletion for linear probing, no tombstones
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (table[next] != EMPTY) {
+            int home = (int) table[next] & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                table[hole] = table[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        table[hole] = EMPTY;
+    }
+
+    /**
+     * 已检查的消息数 Messages checked
+     *
+     * @return 检查数 checked count
+     */
+    public long getChecked() {
+        return checked.sum();
+    }
+
+    /**
+     * 判为重复的消息数 Messages found to be duplicates
+     *
+     * @return 重复数 duplicate count
+     */
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    /**
+     * 重复命中率 Duplicate hit rate
+     *
+     * @return 0 到 1 between 0 and 1
+     */
+    public double getHitRate() {
+        long total = checked.sum();
+        return total == 0 ? 0 : (double) duplicates.sum() / total;
+    }
+
+    /**
+     * 当前记住的消息数 Messages currently remembered
+     *
+     * @return 条数 entries
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    private static long fnv(long hash, String value) {
+        return fnv(hash, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long fnv(long hash, byte[] value) {
+        for (byte b : value) {
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
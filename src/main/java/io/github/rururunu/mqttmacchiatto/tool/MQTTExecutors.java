@@ -0,0 +1,68 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 所有连接共用的调度线程池，线程均为守护线程
+ * <br/>
+ * Scheduler shared by every connection; all of its threads are daemons
+ * <p>
+ * 共享线程池只运行短小、不阻塞的任务，例如重连尝试与状态检查；会在在途窗口、限速、队列或等待确认上阻塞的任务
+ * 使用 {@link #single(String)} 创建的独占线程，否则一个慢的使用者会拖住整个进程的重连
+ * <br/>
+ * The shared scheduler only runs short, non-blocking tasks such as reconnect attempts and state checks. Anything that
+ * may block on an in-flight window, a rate limit, a queue or an acknowledgement runs on a thread of its own from
+ * {@link #single(String)}; otherwise one slow user holds up reconnects for the whole process
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+final class MQTTExecutors {
+
+    private MQTTExecutors() {
+    }
+
+    static ScheduledExecutorService scheduler() {
+        return Holder.SCHEDULER;
+    }
+
+    /**
+     * 单个实例独占的守护调度线程，空闲一分钟后退出；其上的任务可以阻塞而不影响其他连接
+     * <br/>
+     * A daemon scheduler thread owned by one instance, which exits after a minute idle; its tasks may block without
+     * holding up any other connection
+     *
+     * @param name 线程名 thread name
+     */
+    static ScheduledExecutorService single(String name) {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "mto-mqtt-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        executor.setKeepAliveTime(1, TimeUnit.MINUTES);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static final class Holder {
+        private static final ScheduledExecutorService SCHEDULER = create();
+
+        private static ScheduledExecutorService create() {
+            AtomicInteger index = new AtomicInteger();
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+                    Math.max(2, Runtime.getRuntime().availableProcessors()),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "mto-mqtt-scheduler-" + index.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.setRemoveOnCancelPolicy(true);
+            return executor;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 手动确认模式下到达的消息，记住收到它的连接，可被消费方扣下确认
+ * <br/>
+ * A message that arrived in manual-ack mode. It remembers the connection it came from and lets a consumer hold back
+ * its acknowledgement
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+final class MQTTHeldMessage extends MqttMessage {
+
+    private static final int PENDING = 0;
+    private static final int HELD = 1;
+    private static final int ACKED = 2;
+
+    private final MQTTMonitor owner;
+    private final int messageId;
+    private final int messageQos;
+    private final AtomicInteger state = new AtomicInteger();
+    private volatile Runnable failure;
+
+    MQTTHeldMessage(MQTTMonitor owner, MqttMessage received) {
+        super(received.getPayload());
+        setQos(received.getQos());
+        setRetained(received.isRetained());
+        setId(received.getId());
+        setDuplicate(received.isDuplicate());
+        this.owner = owner;
+        this.messageId = received.getId();
+        this.messageQos = received.getQos();
+    }
+
+    /**
+     * 扣下确认，由调用方稍后 ack Hold back the acknowledgement; the caller acks later
+     *
+     * @return 是否扣下；非手动确认的消息或已确认的消息返回 false whether it is now held; false for plain or already acked messages
+     */
+    static boolean hold(MqttMessage message) {
+        return message instanceof MQTTHeldMessage && ((MQTTHeldMessage) message).state.compareAndSet(PENDING, HELD);
+    }
+
+    /**
+     * 确认，重复调用无效 Acknowledge; further calls have no effect
+     */
+    static void ack(MqttMessage message) {
+        if (message instanceof MQTTHeldMessage) {
+            MQTTHeldMessage held = (MQTTHeldMessage) message;
+            if (held.state.getAndSet(ACKED) != ACKED) {
+                held.owner.ack(held.messageId, held.messageQos);
+            }
+        }
+    }
+
+    /**
+     * 登记处理失败时要做的事，非手动确认的消息忽略 Register what to do when handling fails; ignored for plain messages
+     */
+    static void onFailure(MqttMessage message, Runnable failure) {
+        if (message instanceof MQTTHeldMessage) {
+            ((MQTTHeldMessage) message).failure = failure;
+        }
+    }
+
+    /**
+     * 扣下的消息处理失败，不确认，等待重发 Handling of a held message failed; it stays unacked until redelivered
+     */
+    static void fail(MqttMessage message) {
+        if (message instanceof MQTTHeldMessage) {
+            Runnable current = ((MQTTHeldMessage) message).failure;
+            if (current != null) {
+                current.run();
+            }
+        }
+    }
+
+    /**
+     * 回调返回时调用，未被扣下则立即确认 Called when the callback returns; acks at once unless held
+     */
+    void complete() {
+        if (state.compareAndSet(PENDING, ACKED)) {
+            owner.ack(messageId, messageQos);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * <h3>分段加锁的有界 LRU 缓存</h3>
+ * <h3>Bounded LRU cache with per-segment locks</h3>
+ * <p>
+ * 键按哈希分到若干段，每段是按访问顺序排列的 LinkedHashMap，只锁自己所在的段，多个线程访问不同的键时互不阻塞；
+ * 某段超出其容量时淘汰该段最久未访问的键，因此整体容量不超过 capacity，淘汰顺序按段近似 LRU。
+ * 命中、未命中与淘汰次数都会计数
+ * <p>
+ * Keys are spread by hash over segments, each an access-ordered LinkedHashMap guarded by its own lock, so threads
+ * working on different keys rarely block each other. A segment over its share of the capacity evicts its least
+ * recently used key; the cache never holds more than capacity entries, and eviction is LRU within each segment.
+ * Hits, misses and evictions are counted
+ * <pre>{@code
+ *   MQTTLruCache<String, MqttTopic> topics = new MQTTLruCache<>(10000);
+ *   MqttTopic handle = topics.computeIfAbsent("device/42/cmd", client::getTopic);
+ *   topics.getHitRate();
+ * }</pre>
+ *
+ * @param <K> 键 key
+ * @param <V> 值 value
+ * @author rururunu
+ * @since 0.1.6
+ */
+public class MQTTLruCache<K, V> extends AbstractMap<K, V> {
+
+    private final int capacity;
+    private final Segment<K, V>[] segments;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity 最大条目数 maximum entries
+     */
+    @SuppressWarnings("unchecked")
+    public MQTTLruCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        // 每段至少 16 个条目，段数不超过核数的 4 倍 At least 16 entries per segment, at most 4 segments per core
+        int wanted = Math.min(Runtime.getRuntime().availableProcessors() * 4, Math.max(1, capacity / 16));
+        int count = Integer.highestOneBit(wanted);
+        this.segments = (Segment<K, V>[]) new Segment<?, ?>[count];
+        for (int i = 0; i < count; i++) {
+            // 余数分给前几段，容量之和恰为 capacity The remainder goes to the first segments so the total is exactly capacity
+            segments[i] = new Segment<>(capacity / count + (i < capacity % count ? 1 : 0), evictions);
+        }
+        this.mask = count - 1;
+    }
+
+    private Segment<K, V> segment(Object key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & mask];
+    }
+
+    @Override
+    public V get(Object key) {
+        Segment<K, V> segment = segment(key);
+        V value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        (value == null ? misses : hits).increment();
+        return value;
+    }
+
+    /**
+     * 取值，不存在时在段锁内计算并放入 Get the value, computing and caching it under the segment lock when absent
+     */
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mapping) {
+        Segment<K, V> segment = segment(key);
+        synchronized (segment) {
+            V value = segment.get(key);
+            if (value != null) {
+                hits.increment();
+                return value;
+            }
+            misses.increment();
+            value = mapping.apply(key);
+            if (value != null) {
+                segment.put(key, value);
+            }
+            return value;
+        }
+    }
+
+    @Override
+    public V put(K key, V value) {
+        Segment<K, V> segment = segment(key);
+        synchronized (segment) {
+            return segment.put(key, value);
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        Segment<K, V> segment = segment(key);
+        synchronized (segment) {
+            return segment.remove(key);
+        }
+    }
+
+    /**
+     * 是否包含，不计入命中统计，也不改变访问顺序 Whether the key is cached; neither counted nor treated as an access
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        Segment<K, V> segment = segment(key);
+        synchronized (segment) {
+            return segment.containsKey(key);
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * 当前条目的快照 A snapshot of the current entries
+     */
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> entries = new HashSet<>();
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                for (Entry<K, V> entry : segment.entrySet()) {
+                    entries.add(new SimpleImmutableEntry<>(entry));
+                }
+            }
+        }
+        return Collections.unmodifiableSet(entries);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 命中次数 Lookups that found a value
+     *
+     * @return 命中数 hit count
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * 未命中次数 Lookups that found nothing
+     *
+     * @return 未命中数 miss count
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * 因容量淘汰的条目数 Entries evicted for capacity
+     *
+     * @return 淘汰数 eviction count
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * 命中率 Hit rate
+     *
+     * @return 0 到 1 between 0 and 1
+     */
+    public double getHitRate() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    private static final class Segment<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+        private final LongAdder evictions;
+
+        private Segment(int capacity, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
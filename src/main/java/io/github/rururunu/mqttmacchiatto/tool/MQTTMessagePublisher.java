@@ -0,0 +1,186 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h3>按需求背压的 MqttPut 消息发布者</h3>
+ * <h3>MqttPut messages as a Reactive Streams Publisher with backpressure</h3>
+ * <p>
+ * 到达的消息放入有界缓冲，只按订阅者 request(n) 的数量交付；消息在 onNext 返回后才向 broker 确认。
+ * 订阅者跟不上时，未确认的 QoS 1/2 消息占满 broker 的在途窗口，broker 随之停发；缓冲满时回调线程阻塞，
+ * QoS 0 的消息也因 TCP 流控而放慢。只允许一个订阅者，订阅时开启连接，取消时断开
+ * <p>
+ * Arrived messages go into a bounded buffer and are handed out only as far as the subscriber's request(n) allows;
+ * each is acknowledged to the broker after onNext returns. When the subscriber falls behind, unacknowledged QoS 1/2
+ * messages fill the broker's in-flight window and the broker stops sending. When the buffer is full the callback thread
+ * blocks, so QoS 0 traffic slows down through TCP flow control too. One subscriber is allowed; subscribing opens the
+ * connection and cancelling closes it
+ * <pre>{@code
+ *   Publisher<MqttMessage> orders = MqttPut.of("orders/#").qos(MQTTQos.AT_LEAST_ONCE).publisher(256);
+ *   Flux.from(orders).limitRate(64).subscribe(msg -> save(msg.getPayload()));
+ * }</pre>
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+public class MQTTMessagePublisher implements Publisher<MqttMessage> {
+
+    private final MqttPut put;
+    private final BlockingQueue<MqttMessage> buffer;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private volatile Delivery delivery;
+
+    MQTTMessagePublisher(MqttPut put, int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize must be positive");
+        }
+        this.put = put;
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super MqttMessage> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("MQTTMessagePublisher allows only one subscriber"));
+            return;
+        }
+        Delivery current = new Delivery(subscriber);
+        delivery = current;
+        subscriber.onSubscribe(current);
+        try {
+            put.start();
+        } catch (RuntimeException e) {
+            current.fail(e);
+        }
+    }
+
+    /**
+     * 回调线程放入消息，缓冲满时阻塞 Called on the callback thread; blocks while the buffer is full
+     */
+    void offer(MqttMessage message) {
+        Delivery current = delivery;
+        if (current == null || current.cancelled) {
+            return;
+        }
+        MQTTHeldMessage.hold(message);
+        try {
+            buffer.put(message);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (current.cancelled) {
+            buffer.clear();
+            return;
+        }
+        current.drain();
+    }
+
+    /**
+     * 缓冲中等待交付的消息数 Messages in the buffer waiting for demand
+     *
+     * @return 消息数 message count
+     */
+    public int getBuffered() {
+        return buffer.size();
+    }
+
+    private final class Delivery implements Subscription {
+        private final Subscriber<? super MqttMessage> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+
+        private Delivery(Subscriber<? super MqttMessage> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Reactive Streams rule 3.9: request must be positive, got " + n));
+                return;
+            }
+            long current;
+            long next;
+            do {
+                current = requested.get();
+                next = current + n < 0 ? Long.MAX_VALUE : current + n;
+            } while (!requested.compareAndSet(current, next));
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            // 未确认的消息留给 broker 重发 Unacknowledged messages are left for the broker to redeliver
+            buffer.clear();
+            // 可能在回调线程上被取消，断开交给共享线程池 May be cancelled on the callback thread, so disconnect elsewhere
+            MQTTExecutors.scheduler().execute(put::stop);
+        }
+
+        private void fail(Throwable error) {
+            if (!cancelled) {
+                cancel();
+                subscriber.onError(error);
+            }
+        }
+
+        /**
+         * 同一时刻只有一个线程交付，保证 onNext 串行 Only one thread delivers at a time, so onNext calls never overlap
+         */
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                long demand = requested.get();
+                long emitted = 0;
+                while (emitted != demand && !cancelled) {
+                    MqttMessage message = buffer.poll();
+                    if (message == null) {
+                        break;
+                    }
+                    try {
+                        subscriber.onNext(message);
+                    } catch (Throwable e) {
+                        // 规则 2.13：onNext 抛出即视为订阅取消 Rule 2.13: a throwing onNext cancels the subscription
+                        cancel();
+                        return;
+                    }
+                    MQTTHeldMessage.ack(message);
+                    emitted++;
+                }
+                if (emitted != 0 && demand != Long.MAX_VALUE) {
+                    requested.addAndGet(-emitted);
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
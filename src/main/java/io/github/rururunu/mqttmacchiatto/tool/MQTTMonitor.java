@@ -1,15 +1,25 @@
 package io.github.rururunu.mqttmacchiatto.tool;
 
 import io.github.rururunu.mqttmacchiatto.config.MQTTBase;
+import io.github.rururunu.mqttmacchiatto.content.MQTTPersistence;
 import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import io.github.rururunu.mqttmacchiatto.metrics.MQTTMetrics;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
 import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
-import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 
 /**
  * <h3>MQTT monitor class</h3>
@@ -28,6 +38,25 @@ import java.util.UUID;
  *         // 开启订阅 Activate subscription
  *         mqttMonitor.start("topic");
  * }</pre>
+ * <pre>{@code
+ *         // 一个连接订阅多个主题过滤器 Subscribe many topic filters on one connection
+ *         MQTTMonitor mqttMonitor = new MQTTMonitor();
+ *         mqttMonitor.subscribe("device/+/status", MQTTQos.AT_LEAST_ONCE, (topic, msg) -> System.out.println(topic));
+ *         mqttMonitor.subscribe("alerts/#", MQTTQos.EXACTLY_ONCE, (topic, msg) -> System.out.println(topic));
+ *         mqttMonitor.start();
+ * }</pre>
+ * <pre>{@code
+ *         // 加入共享订阅组，broker 在组内成员间分摊消息 Join a shared subscription group; the broker spreads messages over its members
+ *         MQTTMonitor mqttMonitor = new MQTTMonitor();
+ *         mqttMonitor.share("workers");
+ *         mqttMonitor.start("orders/#");
+ * }</pre>
+ * <pre>{@code
+ *         // 与同一 broker 的其他实例共用连接 Share the connection with other instances on the same broker
+ *         MQTTMonitor mqttMonitor = new MQTTMonitor();
+ *         mqttMonitor.shared(true);
+ *         mqttMonitor.start("orders/#");
+ * }</pre>
  *
  * @author rururunu
  * @version 1.0
@@ -50,6 +79,28 @@ public class MQTTMonitor {
     private Integer timeout = MQTTBase.TIMEOUT;
     private Integer keepalive = MQTTBase.KEEP_ALIVE;
     private Integer reconnectFrequencyMs = MQTTBase.RECONNECT_FREQUENCY_MS;
+    private Integer reconnectMaxMs = MQTTBase.RECONNECT_MAX_MS;
+    private MQTTPersistence persistence = MQTTBase.PERSISTENCE;
+    private String persistenceDir = MQTTBase.PERSISTENCE_DIR;
+    private final AtomicReference<MQTTReconnector.Task> reconnecting = new AtomicReference<>();
+    private volatile boolean stopped;
+    private final MQTTTopicRouter router;
+    private volatile long lostAt;
+    private boolean handlerTiming = true;
+    private String shareGroup;
+    private final LongAdder received = new LongAdder();
+    private boolean shared = Boolean.TRUE.equals(MQTTBase.SHARED_CONNECTION);
+    private MQTTConnections.Connection connection;
+    private MqttCallbackExtended routing;
+    private boolean manualAcks;
+
+    public MQTTMonitor() {
+        this(new MQTTTopicRouter());
+    }
+
+    private MQTTMonitor(MQTTTopicRouter router) {
+        this.router = router;
+    }
 
     /**
      * 连接 host 地址
@@ -118,6 +169,145 @@ public class MQTTMonitor {
         return this;
     }
 
+    /**
+     * 重连退避上限 reconnectMaxMs
+     * <br/>
+     * 每次重连失败后间隔翻倍，直至该上限
+     * <br/>
+     * The retry delay doubles after every failed attempt up to this ceiling
+     *
+     * @param reconnectMaxMs 重连退避上限
+     * @return this
+     */
+    public MQTTMonitor reconnectMaxMs(Integer reconnectMaxMs) {
+        this.reconnectMaxMs = reconnectMaxMs;
+        return this;
+    }
+
+    /**
+     * 在途消息持久化 persistence
+     * <br/>
+     * 默认取 mto-mqtt.persistence，未配置时为内存；MAPPED 使 QoS 2 的接收状态在重启后得以保留，需配合 cleanSession(false)
+     * <br/>
+     * Defaults to mto-mqtt.persistence, or memory when unset. MAPPED keeps QoS 2 receive state across restarts;
+     * use it together with cleanSession(false)
+     *
+     * @param persistence 持久化方式
+     * @param directory   持久化目录，null 时取 mto-mqtt.persistence-dir directory, null for mto-mqtt.persistence-dir
+     * @return this
+     */
+    public MQTTMonitor persistence(MQTTPersistence persistence, String directory) {
+        this.persistence = persistence;
+        this.persistenceDir = directory;
+        return this;
+    }
+
+    /**
+     * 共享订阅组 shareGroup
+     * <br/>
+     * 所有过滤器以 $share/{group}/{filter} 订阅，broker 将每条消息只交给组内一个成员；多个进程使用同一组名即可横向扩展
+     * <br/>
+     * Every filter is subscribed as $share/{group}/{filter}, so the broker hands each message to one member of the group.
+     * Processes using the same group name scale out together
+     *
+     * @param group 组名，null 表示不共享 group name, null for a plain subscription
+     * @return this
+     */
+    public MQTTMonitor share(String group) {
+        if (group != null && (group.isEmpty() || group.contains("/") || group.contains("+") || group.contains("#"))) {
+            throw new IllegalArgumentException("Invalid MQTT share group: " + group);
+        }
+        this.shareGroup = group;
+        return this;
+    }
+
+    /**
+     * 共用连接 shared
+     * <br/>
+     * 默认取 mto-mqtt.shared-connection；共享时与同一 broker、账号的其他实例共用一个 clean session 连接，
+     * 需要持久会话、固定 clientId 或独立连接时传 false
+     * <br/>
+     * Defaults to mto-mqtt.shared-connection. When shared, the monitor uses one clean-session connection together with
+     * other instances on the same broker and credentials; pass false when it needs a persistent session, a fixed client id
+     * or a connection of its own
+     *
+     * @param shared 是否共用 whether to share
+     * @return this
+     */
+    public MQTTMonitor shared(boolean shared) {
+        this.shared = shared;
+        return this;
+    }
+
+    /**
+     * <h3>Subscribe a topic filter with its own handler</h3>
+     * <p>
+     * Every filter shares this monitor's connection; arrived messages go only to the handlers whose filter matches.
+     * Filters added after start are subscribed immediately
+     * <h3>订阅主题过滤器并指定处理器</h3>
+     * <p>
+     * 所有过滤器共用此监听器的连接，到达的消息只交给匹配的处理器；开启后添加的过滤器立即订阅
+     *
+     * @param filter  topic filter, + and # allowed 主题过滤器，支持 + 和 #
+     * @param qos     subscription QoS 订阅等级
+     * @param handler handler, param1 topic, param2 message 处理器
+     * @return this
+     */
+    public MQTTMonitor subscribe(String filter, MQTTQos qos, BiConsumer<String, MqttMessage> handler) {
+        router.add(filter, qos, handler);
+        MQTTConnections.Connection sharedConnection = connection;
+        MqttClient current = client;
+        if (sharedConnection != null) {
+            try {
+                sharedConnection.subscribe(routing, filter, subscription(filter), qos.getValue());
+            } catch (MqttException e) {
+                throw new RuntimeException("MQTT subscribe " + filter + " exception", e);
+            }
+        } else if (current != null && current.isConnected()) {
+            try {
+                current.subscribe(subscription(filter), qos.getValue());
+            } catch (MqttException e) {
+                throw new RuntimeException("MQTT subscribe " + filter + " exception", e);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * <h3>Remove a topic filter and its handlers</h3>
+     * <h3>取消订阅主题过滤器</h3>
+     *
+     * @param filter topic filter 主题过滤器
+     */
+    public void unsubscribe(String filter) {
+        if (!router.remove(filter)) {
+            return;
+        }
+        MQTTConnections.Connection sharedConnection = connection;
+        MqttClient current = client;
+        if (sharedConnection != null) {
+            try {
+                sharedConnection.unsubscribe(routing, filter, subscription(filter));
+            } catch (MqttException e) {
+                throw new RuntimeException("MQTT unsubscribe " + filter + " exception", e);
+            }
+        } else if (current != null && current.isConnected()) {
+            try {
+                current.unsubscribe(subscription(filter));
+            } catch (MqttException e) {
+                throw new RuntimeException("MQTT unsubscribe " + filter + " exception", e);
+            }
+        }
+    }
+
+    /**
+     * <h3>Enable monitoring MQTT for the filters added through subscribe</h3>
+     * <h3>开启监听通过 subscribe 添加的主题过滤器</h3>
+     */
+    public void start() {
+        start(topic);
+    }
+
     /**
      * <h3>Enable monitoring MQTT</h3>
      * <p>
@@ -131,18 +321,26 @@ public class MQTTMonitor {
     public void start(String topicStr) {
         try {
             this.topic = topicStr;
-            client = new MqttClient(host, getClientId(), new MemoryPersistence());
+            this.stopped = false;
+            release();
+            routing = routingCallback();
+            if (shared && !manualAcks) {
+                connection = MQTTConnections.acquire(host, username, password, timeout, keepalive);
+                connection.listen(routing);
+                client = connection.client();
+                connect();
+                return;
+            }
+            client = new MqttClient(host, getClientId(), MQTTPersistences.create(persistence, persistenceDir));
+            client.setManualAcks(manualAcks);
             options = new MqttConnectOptions();
             options.setCleanSession(cleanSession);
             options.setUserName(username);
             options.setPassword(password.toCharArray());
             options.setConnectionTimeout(timeout);
             options.setKeepAliveInterval(keepalive);
-            client.setCallback(mqttCallback);
-            client.connect(options);
-            int[] qos = {getQos().getValue()};
-            String[] topic1 = {this.topic};
-            client.subscribe(topic1, qos);
+            client.setCallback(routing);
+            connect();
         } catch (MqttException e) {
             reconnect();
             throw new RuntimeException("MQTT connection exception", e);
@@ -152,32 +350,299 @@ public class MQTTMonitor {
         }
     }
 
+    private void connect() throws MqttException {
+        MQTTConnections.Connection sharedConnection = connection;
+        if (sharedConnection != null) {
+            // 先登记，连上后由共享连接统一订阅 Register first; the shared connection subscribes everything once connected
+            if (this.topic != null) {
+                sharedConnection.subscribe(routing, this.topic, subscription(this.topic), getQos().getValue());
+            }
+            for (Map.Entry<String, MQTTQos> filter : router.getFilters().entrySet()) {
+                sharedConnection.subscribe(routing, filter.getKey(), subscription(filter.getKey()), filter.getValue().getValue());
+            }
+            sharedConnection.connect();
+            return;
+        }
+        client.connect(options);
+        List<String> topics = new ArrayList<>();
+        List<Integer> qosList = new ArrayList<>();
+        if (this.topic != null) {
+            topics.add(subscription(this.topic));
+            qosList.add(getQos().getValue());
+        }
+        for (Map.Entry<String, MQTTQos> filter : router.getFilters().entrySet()) {
+            topics.add(subscription(filter.getKey()));
+            qosList.add(filter.getValue().getValue());
+        }
+        if (topics.isEmpty()) {
+            return;
+        }
+        int[] qos = new int[qosList.size()];
+        for (int i = 0; i < qos.length; i++) {
+            qos[i] = qosList.get(i);
+        }
+        try {
+            client.subscribe(topics.toArray(new String[0]), qos);
+        } catch (MqttException | RuntimeException e) {
+            // 未订阅成功的连接不算连上，断开后交给退避重试 A connection without its subscriptions is not connected; drop it and let the backoff retry
+            try {
+                client.disconnectForcibly(0, 0, false);
+            } catch (MqttException ignored) {
+                // 连接已失效 The connection is already gone
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 路由按原始过滤器匹配，订阅时才加上共享前缀 Routing matches the plain filter; the share prefix is only added when subscribing
+     */
+    private String subscription(String filter) {
+        return shareGroup == null ? filter : "$share/" + shareGroup + "/" + filter;
+    }
+
+    /**
+     * 先交给匹配的路由，未匹配的消息和连接事件交给 mqttCallback
+     * Routed handlers come first; unmatched messages and connection events go to mqttCallback
+     */
+    private MqttCallbackExtended routingCallback() {
+        return new MqttCallbackExtended() {
+            /**
+             * 共享连接由其自身重连，在此结束断线计时 A shared connection reconnects by itself, so the outage ends here
+             */
+            @Override
+            public void connectComplete(boolean reconnect, String serverURI) {
+                long lost = lostAt;
+                if (connection != null && lost != 0) {
+                    lostAt = 0;
+                    MQTTMetrics.current().outage(clientId, System.nanoTime() - lost);
+                }
+            }
+
+            @Override
+            public void connectionLost(Throwable cause) {
+                if (lostAt == 0) {
+                    lostAt = MQTTMetrics.start();
+                }
+                if (mqttCallback != null) {
+                    mqttCallback.connectionLost(cause);
+                } else {
+                    System.err.println(clientId + " MQTT Connection disconnected " + cause);
+                    reconnect();
+                }
+            }
+
+            @Override
+            public void messageArrived(String topic, MqttMessage message) throws Exception {
+                received.increment();
+                MQTTMetrics metrics = MQTTMetrics.current();
+                if (metrics.enabled()) {
+                    metrics.received(clientId, message.getPayload().length);
+                }
+                long start = handlerTiming ? MQTTMetrics.start() : 0;
+                MqttMessage delivered = manualAcks ? new MQTTHeldMessage(MQTTMonitor.this, message) : message;
+                try {
+                    if (!router.route(topic, delivered) && mqttCallback != null) {
+                        mqttCallback.messageArrived(topic, delivered);
+                    }
+                    // 处理器抛出异常时不确认，broker 会重发 Not acked when a handler throws, so the broker redelivers
+                    if (delivered != message) {
+                        ((MQTTHeldMessage) delivered).complete();
+                    }
+                } finally {
+                    if (start != 0) {
+                        MQTTMetrics.current().handled(clientId, System.nanoTime() - start);
+                    }
+                }
+            }
+
+            @Override
+            public void deliveryComplete(IMqttDeliveryToken token) {
+                if (mqttCallback != null) mqttCallback.deliveryComplete(token);
+            }
+        };
+    }
+
+    /**
+     * <h3>Reconnect</h3>
+     * <p>
+     * Retries on the shared scheduler with exponential backoff and jitter; calling it again while a reconnect is pending has no effect.
+     * A monitor on a shared connection never reconnects by itself, the connection does
+     * <h3>重连</h3>
+     * <p>
+     * 在共享调度线程池上按指数退避加随机抖动重试；重连进行中再次调用不会重复安排。使用共享连接时由连接负责重连，此处不做任何事
+     */
     public void reconnect() {
+        if (stopped || client == null || connection != null) {
+            return;
+        }
         System.out.println("Preparing to reconnect to MQTT[{" + clientId + "}]<{" + topic + "}>");
         if (client.isConnected()) {
             System.out.println("MQTT[{" + clientId + "}]<{" + topic + "}>Connection is normal");
             return;
         }
-        Thread thread = new Thread(() -> {
-            try {
-                long sleepTime = System.currentTimeMillis();
-                while (!client.isConnected()) {
-                    if (System.currentTimeMillis() - sleepTime > reconnectFrequencyMs) {
-                        try {
-                            start(topic);
-                        } catch (Exception e) {
-                            throw new RuntimeException("Reconnect MQTT[{" + clientId + "}]<{" + topic + "}> Exception", e);
-                        } finally {
-                            sleepTime = System.currentTimeMillis();
+        synchronized (reconnecting) {
+            if (reconnecting.get() != null) {
+                return;
+            }
+            reconnecting.set(MQTTReconnector.schedule(
+                    "MQTT[{" + clientId + "}]<{" + topic + "}>",
+                    () -> {
+                        synchronized (this) {
+                            if (client.isConnected()) return;
+                            boolean success = false;
+                            try {
+                                connect();
+                                success = true;
+                            } finally {
+                                MQTTMetrics.current().reconnectAttempt(clientId, success);
+                            }
+                        }
+                    },
+                    () -> client.isConnected(),
+                    reconnectFrequencyMs,
+                    reconnectMaxMs,
+                    () -> {
+                        reconnecting.set(null);
+                        long lost = lostAt;
+                        if (lost != 0 && client.isConnected()) {
+                            lostAt = 0;
+                            MQTTMetrics.current().outage(clientId, System.nanoTime() - lost);
                         }
                     }
-                }
-                System.out.println("MQTT[{" + clientId + "}]<{" + topic + "}> Reconnect successfully");
-            } catch (Exception e) {
-                throw new RuntimeException("Reconnect MQTT[{" + clientId + "}]<{" + topic + "}> Exception", e);
+            ));
+        }
+    }
+
+    /**
+     * <h3>Stop monitoring and cancel any pending reconnect</h3>
+     * <h3>停止监听并取消进行中的重连</h3>
+     *
+     * @throws MqttException MqttException
+     */
+    public void stop() throws MqttException {
+        stopped = true;
+        MQTTReconnector.Task task = reconnecting.get();
+        if (task != null) {
+            task.cancel();
+        }
+        try {
+            if (connection != null) {
+                release();
+            } else if (client != null && client.isConnected()) {
+                client.disconnect();
+            }
+        } finally {
+            MQTTMetrics.current().release(clientId);
+        }
+    }
+
+    /**
+     * 释放共享连接或关闭旧连接 Release the shared connection or close the previous one
+     */
+    private void release() {
+        MQTTConnections.Connection sharedConnection = connection;
+        if (sharedConnection != null) {
+            connection = null;
+            client = null;
+            sharedConnection.release(routing);
+        } else if (client != null) {
+            closeQuietly(client);
+        }
+    }
+
+    /**
+     * 手动确认：消息在回调返回后才确认，消费方可扣下确认直到处理完成；需要独立连接
+     * Manual acks: a message is acked once the callback returns, and a consumer may hold the ack until it is done.
+     * Needs a connection of its own
+     */
+    void manualAcks(boolean manualAcks) {
+        this.manualAcks = manualAcks;
+    }
+
+    /**
+     * 向收到消息的连接发送确认 Acknowledge on the connection the message arrived on
+     */
+    void ack(int messageId, int qos) {
+        MqttClient current = client;
+        if (current == null || !current.isConnected()) {
+            // 未确认的消息在重连后由 broker 重发 The broker redelivers unacknowledged messages after reconnecting
+            return;
+        }
+        try {
+            current.messageArrivedComplete(messageId, qos);
+        } catch (MqttException e) {
+            System.err.println(clientId + " MQTT ack " + messageId + " exception " + e);
+        }
+    }
+
+    /**
+     * 断开并重连，使 broker 重发未确认的消息；共享连接上不做任何事。在共享调度线程池上进行，不占用调用方线程
+     * <br/>
+     * Drop the connection and reconnect so the broker redelivers unacknowledged messages; does nothing on a shared
+     * connection. Runs on the shared scheduler, so the caller's thread is not held up
+     */
+    void redeliver() {
+        MqttClient current = client;
+        if (stopped || current == null || connection != null) {
+            return;
+        }
+        if (lostAt == 0) {
+            lostAt = MQTTMetrics.start();
+        }
+        MQTTExecutors.scheduler().execute(() -> {
+            try {
+                // 不发送 DISCONNECT 也不等待：broker 不会确认它，回调线程可能正阻塞在已满的队列上
+                // Neither send DISCONNECT nor wait: the broker never acknowledges it and the callback thread may be blocked on a full queue
+                current.disconnectForcibly(0, 0, false);
+            } catch (MqttException e) {
+                System.err.println(clientId + " MQTT disconnect for redelivery exception " + e);
             }
+            reconnect();
         });
-        thread.start();
+    }
+
+    /**
+     * 消息处理耗时由 MqttPut 自行记录时关闭 Turned off when MqttPut times the handlers itself
+     */
+    void handlerTiming(boolean handlerTiming) {
+        this.handlerTiming = handlerTiming;
+    }
+
+    /**
+     * 以相同配置与路由创建共享订阅组的另一个成员 Another member of the share group with the same settings and routes
+     */
+    MQTTMonitor member(String clientId) {
+        MQTTMonitor member = new MQTTMonitor(router);
+        member.clientId = clientId;
+        member.qos = qos;
+        member.cleanSession = cleanSession;
+        member.host = host;
+        member.username = username;
+        member.password = password;
+        member.timeout = timeout;
+        member.keepalive = keepalive;
+        member.reconnectFrequencyMs = reconnectFrequencyMs;
+        member.reconnectMaxMs = reconnectMaxMs;
+        member.persistence = persistence;
+        member.persistenceDir = persistenceDir;
+        member.handlerTiming = handlerTiming;
+        member.shareGroup = shareGroup;
+        member.manualAcks = manualAcks;
+        // 组成员各自一个会话，broker 才会在成员间分摊 The broker only balances across members with sessions of their own
+        member.shared = false;
+        return member;
+    }
+
+    private static void closeQuietly(MqttClient client) {
+        try {
+            if (client.isConnected()) {
+                client.disconnectForcibly();
+            }
+            client.close();
+        } catch (MqttException ignored) {
+            // 旧连接已失效 The old connection is already gone
+        }
     }
 
     public String getClientId() {
@@ -229,6 +694,23 @@ public class MQTTMonitor {
         this.mqttCallback = mqttCallback;
     }
 
+    public MQTTTopicRouter getRouter() {
+        return router;
+    }
+
+    public String getShareGroup() {
+        return shareGroup;
+    }
+
+    /**
+     * 此连接收到的消息数 Messages received on this connection
+     *
+     * @return 消息数 message count
+     */
+    public long getReceived() {
+        return received.sum();
+    }
+
     public boolean isCleanSession() {
         return cleanSession;
     }
@@ -0,0 +1,99 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * <h3>基于最高随机权重（rendezvous）哈希的主题分区</h3>
+ * <h3>Topic partitioning with rendezvous (highest random weight) hashing</h3>
+ * <p>
+ * 每个过滤器归属于与其组合得分最高的节点。得分只取决于节点名与过滤器本身，各节点无需通信即可算出相同的分配；
+ * 节点加入或离开时，只有归属于变化节点的过滤器会移动
+ * <p>
+ * Every filter belongs to the node with the highest score for the pair. The score depends only on the node name and
+ * the filter, so all nodes compute the same assignment without talking to each other. When a node joins or leaves,
+ * only the filters owned by that node move
+ * <pre>{@code
+ *   List<String> nodes = Arrays.asList("node-a", "node-b", "node-c");
+ *   MQTTPartitioner.owner(nodes, "device/17/#");       // 同一结果在每个节点上 the same answer on every node
+ *   MQTTPartitioner.assign("node-a", nodes, filters);   // node-a 订阅的过滤器 filters node-a subscribes
+ * }</pre>
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+public final class MQTTPartitioner {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private MQTTPartitioner() {
+    }
+
+    /**
+     * 过滤器的归属节点 The node a filter belongs to
+     *
+     * @param nodes  集群节点 cluster nodes
+     * @param filter 主题过滤器 topic filter
+     * @return 节点，nodes 为空时为 null node, null when nodes is empty
+     */
+    public static String owner(Collection<String> nodes, String filter) {
+        String owner = null;
+        long best = 0;
+        for (String node : nodes) {
+            long score = score(node, filter);
+            // 得分相同时按名称决出，使结果与遍历顺序无关 Ties are broken by name so the order of nodes does not matter
+            if (owner == null || Long.compareUnsigned(score, best) > 0
+                    || (score == best && node.compareTo(owner) < 0)) {
+                owner = node;
+                best = score;
+            }
+        }
+        return owner;
+    }
+
+    /**
+     * 分配给某节点的过滤器 Filters assigned to one node
+     *
+     * @param node    当前节点 this node
+     * @param nodes   集群节点，应包含 node cluster nodes, including node
+     * @param filters 全部过滤器 every filter of the topic space
+     * @return 按原顺序排列的过滤器 the node's filters in their original order
+     */
+    public static Set<String> assign(String node, Collection<String> nodes, Collection<String> filters) {
+        Set<String> owned = new LinkedHashSet<>();
+        for (String filter : filters) {
+            if (node.equals(owner(nodes, filter))) {
+                owned.add(filter);
+            }
+        }
+        return owned;
+    }
+
+    /**
+     * 节点与过滤器的组合得分：对 UTF-16 字符做 FNV-1a，再以 MurmurHash3 的收尾混合打散
+     * Score of a node and filter pair: FNV-1a over the UTF-16 chars, finished with the MurmurHash3 mixer
+     */
+    static long score(String node, String filter) {
+        long hash = FNV_OFFSET;
+        hash = fnv(hash, node);
+        hash = (hash ^ 0xffff) * FNV_PRIME;
+        hash = fnv(hash, filter);
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long fnv(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
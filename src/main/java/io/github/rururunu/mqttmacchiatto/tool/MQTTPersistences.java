@@ -0,0 +1,42 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import io.github.rururunu.mqttmacchiatto.config.MQTTBase;
+import io.github.rururunu.mqttmacchiatto.content.MQTTPersistence;
+import io.github.rururunu.mqttmacchiatto.store.MQTTMappedPersistence;
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.eclipse.paho.client.mqttv3.persist.MqttDefaultFilePersistence;
+
+/**
+ * 按配置创建客户端持久化 Creates the client persistence from the configuration
+ */
+final class MQTTPersistences {
+
+    private static final String DEFAULT_DIRECTORY = "mqtt-persistence";
+
+    private MQTTPersistences() {
+    }
+
+    /**
+     * @param type      持久化方式，null 时取 mto-mqtt.persistence，仍未配置则为内存 persistence type;
+     *                  null falls back to mto-mqtt.persistence, then to memory
+     * @param directory 持久化目录，null 时取 mto-mqtt.persistence-dir directory; null falls back to mto-mqtt.persistence-dir
+     * @return 每个客户端独立的实例 a fresh instance for one client
+     */
+    static MqttClientPersistence create(MQTTPersistence type, String directory) {
+        if (type == null) {
+            type = MQTTBase.PERSISTENCE == null ? MQTTPersistence.MEMORY : MQTTBase.PERSISTENCE;
+        }
+        if (directory == null) {
+            directory = MQTTBase.PERSISTENCE_DIR == null ? DEFAULT_DIRECTORY : MQTTBase.PERSISTENCE_DIR;
+        }
+        switch (type) {
+            case FILE:
+                return new MqttDefaultFilePersistence(directory);
+            case MAPPED:
+                return new MQTTMappedPersistence(directory);
+            default:
+                return new MemoryPersistence();
+        }
+    }
+}
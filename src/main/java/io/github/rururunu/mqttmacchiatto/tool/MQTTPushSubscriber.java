@@ -0,0 +1,170 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import io.github.rururunu.mqttmacchiatto.content.MQTTRecord;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * <h3>按确认进度向上游请求的 MqttPush 订阅者</h3>
+ * <h3>Reactive Streams Subscriber that pushes through MqttPush, requesting as acknowledgements arrive</h3>
+ * <p>
+ * 订阅时请求 inflight 条，每条消息得到 broker 确认（或失败）后再请求一条，因此在途消息始终不超过 inflight，
+ * 上游的速度由 broker 的确认速度决定。传入错误处理器时单条失败交给它，订阅继续；未传入时第一条失败即取消订阅，
+ * 并以该异常完成 {@link #getCompletion()}。向上游请求在订阅者独占的线程上进行，上游在 onNext 中被限流阻塞不会拖住共享调度器
+ * <p>
+ * Requests inflight records on subscribe and one more each time the broker acknowledges (or fails) one, so no more
+ * than inflight messages are ever on the wire and upstream runs at the pace of broker acknowledgements. With an error
+ * handler a failed record goes to it and the subscription continues; without one the first failure cancels the
+ * subscription and completes {@link #getCompletion()} with that exception. Requests to upstream are made on a thread
+ * owned by the subscriber, so an upstream blocked in onNext by a rate limit does not hold up the shared scheduler
+ * <pre>{@code
+ *   MQTTPushSubscriber sink = mqttPush.subscriber(64);
+ *   Flux.fromIterable(readings).map(r -> new MQTTRecord("sensor/" + r.id(), r.json(), MQTTQos.AT_LEAST_ONCE)).subscribe(sink);
+ *   sink.getCompletion().join();
+ * }</pre>
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+public class MQTTPushSubscriber implements Subscriber<MQTTRecord> {
+
+    private final MqttPush push;
+    private final int inflight;
+    private final Consumer<Throwable> error;
+    private final ScheduledExecutorService executor;
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile Subscription subscription;
+    private volatile boolean upstreamDone;
+    private volatile boolean cancelled;
+
+    MQTTPushSubscriber(MqttPush push, int inflight, Consumer<Throwable> error) {
+        if (inflight < 1) {
+            throw new IllegalArgumentException("inflight must be positive");
+        }
+        this.push = push;
+        this.inflight = inflight;
+        this.error = error;
+        this.executor = MQTTExecutors.single("push-subscriber-" + push.getServiceId());
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        if (this.subscription != null) {
+            // 规则 2.5：只接受一个订阅 Rule 2.5: only one subscription is accepted
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        request(inflight);
+    }
+
+    @Override
+    public void onNext(MQTTRecord record) {
+        if (cancelled) {
+            return;
+        }
+        active.incrementAndGet();
+        CompletableFuture<?> sent;
+        try {
+            sent = push.pushAsync(record.getTopic(), record.getPayload(push.getCharset()), record.getQos());
+        } catch (RuntimeException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            sent = failed;
+        }
+        // 不在 Paho 回调线程上请求，上游可能就地调用 onNext Do not request on the Paho callback thread, upstream may call onNext right there
+        sent.whenCompleteAsync((token, e) -> {
+            if (e != null) {
+                if (error != null) {
+                    error.accept(e);
+                } else {
+                    cancelled = true;
+                    completion.completeExceptionally(e);
+                }
+            }
+            if (active.decrementAndGet() == 0 && (upstreamDone || cancelled)) {
+                completion.complete(null);
+                executor.shutdown();
+            }
+            request(1);
+        }, this::execute);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        upstreamDone = true;
+        completion.completeExceptionally(throwable);
+        if (active.get() == 0) {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        if (active.get() == 0) {
+            completion.complete(null);
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 取消后仍可能有一条记录在途，此时线程已关闭，就地执行其回调
+     * A record may still be in flight after the cancel, when the thread is already shut down; its callback runs in place
+     */
+    private void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    /**
+     * 规则 2.7：Subscription 的调用必须串行，由当前持有者合并请求；取消也经由这里发出
+     * Rule 2.7: calls on the Subscription must not overlap, so the current holder issues the merged requests; the
+     * cancel goes through here as well
+     */
+    private void request(int n) {
+        if ((upstreamDone && !cancelled) || pending.getAndAdd(n) != 0) {
+            return;
+        }
+        int missed = n;
+        do {
+            if (cancelled) {
+                subscription.cancel();
+            } else if (!upstreamDone) {
+                subscription.request(missed);
+            }
+            missed = pending.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * 上游结束且全部消息确认后完成；上游出错，或未传错误处理器时有消息推送失败，则异常完成
+     * Completes once upstream has completed and every message is acknowledged; completes exceptionally on upstream
+     * error, or on the first failed record when no error handler was given
+     *
+     * @return CompletableFuture
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * 已发出尚未确认的消息数 Messages sent and not yet acknowledged
+     *
+     * @return 在途数 in-flight count
+     */
+    public int getInflight() {
+        return active.get();
+    }
+}
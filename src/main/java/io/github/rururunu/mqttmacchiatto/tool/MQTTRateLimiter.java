@@ -0,0 +1,172 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <h3>令牌桶限速，可按确认延迟自适应</h3>
+ * <h3>Token bucket rate limit, optionally adapting to acknowledgement latency</h3>
+ * <p>
+ * 令牌以 rate 条每秒的速度补充，最多积攒 burst 个；令牌不足时调用方等待到轮到自己。
+ * 开启自适应后，按平滑后的确认延迟调整速率：超过目标延迟时乘以 0.7 快速下调，低于目标的 80% 时每次上调最大速率的 5%，
+ * 即 AIMD，在不压垮 broker 的前提下尽量维持吞吐
+ * <p>
+ * Tokens are added at rate per second, up to burst of them; when none are left a caller waits for its turn.
+ * In adaptive mode the rate follows the smoothed acknowledgement latency: above the target it is multiplied by 0.7,
+ * below 80% of the target it grows by 5% of the maximum per step. This AIMD loop keeps throughput high without
+ * overloading the broker
+ * <pre>{@code
+ *   // 最多 5000 条每秒，确认延迟超过 50ms 时降速 Up to 5000 msgs/s, slowing down once acks take more than 50ms
+ *   MQTTRateLimiter limiter = new MQTTRateLimiter(5000, 500).adaptive(50, 100);
+ * }</pre>
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+public class MQTTRateLimiter {
+
+    private static final double DECREASE = 0.7;
+    private static final double INCREASE = 0.05;
+    private static final double SMOOTHING = 0.2;
+    private static final long MIN_ADJUST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final double maxRate;
+    private final int burst;
+    private double rate;
+    private double tokens;
+    private long refilled = System.nanoTime();
+
+    private volatile long targetNanos;
+    private double minRate;
+    private double latency;
+    private long adjusted;
+
+    /**
+     * @param permitsPerSecond 每秒条数 messages per second
+     * @param burst            可积攒的令牌数 tokens that may accumulate
+     */
+    public MQTTRateLimiter(double permitsPerSecond, int burst) {
+        if (!(permitsPerSecond > 0) || burst < 1) {
+            throw new IllegalArgumentException("permitsPerSecond and burst must be positive");
+        }
+        this.maxRate = permitsPerSecond;
+        this.rate = permitsPerSecond;
+        this.burst = burst;
+        this.tokens = burst;
+    }
+
+    /**
+     * 按确认延迟自适应 Adapt to acknowledgement latency
+     *
+     * @param targetLatencyMs 目标确认延迟，毫秒 target acknowledgement latency in milliseconds
+     * @param minPerSecond    速率下限 lowest rate
+     * @return this
+     */
+    public synchronized MQTTRateLimiter adaptive(long targetLatencyMs, double minPerSecond) {
+        if (targetLatencyMs < 1 || !(minPerSecond > 0) || minPerSecond > maxRate) {
+            throw new IllegalArgumentException("targetLatencyMs must be positive and minPerSecond must be in (0, maxRate]");
+        }
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMs);
+        this.minRate = minPerSecond;
+        return this;
+    }
+
+    /**
+     * 取一个令牌，不足时等待 Take a token, waiting when none is left
+     *
+     * @throws MqttException 等待被中断 interrupted while waiting
+     */
+    public void acquire() throws MqttException {
+        long wait = reserve();
+        while (wait > 0) {
+            long until = System.nanoTime() + wait;
+            LockSupport.parkNanos(this, wait);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION, new InterruptedException());
+            }
+            wait = until - System.nanoTime();
+        }
+    }
+
+    /**
+     * 有令牌时取走 Take a token if one is available
+     *
+     * @return 是否取到 whether a token was taken
+     */
+    public synchronized boolean tryAcquire() {
+        refill(System.nanoTime());
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    /**
+     * 预订一个令牌，返回需要等待的纳秒数；令牌可透支，后来者排在透支之后
+     * Reserve a token and return the nanoseconds to wait; tokens may go negative, later callers queue behind the debt
+     */
+    synchronized long reserve() {
+        refill(System.nanoTime());
+        tokens--;
+        return tokens >= 0 ? 0 : (long) (-tokens / rate * 1e9);
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(burst, tokens + (now - refilled) / 1e9 * rate);
+        refilled = now;
+    }
+
+    /**
+     * 一条消息得到确认 A message was acknowledged
+     *
+     * @param nanos 从发出到确认的耗时 time from publish to acknowledgement
+     */
+    public synchronized void acknowledged(long nanos) {
+        if (targetNanos == 0) {
+            return;
+        }
+        latency = latency == 0 ? nanos : latency + (nanos - latency) * SMOOTHING;
+        long now = System.nanoTime();
+        if (now - adjusted < Math.max(targetNanos, MIN_ADJUST_NANOS)) {
+            return;
+        }
+        adjusted = now;
+        refill(now);
+        if (latency > targetNanos) {
+            rate = Math.max(minRate, rate * DECREASE);
+        } else if (latency < targetNanos * 0.8) {
+            rate = Math.min(maxRate, rate + maxRate * INCREASE);
+        }
+    }
+
+    /**
+     * 是否按确认延迟自适应 Whether the rate adapts to acknowledgement latency
+     *
+     * @return 自适应 adaptive
+     */
+    public boolean isAdaptive() {
+        return targetNanos != 0;
+    }
+
+    /**
+     * 当前速率 Current rate
+     *
+     * @return 每秒条数 messages per second
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * 平滑后的确认延迟 Smoothed acknowledgement latency
+     *
+     * @return 毫秒 milliseconds
+     */
+    public synchronized double getLatencyMs() {
+        return latency / 1e6;
+    }
+}
@@ -0,0 +1,166 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import io.github.rururunu.mqttmacchiatto.config.MQTTBase;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * <h3>共享重连器</h3>
+ * <h3>Shared reconnector</h3>
+ * <p>
+ * 所有断线的连接都在共享调度线程池上按指数退避加随机抖动重试，
+ * 并通过全局许可限制同时进行的重连数，避免 broker 重启时的重连风暴
+ * <p>
+ * Every dropped connection retries on the shared scheduler with exponential backoff and jitter.
+ * A global permit pool caps how many connection attempts run at once,
+ * so a broker restart does not turn into a reconnect storm
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+final class MQTTReconnector {
+
+    private static final long DEFAULT_BASE_MS = 5000;
+    private static final long DEFAULT_MAX_MS = 60000;
+
+    private MQTTReconnector() {
+    }
+
+    /**
+     * 连接尝试 A connection attempt
+     */
+    interface Attempt {
+        void connect() throws Exception;
+    }
+
+    /**
+     * 安排一次重连，直至 connected 返回 true 或被取消
+     * <br/>
+     * Schedule reconnection until connected returns true or the task is cancelled
+     *
+     * @param name      日志名称 name used in log lines
+     * @param attempt   连接尝试 connection attempt
+     * @param connected 是否已连接 whether the connection is up
+     * @param baseMs    首次重试间隔 first retry delay
+     * @param maxMs     退避上限 backoff ceiling
+     * @param done      重连成功或取消后的回调 called once reconnected or cancelled
+     * @return 可取消的任务 cancellable task
+     */
+    static Task schedule(String name, Attempt attempt, BooleanSupplier connected,
+                         Integer baseMs, Integer maxMs, Runnable done) {
+        Task task = new Task(name, attempt, connected,
+                baseMs == null || baseMs < 1 ? DEFAULT_BASE_MS : baseMs,
+                maxMs == null || maxMs < 1 ? DEFAULT_MAX_MS : maxMs,
+                done);
+        task.schedule(Task.jitter(task.baseMs));
+        return task;
+    }
+
+    static Semaphore permits() {
+        return Permits.PERMITS;
+    }
+
+    private static final class Permits {
+        private static final Semaphore PERMITS = new Semaphore(
+                MQTTBase.RECONNECT_CONCURRENCY == null || MQTTBase.RECONNECT_CONCURRENCY < 1
+                        ? Math.max(2, Runtime.getRuntime().availableProcessors())
+                        : MQTTBase.RECONNECT_CONCURRENCY);
+    }
+
+    static final class Task implements Runnable {
+        private final String name;
+        private final Attempt attempt;
+        private final BooleanSupplier connected;
+        private final long baseMs;
+        private final long maxMs;
+        private final Runnable done;
+        private int failures;
+        private volatile boolean cancelled;
+        private volatile ScheduledFuture<?> next;
+
+        private Task(String name, Attempt attempt, BooleanSupplier connected, long baseMs, long maxMs, Runnable done) {
+            this.name = name;
+            this.attempt = attempt;
+            this.connected = connected;
+            this.baseMs = baseMs;
+            this.maxMs = maxMs;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            if (connected.getAsBoolean()) {
+                done.run();
+                return;
+            }
+            if (!permits().tryAcquire()) {
+                // 许可已满，稍后再试且不计入失败次数 No permit free: try again later without counting a failure
+                schedule(jitter(baseMs));
+                return;
+            }
+            try {
+                attempt.connect();
+            } catch (Exception e) {
+                System.err.println("Reconnect " + name + " Exception " + e);
+            } finally {
+                permits().release();
+            }
+            if (cancelled) {
+                return;
+            }
+            if (connected.getAsBoolean()) {
+                System.out.println(name + " Reconnect successfully");
+                done.run();
+                return;
+            }
+            failures++;
+            schedule(backoff());
+        }
+
+        /**
+         * 取消重连 Cancel reconnection
+         */
+        void cancel() {
+            cancelled = true;
+            ScheduledFuture<?> scheduled = next;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            done.run();
+        }
+
+        private void schedule(long delayMs) {
+            if (!cancelled) {
+                next = MQTTExecutors.scheduler().schedule(this, delayMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private long backoff() {
+            return backoff(baseMs, maxMs, failures);
+        }
+
+        /**
+         * 第 failures 次失败后的等待时间 Delay after the given number of failed attempts
+         */
+        static long backoff(long baseMs, long maxMs, int failures) {
+            long delay = baseMs << Math.min(failures - 1, 20);
+            return jitter(Math.min(delay, maxMs));
+        }
+
+        /**
+         * 保留一半延迟，另一半随机，打散同时断线的连接
+         * Keeps half of the delay and randomises the other half, spreading out connections that dropped together
+         */
+        static long jitter(long delay) {
+            long half = delay / 2;
+            return half + ThreadLocalRandom.current().nextLong(half + 1);
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package io.github.rururunu.mqttmacchiatto.tool;
 
 import io.github.rururunu.mqttmacchiatto.config.MQTTBase;
+import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import io.github.rururunu.mqttmacchiatto.metrics.MQTTMetrics;
 import org.eclipse.paho.client.mqttv3.*;
-import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * <h3>MQTT reporting</h3>
@@ -41,6 +44,21 @@ import java.util.UUID;
  *             mqttReport.publish("topic", message);
  * }</pre>
  *
+ * <pre>{@code
+ *             // 多线程并发上报，每个线程复用自己的 MqttMessage Concurrent publishing; every thread reuses its own MqttMessage
+ *             MQTTReport mqttReport = new MQTTReport("topic", "serviceId");
+ *             mqttReport.start();
+ *             mqttReport.publish(payload, MQTTQos.AT_LEAST_ONCE);
+ *             mqttReport.publish("other/topic", payload, MQTTQos.AT_MOST_ONCE);
+ * }</pre>
+ *
+ * <pre>{@code
+ *             // 与同一 broker 的其他实例共用连接 Share the connection with other instances on the same broker
+ *             MQTTReport mqttReport = new MQTTReport("topic", "serviceId");
+ *             mqttReport.setShared(true);
+ *             mqttReport.start();
+ * }</pre>
+ *
  * @author rururunu
  * @version 1.0
  * @since 1.0
@@ -48,13 +66,25 @@ import java.util.UUID;
 @EnableConfigurationProperties({MQTTBase.class})
 public class MQTTReport {
 
+    private static final byte[] EMPTY = new byte[0];
+    private static final long INFLIGHT_RETRY_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    /**
+     * 同步发布在返回前已完成，按线程复用消息是安全的 Publishing completes before returning, so reusing a message per thread is safe
+     */
+    private static final ThreadLocal<MqttMessage> SCRATCH = ThreadLocal.withInitial(MqttMessage::new);
+
     private String serviceId = UUID.randomUUID().toString();
     private String topic;
     private MqttClient client;
-    private MqttTopic mqttTopic;
+    private volatile MqttTopic mqttTopic;
     private MqttConnectOptions options;
-    private MqttMessage message;
+    /**
+     * getMessage 返回的消息按线程隔离 The message returned by getMessage is per thread
+     */
+    private final ThreadLocal<MqttMessage> message = ThreadLocal.withInitial(MqttMessage::new);
     private boolean cleanSession = false;
+    private boolean shared = Boolean.TRUE.equals(MQTTBase.SHARED_CONNECTION);
+    private MQTTConnections.Connection connection;
 
     /**
      * <h3>Create an MQTT report</h3>
@@ -66,14 +96,13 @@ public class MQTTReport {
      * @throws MqttException MQTT ERROR
      */
     public MQTTReport() throws MqttException {
-        client = new MqttClient(MQTTBase.HOST, getServiceId(), new MemoryPersistence());
+        client = new MqttClient(MQTTBase.HOST, getServiceId(), MQTTPersistences.create(null, null));
         options = new MqttConnectOptions();
         options.setCleanSession(isCleanSession());
         options.setUserName(MQTTBase.USER_NAME);
         options.setPassword(MQTTBase.PASSWORD.toCharArray());
         options.setConnectionTimeout(MQTTBase.TIMEOUT);
         options.setKeepAliveInterval(MQTTBase.KEEP_ALIVE);
-        setMessage(new MqttMessage());
     }
 
     /**
@@ -90,12 +119,11 @@ public class MQTTReport {
     public MQTTReport(String topic, String serviceId) throws MqttException {
         setTopic(topic);
         setServiceId(serviceId);
-        client = new MqttClient(MQTTBase.HOST, getServiceId(), new MemoryPersistence());
+        client = new MqttClient(MQTTBase.HOST, getServiceId(), MQTTPersistences.create(null, null));
         options = new MqttConnectOptions();
         options.setCleanSession(isCleanSession());
         options.setUserName(MQTTBase.USER_NAME);
         options.setPassword(MQTTBase.PASSWORD.toCharArray());
-        setMessage(new MqttMessage());
     }
 
 
@@ -106,24 +134,139 @@ public class MQTTReport {
      */
     public void start() {
         try {
-            client.connect(options);
+            if (shared) {
+                if (connection == null) {
+                    MqttClient own = client;
+                    connection = MQTTConnections.acquire(MQTTBase.HOST, MQTTBase.USER_NAME, MQTTBase.PASSWORD,
+                            MQTTBase.TIMEOUT, MQTTBase.KEEP_ALIVE);
+                    client = connection.client();
+                    // 构造时创建的独立客户端不再使用 The client created by the constructor is not needed
+                    own.close();
+                }
+                connection.connect();
+            } else {
+                client.connect(options);
+            }
             setMqttTopic(client.getTopic(getTopic()));
         } catch (MqttException e) {
             throw new RuntimeException("MQTT connection exception", e);
         }
     }
 
+    /**
+     * <h3>Close the connection, or release it when shared</h3>
+     * <br/>
+     * <h3>关闭连接，共享时释放</h3>
+     *
+     * @throws MqttException MQTT ERROR
+     */
+    public void stop() throws MqttException {
+        try {
+            if (connection != null) {
+                MQTTConnections.Connection sharedConnection = connection;
+                connection = null;
+                sharedConnection.release(null);
+            } else if (client.isConnected()) {
+                client.disconnect();
+            }
+        } finally {
+            MQTTMetrics.current().release(getServiceId());
+        }
+    }
+
+    /**
+     * <h3>Publish to the report topic</h3>
+     * <br/>
+     * <h3>发布到上报主题</h3>
+     * 可由多个线程同时调用；消息对象按线程复用，消息体不复制
+     * <br/>
+     * Safe to call from many threads; the message object is reused per thread and the payload is not copied
+     *
+     * @param payload message body 消息体
+     * @param qos     QoS 等级
+     */
+    public void publish(byte[] payload, MQTTQos qos) throws MqttException {
+        MqttTopic current = mqttTopic;
+        if (current == null) {
+            throw new IllegalStateException("MQTTReport has no topic, call start first");
+        }
+        publish(current, payload, qos);
+    }
+
+    /**
+     * <h3>Publish to a topic</h3>
+     * <br/>
+     * <h3>发布到指定主题</h3>
+     * 可由多个线程同时调用 Safe to call from many threads
+     *
+     * @param topic   Topic for publishing messages 发布消息的主题
+     * @param payload message body 消息体
+     * @param qos     QoS 等级
+     */
+    public void publish(String topic, byte[] payload, MQTTQos qos) throws MqttException {
+        MqttTopic current = mqttTopic;
+        publish(current != null && current.getName().equals(topic) ? current : client.getTopic(topic), payload, qos);
+    }
+
+    private void publish(MqttTopic topic, byte[] payload, MQTTQos qos) throws MqttException {
+        MqttMessage reused = SCRATCH.get();
+        reused.setPayload(payload);
+        reused.setQos(qos.getValue());
+        try {
+            publish(topic, reused);
+        } finally {
+            // 不持有调用方的数组 Do not hold on to the caller's array
+            reused.setPayload(EMPTY);
+        }
+    }
+
     /**
      * <h3>Publish a message</h3>
      * <br/>
      * <h3>发布消息</h3>
+     * 发布完成前消息不可被其他线程修改；并发时请使用各线程自己的消息，例如 getMessage()
+     * <br/>
+     * The message must not be changed by another thread until this returns; concurrent callers should each use their
+     * own message, such as getMessage()
      *
      * @param topic   Topic for publishing messages 发布消息的主题
      * @param message message 消息
      */
     public void publish(MqttTopic topic, MqttMessage message) throws MqttException {
-        MqttDeliveryToken token = topic.publish(message);
-        token.waitForCompletion();
+        long start = MQTTMetrics.start();
+        boolean success = false;
+        try {
+            MqttDeliveryToken token = send(topic, message);
+            token.waitForCompletion();
+            success = true;
+        } finally {
+            if (start != 0) {
+                MQTTMetrics.current().published(getServiceId(), MQTTQos.of(message.getQos()),
+                        message.getPayload().length, System.nanoTime() - start, success);
+            }
+        }
+    }
+
+    /**
+     * Paho 在回调线程上才释放在途名额，晚于 waitForCompletion 返回；并发发布时名额暂满则稍候重试
+     * Paho frees an in-flight slot on its callback thread, after waitForCompletion has returned, so concurrent
+     * publishers wait briefly and retry while the slots are momentarily full
+     */
+    private static MqttDeliveryToken send(MqttTopic topic, MqttMessage message) throws MqttException {
+        while (true) {
+            try {
+                return topic.publish(message);
+            } catch (MqttException e) {
+                if (e.getReasonCode() != MqttException.REASON_CODE_MAX_INFLIGHT) {
+                    throw e;
+                }
+                LockSupport.parkNanos(INFLIGHT_RETRY_NANOS);
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
     }
 
     public String getServiceId() {
@@ -166,12 +309,36 @@ public class MQTTReport {
         this.mqttTopic = mqttTopic;
     }
 
+    /**
+     * 当前线程的消息 This thread's message
+     *
+     * @return 消息 message
+     */
     public MqttMessage getMessage() {
-        return message;
+        return message.get();
     }
 
+    /**
+     * 设置当前线程的消息 Set this thread's message
+     *
+     * @param message 消息 message
+     */
     public void setMessage(MqttMessage message) {
-        this.message = message;
+        this.message.set(message);
+    }
+
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * 共用连接，默认取 mto-mqtt.shared-connection，需在 start 前设置
+     * Share the connection with other instances on the same broker, defaults to mto-mqtt.shared-connection; set before start
+     *
+     * @param shared 是否共用 whether to share
+     */
+    public void setShared(boolean shared) {
+        this.shared = shared;
     }
 
     public boolean isCleanSession() {
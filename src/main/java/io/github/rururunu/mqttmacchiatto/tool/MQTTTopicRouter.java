@@ -0,0 +1,101 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * <h3>进程内主题路由</h3>
+ * <h3>In-process topic router</h3>
+ * <p>
+ * 同一连接订阅多个主题过滤器（支持 + 和 # 通配符），到达的消息只交给匹配的处理器
+ * <p>
+ * Lets one connection subscribe many topic filters (including + and # wildcards)
+ * and hands each arrived message only to the handlers whose filter matches
+ * <p>
+ * 匹配由 {@link MQTTTopicTrie} 完成 Matching is done by {@link MQTTTopicTrie}
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+public class MQTTTopicRouter {
+
+    private final Map<String, MQTTQos> routes = new LinkedHashMap<>();
+    private final MQTTTopicTrie<BiConsumer<String, MqttMessage>> trie;
+
+    public MQTTTopicRouter() {
+        this.trie = new MQTTTopicTrie<>();
+    }
+
+    /**
+     * @param cacheSize 匹配结果缓存的主题数上限 maximum topics whose match result is cached
+     */
+    public MQTTTopicRouter(int cacheSize) {
+        this.trie = new MQTTTopicTrie<>(cacheSize);
+    }
+
+    /**
+     * 注册过滤器及其处理器 Register a filter and its handler
+     *
+     * @param filter  主题过滤器 topic filter
+     * @param qos     订阅等级 subscription QoS
+     * @param handler 处理器 handler, param1 topic, param2 message
+     */
+    public synchronized void add(String filter, MQTTQos qos, BiConsumer<String, MqttMessage> handler) {
+        trie.add(filter, handler);
+        routes.putIfAbsent(filter, qos);
+    }
+
+    /**
+     * 移除过滤器及其全部处理器 Remove a filter and all of its handlers
+     *
+     * @param filter 主题过滤器 topic filter
+     * @return 是否存在 whether the filter was registered
+     */
+    public synchronized boolean remove(String filter) {
+        trie.remove(filter);
+        return routes.remove(filter) != null;
+    }
+
+    /**
+     * 将消息交给所有匹配的处理器 Hand a message to every matching handler
+     *
+     * @param topic   消息主题 topic the message arrived on
+     * @param message 消息 message
+     * @return 是否有处理器匹配 whether any handler matched
+     */
+    public boolean route(String topic, MqttMessage message) {
+        List<BiConsumer<String, MqttMessage>> matched = match(topic);
+        for (BiConsumer<String, MqttMessage> handler : matched) {
+            handler.accept(topic, message);
+        }
+        return !matched.isEmpty();
+    }
+
+    /**
+     * 与主题匹配的处理器 Handlers whose filter matches the topic
+     *
+     * @param topic 消息主题 topic
+     * @return 处理器 handlers
+     */
+    public List<BiConsumer<String, MqttMessage>> match(String topic) {
+        return trie.match(topic);
+    }
+
+    /**
+     * 已注册的过滤器及其订阅等级 Registered filters and their subscription QoS
+     *
+     * @return filter -> qos
+     */
+    public synchronized Map<String, MQTTQos> getFilters() {
+        return new LinkedHashMap<>(routes);
+    }
+
+    public synchronized boolean isEmpty() {
+        return routes.isEmpty();
+    }
+}
@@ -0,0 +1,204 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import org.eclipse.paho.client.mqttv3.MqttTopic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <h3>按层级切分的主题过滤器前缀树</h3>
+ * <h3>Topic filter trie split on topic levels</h3>
+ * <p>
+ * 主题按 / 切分为层级，+ 与 # 各自对应独立节点，匹配代价只与主题层数相关而与过滤器数量无关；
+ * 具体主题到匹配结果的映射缓存在有界缓存中，过滤器变化时整体失效
+ * <p>
+ * Topics are split on / into levels, with dedicated + and # nodes, so a lookup costs
+ * time proportional to the topic depth rather than the number of filters. Results per concrete
+ * topic are kept in a bounded cache that is invalidated whenever the filters change
+ * <pre>{@code
+ *   MQTTTopicTrie<String> trie = new MQTTTopicTrie<>();
+ *   trie.add("device/+/status", "status");
+ *   trie.add("device/#", "all");
+ *   trie.match("device/42/status"); // [status, all]
+ * }</pre>
+ *
+ * @param <T> 过滤器关联的值 value attached to a filter
+ * @author rururunu
+ * @since 0.1.6
+ */
+public class MQTTTopicTrie<T> {
+
+    private static final int DEFAULT_CACHE_SIZE = 10000;
+
+    private final Node<T> root = new Node<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Cached<T>> cache = new ConcurrentHashMap<>();
+    private final int cacheSize;
+    private volatile long version;
+    private int size;
+
+    public MQTTTopicTrie() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize 缓存的具体主题数上限，0 表示不缓存 maximum cached topics, 0 disables the cache
+     */
+    public MQTTTopicTrie(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * 添加过滤器 Add a filter
+     *
+     * @param filter 主题过滤器 topic filter
+     * @param value  关联的值 value
+     */
+    public void add(String filter, T value) {
+        MqttTopic.validate(filter, true);
+        lock.writeLock().lock();
+        try {
+            Node<T> node = root;
+            for (String level : filter.split("/", -1)) {
+                node = node.child(level);
+            }
+            node.values.add(value);
+            size++;
+            invalidate();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 移除过滤器上的全部值 Remove every value attached to a filter
+     *
+     * @param filter 主题过滤器 topic filter
+     * @return 被移除的值 removed values
+     */
+    public List<T> remove(String filter) {
+        lock.writeLock().lock();
+        try {
+            Node<T> node = root;
+            for (String level : filter.split("/", -1)) {
+                node = node.find(level);
+                if (node == null) {
+                    return Collections.emptyList();
+                }
+            }
+            List<T> removed = new ArrayList<>(node.values);
+            node.values.clear();
+            size -= removed.size();
+            invalidate();
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 与主题匹配的全部值 Every value whose filter matches the topic
+     *
+     * @param topic 具体主题 concrete topic
+     * @return 匹配的值，不可修改 matching values, unmodifiable
+     */
+    public List<T> match(String topic) {
+        long current = version;
+        Cached<T> cached = cache.get(topic);
+        if (cached != null && cached.version == current) {
+            return cached.values;
+        }
+        List<T> matched;
+        lock.readLock().lock();
+        try {
+            current = version;
+            matched = new ArrayList<>();
+            String[] levels = topic.split("/", -1);
+            // 以 $ 开头的主题不匹配首层通配符 Topics starting with $ are not matched by a leading wildcard
+            collect(root, levels, 0, !topic.startsWith("$"), matched);
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<T> result = matched.isEmpty() ? Collections.<T>emptyList() : Collections.unmodifiableList(matched);
+        if (cacheSize > 0) {
+            if (cache.size() >= cacheSize) {
+                cache.clear();
+            }
+            cache.put(topic, new Cached<>(current, result));
+        }
+        return result;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static <T> void collect(Node<T> node, String[] levels, int depth, boolean wildcards, List<T> matched) {
+        if (wildcards && node.hash != null) {
+            matched.addAll(node.hash.values);
+        }
+        if (depth == levels.length) {
+            matched.addAll(node.values);
+            return;
+        }
+        Node<T> exact = node.children == null ? null : node.children.get(levels[depth]);
+        if (exact != null) {
+            collect(exact, levels, depth + 1, true, matched);
+        }
+        if (wildcards && node.plus != null) {
+            collect(node.plus, levels, depth + 1, true, matched);
+        }
+    }
+
+    private void invalidate() {
+        version++;
+        cache.clear();
+    }
+
+    private static final class Node<T> {
+        private Map<String, Node<T>> children;
+        private Node<T> plus;
+        private Node<T> hash;
+        private final List<T> values = new ArrayList<>(1);
+
+        private Node<T> child(String level) {
+            if ("+".equals(level)) {
+                if (plus == null) plus = new Node<>();
+                return plus;
+            }
+            if ("#".equals(level)) {
+                if (hash == null) hash = new Node<>();
+                return hash;
+            }
+            if (children == null) children = new HashMap<>();
+            return children.computeIfAbsent(level, l -> new Node<>());
+        }
+
+        private Node<T> find(String level) {
+            if ("+".equals(level)) return plus;
+            if ("#".equals(level)) return hash;
+            return children == null ? null : children.get(level);
+        }
+    }
+
+    private static final class Cached<T> {
+        private final long version;
+        private final List<T> values;
+
+        private Cached(long version, List<T> values) {
+            this.version = version;
+            this.values = values;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+/**
+ * 对外仍是阻塞的 MqttClient，同时暴露底层的 MqttAsyncClient，
+ * 使得同步与异步发布共用同一个连接
+ * <br/>
+ * A blocking MqttClient that also exposes its underlying MqttAsyncClient,
+ * so blocking and pipelined publishing share one connection
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+final class MacchiattoClient extends MqttClient {
+
+    MacchiattoClient(String serverURI, String clientId, MqttClientPersistence persistence) throws MqttException {
+        super(serverURI, clientId, persistence);
+    }
+
+    MqttAsyncClient async() {
+        return aClient;
+    }
+
+    static MqttAsyncClient asyncOf(MqttClient client) {
+        if (client instanceof MacchiattoClient) {
+            return ((MacchiattoClient) client).async();
+        }
+        throw new IllegalStateException("Asynchronous publishing requires a client created by MQTT-Macchiatto");
+    }
+}
@@ -0,0 +1,165 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import io.github.rururunu.mqttmacchiatto.content.MQTTOverflow;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 将消息处理从 Paho 回调线程转移到有界队列和工作线程池
+ * <br/>
+ * Moves message handling off Paho's callback thread onto a bounded queue and a worker pool
+ * <p>
+ * 按键分发时，每个键固定落在一条单线程通道上，同一键的消息按到达顺序处理
+ * <br/>
+ * When dispatching by key, each key is pinned to one single-threaded lane, so messages sharing a key run in arrival order
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+final class MqttDispatcher {
+
+    private final String name;
+    private final int workers;
+    private final int capacity;
+    private final MQTTOverflow overflow;
+    private final boolean keyed;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile ThreadPoolExecutor[] lanes;
+
+    MqttDispatcher(String name, int workers, int capacity, MQTTOverflow overflow) {
+        this(name, workers, capacity, overflow, false);
+    }
+
+    /**
+     * @param workers 工作线程数；按键分发时为通道数 worker threads, or the number of lanes when keyed
+     * @param keyed   是否按键分发 whether messages are pinned to lanes by key
+     */
+    MqttDispatcher(String name, int workers, int capacity, MQTTOverflow overflow, boolean keyed) {
+        if (workers < 1 || capacity < 1) {
+            throw new IllegalArgumentException("workers and capacity must be positive");
+        }
+        this.name = name;
+        this.workers = workers;
+        this.capacity = capacity;
+        this.overflow = overflow == null ? MQTTOverflow.BLOCK : overflow;
+        this.keyed = keyed;
+    }
+
+    synchronized void start() {
+        if (lanes != null && !lanes[0].isShutdown()) {
+            return;
+        }
+        AtomicInteger index = new AtomicInteger();
+        int laneCount = keyed ? workers : 1;
+        int threads = keyed ? 1 : workers;
+        int laneCapacity = Math.max(1, capacity / laneCount);
+        ThreadPoolExecutor[] created = new ThreadPoolExecutor[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            created[i] = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(laneCapacity),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "mto-mqtt-dispatch-" + name + "-" + index.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    rejection());
+            created[i].prestartAllCoreThreads();
+        }
+        lanes = created;
+    }
+
+    void dispatch(Runnable task) {
+        dispatch(null, task);
+    }
+
+    void dispatch(Object key, Runnable task) {
+        ThreadPoolExecutor[] current = lanes;
+        if (current == null) {
+            task.run();
+            return;
+        }
+        lane(current, key).execute(() -> {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                System.err.println(name + " MQTT message handler exception " + e);
+            }
+        });
+    }
+
+    /**
+     * 停止接收新消息，已入队的消息继续处理完
+     * Stops accepting messages; whatever is already queued still runs
+     */
+    synchronized void stop() {
+        if (lanes != null) {
+            for (ThreadPoolExecutor lane : lanes) {
+                lane.shutdown();
+            }
+        }
+    }
+
+    int getQueueDepth() {
+        ThreadPoolExecutor[] current = lanes;
+        if (current == null) {
+            return 0;
+        }
+        int depth = 0;
+        for (ThreadPoolExecutor lane : current) {
+            depth += lane.getQueue().size();
+        }
+        return depth;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    private static ThreadPoolExecutor lane(ThreadPoolExecutor[] current, Object key) {
+        if (current.length == 1 || key == null) {
+            return current[0];
+        }
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return current[(h & 0x7fffffff) % current.length];
+    }
+
+    private RejectedExecutionHandler rejection() {
+        switch (overflow) {
+            case DROP_OLDEST:
+                return (r, pool) -> {
+                    if (pool.isShutdown()) return;
+                    while (!pool.getQueue().offer(r)) {
+                        if (pool.getQueue().poll() != null) dropped.incrementAndGet();
+                    }
+                };
+            case DROP_NEWEST:
+                return (r, pool) -> dropped.incrementAndGet();
+            case CALLER_RUNS:
+                return (r, pool) -> {
+                    if (!pool.isShutdown()) r.run();
+                };
+            case BLOCK:
+            default:
+                return (r, pool) -> {
+                    if (pool.isShutdown()) return;
+                    try {
+                        pool.getQueue().put(r);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException(e);
+                    }
+                };
+        }
+    }
+}
@@ -1,16 +1,35 @@
 package io.github.rururunu.mqttmacchiatto.tool;
 
+import io.github.rururunu.mqttmacchiatto.codec.MQTTCompression;
+import io.github.rururunu.mqttmacchiatto.codec.PayloadCodec;
 import io.github.rururunu.mqttmacchiatto.config.MQTTBase;
+import io.github.rururunu.mqttmacchiatto.content.MQTTPersistence;
 import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import io.github.rururunu.mqttmacchiatto.content.MQTTRecord;
+import io.github.rururunu.mqttmacchiatto.metrics.MQTTMetrics;
+import io.github.rururunu.mqttmacchiatto.store.MQTTJournal;
 import org.eclipse.paho.client.mqttv3.*;
-import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.zip.Deflater;
 
 /**
  * <h3>向 MQTT 推送消息</h3>
@@ -66,6 +85,81 @@ import java.util.function.Consumer;
  * }
  * </pre>
  *
+ * <h3>流水线异步推送</h3>
+ * <h3>Pipelined asynchronous push</h3>
+ * <pre>{@code
+ *   MqttPush mqttPush = new MqttPush().maxInflight(256).init();
+ *   mqttPush.pushAsync("test/", "test", MQTTQos.AT_LEAST_ONCE)
+ *           .whenComplete((token, e) -> System.out.println(e == null ? "success" : "failure"));
+ * }
+ * </pre>
+ *
+ * <h3>对象推送</h3>
+ * <h3>Object push</h3>
+ * <pre>{@code
+ *   // 默认 JSON 编码 JSON by default
+ *   mqttPush.push("device/42/state", state, MQTTQos.AT_LEAST_ONCE);
+ *   mqttPush.push("sensor/1", reading, BinaryCodec.of(Reading.class, writer, reader), MQTTQos.AT_MOST_ONCE);
+ * }
+ * </pre>
+ *
+ * <h3>断线暂存</h3>
+ * <h3>Store and forward while disconnected</h3>
+ * <pre>{@code
+ *   MQTTJournal journal = new MQTTJournal(Paths.get("mqtt-journal"), 64 * 1024 * 1024, 1024L * 1024 * 1024, 600000);
+ *   // 断线期间写入日志，恢复后每秒最多重发 2000 条 Journaled while disconnected, replayed at up to 2000 msgs/s
+ *   MqttPush mqttPush = new MqttPush().journal(journal, 2000).init(e -> {});
+ * }
+ * </pre>
+ *
+ * <h3>批量推送</h3>
+ * <h3>Batched push</h3>
+ * <pre>{@code
+ *   // 显式批量 Explicit batch
+ *   mqttPush.pushBatch(records);
+ *   // 自动攒批：满 100 条或 5ms 后写出 Auto batching: written out at 100 messages or after 5ms
+ *   MqttPush batching = new MqttPush().maxInflight(1000).linger(100, 5).init();
+ *   batching.pushAsync("test/", "test", MQTTQos.AT_LEAST_ONCE);
+ * }
+ * </pre>
+ *
+ * <h3>压缩</h3>
+ * <h3>Compression</h3>
+ * <pre>{@code
+ *   // 超过 4KB 的消息体以 Deflate 压缩 Payloads over 4KB are deflated
+ *   MqttPush mqttPush = new MqttPush().compress(4096).init();
+ *   // 接收方开启解压 The receiver turns decompression on
+ *   MqttPut.of("test/").decompress(true).response(System.out::println).start();
+ * }
+ * </pre>
+ *
+ * <h3>限速</h3>
+ * <h3>Rate limiting</h3>
+ * <pre>{@code
+ *   MqttPush backfill = new MqttPush()
+ *           .rateLimit(new MQTTRateLimiter(5000, 500).adaptive(50, 100)) // 整个连接 whole connection
+ *           .rateLimit("history/", 1000)                                   // 按主题前缀 per topic prefix
+ *           .init();
+ * }
+ * </pre>
+ *
+ * <h3>共用连接</h3>
+ * <h3>Shared connection</h3>
+ * <pre>{@code
+ *   // 同一 broker 与账号的 MqttPush、MqttPut 共用一个连接 MqttPush and MqttPut on the same broker and credentials share one connection
+ *   MqttPush mqttPush = new MqttPush().shared(true).init();
+ * }
+ * </pre>
+ *
+ * <h3>Reactive Streams</h3>
+ * <pre>{@code
+ *   // 最多 64 条在途，按 broker 确认的速度向上游请求 At most 64 in flight, requesting upstream at the pace of acknowledgements
+ *   MQTTPushSubscriber sink = mqttPush.subscriber(64);
+ *   Flux.fromIterable(records).subscribe(sink);
+ *   sink.getCompletion().join();
+ * }
+ * </pre>
+ *
  * @author rururunu
  * @version 0.1.1
  * @since 0.1.1
@@ -73,9 +167,13 @@ import java.util.function.Consumer;
 @EnableConfigurationProperties({MQTTBase.class})
 public class MqttPush {
 
+    private static final int DEFAULT_MAX_INFLIGHT = 10;
+    private static final long DRAIN_INTERVAL_MS = 100;
+    private static final int DEFAULT_TOPIC_CACHE = 10000;
+
     private MqttClient client;
     private MqttConnectOptions options;
-    private final Map<String, MqttTopic> topicMap = new HashMap<>();
+    private volatile MQTTLruCache<String, MqttTopic> topicMap = new MQTTLruCache<>(DEFAULT_TOPIC_CACHE);
 
     private String host = MQTTBase.HOST;
     private String username = MQTTBase.USER_NAME;
@@ -84,6 +182,28 @@ public class MqttPush {
     private Integer keepalive = MQTTBase.KEEP_ALIVE;
     private String serviceId = UUID.randomUUID().toString();
     private boolean cleanSession = false;
+    private Integer maxInflight = MQTTBase.MAX_INFLIGHT;
+    /**
+     * 只创建一次，重启时调整大小，旧连接上的回调仍归还到同一个窗口
+     * Created once and resized on start, so callbacks from a previous connection release into the same window
+     */
+    private final Window window = new Window();
+    private MqttPushBatcher batcher;
+    private Charset charset = MQTTBase.CHARSET;
+    private PayloadCodec<Object> codec;
+    private MQTTJournal journal;
+    private int journalRate;
+    private ScheduledExecutorService drainExecutor;
+    private ScheduledFuture<?> drainTask;
+    private long lastConnectAttempt;
+    private MQTTPersistence persistence = MQTTBase.PERSISTENCE;
+    private String persistenceDir = MQTTBase.PERSISTENCE_DIR;
+    private int compressThreshold;
+    private int compressLevel = Deflater.BEST_SPEED;
+    private volatile MQTTRateLimiter limiter;
+    private volatile Prefix[] prefixLimits = new Prefix[0];
+    private boolean shared = Boolean.TRUE.equals(MQTTBase.SHARED_CONNECTION);
+    private MQTTConnections.Connection connection;
 
     public MqttPush() {
 
@@ -97,6 +217,21 @@ public class MqttPush {
         this.keepalive = builder.keepalive;
         this.serviceId = builder.serviceId;
         this.cleanSession = builder.cleanSession;
+        this.maxInflight = builder.maxInflight;
+        this.charset = builder.charset;
+        this.persistence = builder.persistence;
+        this.persistenceDir = builder.persistenceDir;
+        this.compressThreshold = builder.compressThreshold;
+        this.shared = builder.shared;
+        if (builder.ratePerSecond > 0) {
+            this.limiter = new MQTTRateLimiter(builder.ratePerSecond, builder.rateBurst);
+            if (builder.targetLatencyMs > 0) {
+                limiter.adaptive(builder.targetLatencyMs, builder.minRatePerSecond);
+            }
+        }
+        if (builder.batchSize > 0) {
+            linger(builder.batchSize, builder.lingerMs);
+        }
     }
 
     /**
@@ -177,18 +312,327 @@ public class MqttPush {
         return this;
     }
 
+    /**
+     * 共用连接 shared
+     * <br/>
+     * 默认取 mto-mqtt.shared-connection；共享时与同一 broker、账号的其他实例共用一个 clean session 连接，
+     * maxInflight 仍按实例限制。需要持久会话、固定 clientId 或独立连接时传 false
+     * <br/>
+     * Defaults to mto-mqtt.shared-connection. When shared, the push uses one clean-session connection together with
+     * other instances on the same broker and credentials, and maxInflight still applies per instance. Pass false when it
+     * needs a persistent session, a fixed client id or a connection of its own
+     *
+     * @param shared 是否共用 whether to share
+     * @return this
+     */
+    public MqttPush shared(boolean shared) {
+        this.shared = shared;
+        return this;
+    }
+
+    /**
+     * 最大在途消息数 maxInflight
+     * <br/>
+     * 未被确认的消息达到该数量时 push 会阻塞等待，默认 10
+     * <br/>
+     * When this many messages are awaiting acknowledgement, push blocks until one completes. Defaults to 10
+     *
+     * @param maxInflight 最大在途消息数
+     * @return this
+     */
+    public MqttPush maxInflight(Integer maxInflight) {
+        this.maxInflight = maxInflight;
+        return this;
+    }
+
+    /**
+     * 字符串消息的编码 charset
+     * <br/>
+     * 默认取 mto-mqtt.charset，未配置时为 UTF-8
+     * <br/>
+     * Charset used to encode String messages. Defaults to mto-mqtt.charset, or UTF-8 when unset
+     *
+     * @param charset 编码
+     * @return this
+     */
+    public MqttPush charset(Charset charset) {
+        this.charset = charset;
+        return this;
+    }
+
+    /**
+     * 对象消息的编解码器 codec
+     * <br/>
+     * 默认为 JSON The default is JSON
+     *
+     * @param codec 编解码器
+     * @return this
+     */
+    public MqttPush codec(PayloadCodec<Object> codec) {
+        this.codec = codec;
+        return this;
+    }
+
+    /**
+     * 在途消息持久化 persistence
+     * <br/>
+     * 默认取 mto-mqtt.persistence，未配置时为内存；MAPPED 使 QoS 1/2 的在途消息在重启后继续投递，需配合 cleanSession(false)
+     * <br/>
+     * Defaults to mto-mqtt.persistence, or memory when unset. MAPPED lets QoS 1/2 in-flight messages resume after
+     * a restart; use it together with cleanSession(false)
+     *
+     * @param persistence 持久化方式
+     * @param directory   持久化目录，null 时取 mto-mqtt.persistence-dir directory, null for mto-mqtt.persistence-dir
+     * @return this
+     */
+    public MqttPush persistence(MQTTPersistence persistence, String directory) {
+        this.persistence = persistence;
+        this.persistenceDir = directory;
+        return this;
+    }
+
+    /**
+     * 压缩 compress
+     * <br/>
+     * 不小于 threshold 字节的消息体以最快级别的 Deflate 压缩并加上标记头，压缩后不更小时原样发送；MqttPut 开启 decompress 后识别并解压
+     * <br/>
+     * Payloads of at least threshold bytes are deflated at the fastest level behind a marker header and sent as is
+     * when that would not make them smaller; MqttPut detects and inflates them once decompress is turned on
+     *
+     * @param threshold 压缩阈值，0 表示关闭 threshold in bytes, 0 turns compression off
+     * @return this
+     */
+    public MqttPush compress(int threshold) {
+        return compress(threshold, Deflater.BEST_SPEED);
+    }
+
+    /**
+     * 压缩 compress
+     *
+     * @param threshold 压缩阈值，0 表示关闭 threshold in bytes, 0 turns compression off
+     * @param level     Deflate 压缩级别 0-9 Deflate level 0-9
+     * @return this
+     */
+    public MqttPush compress(int threshold, int level) {
+        if (threshold < 0 || level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("threshold must not be negative and level must be 0-9");
+        }
+        this.compressThreshold = threshold;
+        this.compressLevel = level;
+        return this;
+    }
+
+    /**
+     * 连接级限速 Rate limit for the whole connection
+     * <br/>
+     * 所有推送先从令牌桶取令牌，不足时阻塞；限速器开启自适应时，按确认延迟自动升降速率
+     * <br/>
+     * Every push takes a token first and blocks while none is left; an adaptive limiter raises and lowers the rate
+     * following the acknowledgement latency
+     *
+     * @param limiter 限速器，null 表示不限速 limiter, null for no limit
+     * @return this
+     */
+    public MqttPush rateLimit(MQTTRateLimiter limiter) {
+        this.limiter = limiter;
+        if (limiter != null && client != null) {
+            // 已启动时补登记 Register now when already started
+            MQTTMetrics.current().gauge("mqtt.publish.rate.limit", serviceId, this, MqttPush::currentRate);
+        }
+        return this;
+    }
+
+    /**
+     * 读取当前的限速器，换过限速器后指标随之变化 Reads the current limiter, so the gauge follows a replaced one
+     */
+    private double currentRate() {
+        MQTTRateLimiter current = limiter;
+        return current == null ? Double.NaN : current.getRate();
+    }
+
+    /**
+     * 按主题前缀限速 Rate limit for topics starting with a prefix
+     * <br/>
+     * 多个前缀匹配时取最长的一个，与连接级限速叠加生效
+     * <br/>
+     * When several prefixes match the longest wins; it applies on top of the connection limit
+     *
+     * @param topicPrefix      主题前缀 topic prefix
+     * @param permitsPerSecond 每秒条数 messages per second
+     * @return this
+     */
+    public synchronized MqttPush rateLimit(String topicPrefix, double permitsPerSecond) {
+        List<Prefix> limits = new ArrayList<>(Arrays.asList(prefixLimits));
+        limits.removeIf(limit -> limit.prefix.equals(topicPrefix));
+        limits.add(new Prefix(topicPrefix, new MQTTRateLimiter(permitsPerSecond, (int) Math.max(1, Math.ceil(permitsPerSecond / 10)))));
+        limits.sort((a, b) -> b.prefix.length() - a.prefix.length());
+        prefixLimits = limits.toArray(new Prefix[0]);
+        return this;
+    }
+
+    /**
+     * 自动攒批 Auto batching
+     * <br/>
+     * 开启后 pushAsync 的消息会累积到 batchSize 条或等待 lingerMs 毫秒后一起写出
+     * <br/>
+     * Once enabled, messages passed to pushAsync accumulate until batchSize are pending
+     * or lingerMs milliseconds have passed, and are then written out together
+     *
+     * @param batchSize 批大小 batch size
+     * @param lingerMs  最长等待时间 maximum time a message waits for its batch
+     * @return this
+     */
+    public MqttPush linger(int batchSize, long lingerMs) {
+        if (batchSize < 1 || lingerMs < 0) {
+            throw new IllegalArgumentException("batchSize must be positive and lingerMs must not be negative");
+        }
+        this.batcher = new MqttPushBatcher(this, batchSize, lingerMs);
+        return this;
+    }
+
+    /**
+     * 断线暂存 Store and forward
+     * <br/>
+     * 连接不可用时推送写入日志而不抛出异常；连接恢复后按写入顺序、以每秒最多 ratePerSecond 条的速率重发。
+     * 日志未清空前的新推送同样先写入日志以保证顺序。写入日志的异步推送以 null 令牌完成
+     * <br/>
+     * While the connection is unavailable pushes are appended to the journal instead of failing. Once connected
+     * the journal is replayed in order at up to ratePerSecond messages per second; new pushes keep going to the
+     * journal until it is empty so they cannot overtake it. Asynchronous pushes that were journaled complete with a null token
+     *
+     * @param journal       出站日志 outbound journal
+     * @param ratePerSecond 重发速率 replay rate
+     * @return this
+     */
+    public MqttPush journal(MQTTJournal journal, int ratePerSecond) {
+        if (ratePerSecond < 1) {
+            throw new IllegalArgumentException("ratePerSecond must be positive");
+        }
+        this.journal = journal;
+        this.journalRate = ratePerSecond;
+        return this;
+    }
+
     /**
      * 将配置初始化并开启连接 Initialize the configuration and open the connection
      */
     public void start() throws MqttException {
-        client = new MqttClient(host, serviceId, new MemoryPersistence());
+        if (maxInflight == null || maxInflight < 1) {
+            maxInflight = DEFAULT_MAX_INFLIGHT;
+        }
+        if (shared) {
+            if (connection == null) {
+                connection = MQTTConnections.acquire(host, username, password, timeout, keepalive);
+            }
+            client = connection.client();
+        } else {
+            client = new MacchiattoClient(host, serviceId, MQTTPersistences.create(persistence, persistenceDir));
+        }
         options = new MqttConnectOptions();
         options.setCleanSession(cleanSession);
         options.setUserName(username);
         options.setPassword(password.toCharArray());
         options.setConnectionTimeout(timeout);
         options.setKeepAliveInterval(keepalive);
-        client.connect(options);
+        options.setMaxInflight(maxInflight);
+        window.resize(maxInflight);
+        // 句柄属于旧连接 Handles belong to the previous connection
+        topicMap.clear();
+        MQTTMetrics.current().gauge("mqtt.publish.inflight", serviceId, this, MqttPush::getInflight);
+        // 经由 this 读取，topicCache(n) 换掉缓存后指标随之变化 Read through this, so the meters follow a cache replaced by topicCache(n)
+        MQTTMetrics.current().gauge("mqtt.topic.cache.size", serviceId, this, push -> push.topicMap.size());
+        MQTTMetrics.current().counter("mqtt.topic.cache.hits", serviceId, this, push -> push.topicMap.getHits());
+        MQTTMetrics.current().counter("mqtt.topic.cache.misses", serviceId, this, push -> push.topicMap.getMisses());
+        MQTTMetrics.current().counter("mqtt.topic.cache.evictions", serviceId, this, push -> push.topicMap.getEvictions());
+        if (limiter != null) {
+            MQTTMetrics.current().gauge("mqtt.publish.rate.limit", serviceId, this, MqttPush::currentRate);
+        }
+        if (journal != null) {
+            options.setAutomaticReconnect(true);
+            startDrain();
+        }
+        lastConnectAttempt = System.currentTimeMillis();
+        connect();
+    }
+
+    private void connect() throws MqttException {
+        if (connection != null) {
+            connection.connect();
+        } else {
+            client.connect(options);
+        }
+    }
+
+    /**
+     * 重发会在限速、在途窗口和等待确认上阻塞，因此在自己的线程上进行，不占用共享调度线程池
+     * Replaying blocks on rate limits, the in-flight window and acknowledgements, so it runs on a thread of its own
+     * rather than on the shared scheduler
+     */
+    private synchronized void startDrain() {
+        if (drainTask == null) {
+            drainExecutor = MQTTExecutors.single("journal-drain-" + serviceId);
+            drainTask = drainExecutor.scheduleWithFixedDelay(
+                    this::drain, DRAIN_INTERVAL_MS, DRAIN_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 连接可用时按速率重发日志中的消息 Replays the journal at the configured rate while connected
+     */
+    private void drain() {
+        MqttClient current = client;
+        if (current == null || journal.isEmpty()) {
+            return;
+        }
+        if (!current.isConnected()) {
+            // 首次连接失败时 Paho 不会自动重连 Paho only reconnects on its own after a first successful connect
+            long now = System.currentTimeMillis();
+            long interval = MQTTBase.RECONNECT_FREQUENCY_MS == null ? 5000 : MQTTBase.RECONNECT_FREQUENCY_MS;
+            if (now - lastConnectAttempt >= interval) {
+                lastConnectAttempt = now;
+                try {
+                    connect();
+                } catch (MqttException ignored) {
+                    // 下次再试 Try again on a later tick
+                }
+            }
+            return;
+        }
+        int budget = (int) Math.max(1, journalRate * DRAIN_INTERVAL_MS / 1000);
+        while (budget > 0) {
+            List<MQTTRecord> records = journal.peek(budget);
+            if (records.isEmpty()) {
+                journal.commit();
+                return;
+            }
+            try {
+                CompletableFuture.allOf(publishBatch(records).toArray(new CompletableFuture<?>[0])).join();
+            } catch (CompletionException e) {
+                // 未确认的消息下次重发 Unacknowledged messages are replayed on a later tick
+                return;
+            }
+            journal.commit();
+            budget -= records.size();
+        }
+    }
+
+    /**
+     * 连接不可用或日志尚未清空时写入日志 Journals the message while disconnected or while the journal still has a backlog
+     */
+    private boolean divert(String topic, byte[] payload, MQTTQos qos) {
+        if (journal == null) {
+            return false;
+        }
+        try {
+            this.ensure();
+        } catch (RuntimeException e) {
+            // broker 不可达，写入日志 Broker unreachable, journal the message
+        }
+        if (client != null && client.isConnected() && journal.isEmpty()) {
+            return false;
+        }
+        journal.append(topic, payload, qos);
+        return true;
     }
 
     /**
@@ -198,14 +642,7 @@ public class MqttPush {
      */
     public MqttPush init(Consumer<Exception> error) {
         try {
-            client = new MqttClient(host, serviceId, new MemoryPersistence());
-            options = new MqttConnectOptions();
-            options.setCleanSession(cleanSession);
-            options.setUserName(username);
-            options.setPassword(password.toCharArray());
-            options.setConnectionTimeout(timeout);
-            options.setKeepAliveInterval(keepalive);
-            client.connect(options);
+            start();
             return this;
         } catch (Exception e) {
             error.accept(e);
@@ -218,14 +655,7 @@ public class MqttPush {
      */
     public MqttPush init() {
         try {
-            client = new MqttClient(host, serviceId, new MemoryPersistence());
-            options = new MqttConnectOptions();
-            options.setCleanSession(cleanSession);
-            options.setUserName(username);
-            options.setPassword(password.toCharArray());
-            options.setConnectionTimeout(timeout);
-            options.setKeepAliveInterval(keepalive);
-            client.connect(options);
+            start();
             return this;
         } catch (Exception e) {
             throw new RuntimeException("MQTT connection exception", e);
@@ -244,23 +674,93 @@ public class MqttPush {
         topicMap.put(topic, client.getTopic(topic));
     }
 
+    private MqttTopic topic(String topic) {
+        return topicMap.computeIfAbsent(topic, client::getTopic);
+    }
+
+    /**
+     * 主题句柄缓存容量 topicCache
+     * <br/>
+     * 每个主题的 MqttTopic 句柄缓存在按段加锁的 LRU 中，默认 10000 个；超出时淘汰最久未用的主题，下次推送时重新创建
+     * <br/>
+     * MqttTopic handles are kept in an LRU with per-segment locks, 10000 by default. Beyond that the least recently used
+     * topics are evicted and created again on their next push
+     *
+     * @param capacity 缓存的主题数上限 maximum cached topics
+     * @return this
+     */
+    public MqttPush topicCache(int capacity) {
+        this.topicMap = new MQTTLruCache<>(capacity);
+        return this;
+    }
+
+    /**
+     * 主题句柄缓存，可读取命中率等统计 The topic handle cache, with hit rate and other statistics
+     *
+     * @return 缓存 cache
+     */
+    public MQTTLruCache<String, MqttTopic> getTopicCache() {
+        return topicMap;
+    }
+
     /**
      * 消息推送 Push message
      *
      * @param topic   主题
-     * @param message 消息
+     * @param message 消息，按 charset 编码 message, encoded with the configured charset
      * @param qos     等级
      * @throws MqttException MqttException
      */
     public void push(String topic, String message, MQTTQos qos) throws MqttException {
+        push(topic, message.getBytes(charset()), qos);
+    }
+
+    /**
+     * 消息推送 Push message
+     * <br/>
+     * 直接使用该数组作为消息体，不做复制；发送完成前请勿修改
+     * <br/>
+     * The array is used as the payload without copying; do not modify it until the push completes
+     *
+     * @param topic   主题
+     * @param payload 消息体 payload
+     * @param qos     等级
+     * @throws MqttException MqttException
+     */
+    public void push(String topic, byte[] payload, MQTTQos qos) throws MqttException {
+        if (divert(topic, payload, qos)) {
+            return;
+        }
         this.ensure();
-        if (!topicMap.containsKey(topic)) {
-            topicMap.put(topic, client.getTopic(topic));
+        MqttMessage mqttMessage = message(payload, qos);
+        throttle(topic);
+        acquireWindow();
+        long start = clock();
+        boolean success = false;
+        try {
+            IMqttDeliveryToken token = topic(topic).publish(mqttMessage);
+            token.waitForCompletion();
+            success = true;
+        } finally {
+            window.release();
+            record(qos, mqttMessage.getPayload().length, start, success);
         }
-        MqttMessage mqttMessage = new MqttMessage(message.getBytes());
-        mqttMessage.setQos(qos.getValue());
-        IMqttDeliveryToken token = topicMap.get(topic).publish(mqttMessage);
-        token.waitForCompletion();
+    }
+
+    /**
+     * 消息推送 Push message
+     * <br/>
+     * 缓冲区恰好覆盖整个底层数组时不做复制，否则复制 position 到 limit 之间的内容
+     * <br/>
+     * When the buffer spans its whole backing array no copy is made; otherwise the bytes between position and limit are copied
+     *
+     * @param topic   主题
+     * @param payload 消息体 payload
+     * @param qos     等级
+     * @throws MqttException MqttException
+     */
+    public void push(String topic, ByteBuffer payload, MQTTQos qos) throws MqttException {
+        push(topic, bytes(payload), qos);
     }
 
     /**
@@ -280,25 +780,391 @@ public class MqttPush {
             Consumer<IMqttToken> success,
             BiConsumer<IMqttToken, Throwable> failure
     ) throws MqttException {
+        push(topic, message.getBytes(charset()), qos, success, failure);
+    }
+
+    /**
+     * 消息推送 Push message
+     *
+     * @param topic   主题
+     * @param payload 消息体 payload
+     * @param qos     等级
+     * @param success success 成功回调
+     * @param failure failure 失败回调
+     * @throws MqttException MqttException
+     */
+    public void push(
+            String topic,
+            byte[] payload,
+            MQTTQos qos,
+            Consumer<IMqttToken> success,
+            BiConsumer<IMqttToken, Throwable> failure
+    ) throws MqttException {
+        if (divert(topic, payload, qos)) {
+            return;
+        }
+        this.ensure();
+        MqttMessage mqttMessage = message(payload, qos);
+        throttle(topic);
+        acquireWindow();
+        long start = clock();
+        boolean completed = false;
+        try {
+            IMqttDeliveryToken token = topic(topic).publish(mqttMessage);
+            token.setActionCallback(new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken iMqttToken) {
+                    success.accept(iMqttToken);
+                }
+
+                @Override
+                public void onFailure(IMqttToken iMqttToken, Throwable throwable) {
+                    failure.accept(iMqttToken, throwable);
+                }
+            });
+            token.waitForCompletion();
+            completed = true;
+        } finally {
+            window.release();
+            record(qos, mqttMessage.getPayload().length, start, completed);
+        }
+    }
+
+    /**
+     * 对象消息推送，使用 codec 编码 Push an object encoded with the configured codec
+     *
+     * @param topic 主题
+     * @param value 对象 value
+     * @param qos   等级
+     * @param <T>   对象类型 value type
+     * @throws MqttException MqttException
+     */
+    public <T> void push(String topic, T value, MQTTQos qos) throws MqttException {
+        push(topic, codec().encode(value), qos);
+    }
+
+    /**
+     * 对象消息推送，使用指定编解码器 Push an object encoded with the given codec
+     *
+     * @param topic 主题
+     * @param value 对象 value
+     * @param codec 编解码器 codec
+     * @param qos   等级
+     * @param <T>   对象类型 value type
+     * @throws MqttException MqttException
+     */
+    public <T> void push(String topic, T value, PayloadCodec<? super T> codec, MQTTQos qos) throws MqttException {
+        push(topic, codec.encode(value), qos);
+    }
+
+    /**
+     * 异步对象消息推送 Push an object asynchronously
+     *
+     * @param topic 主题
+     * @param value 对象 value
+     * @param codec 编解码器 codec
+     * @param qos   等级
+     * @param <T>   对象类型 value type
+     * @return 在服务端确认后完成 completes once the broker has acknowledged the message
+     */
+    public <T> CompletableFuture<IMqttToken> pushAsync(String topic, T value, PayloadCodec<? super T> codec, MQTTQos qos) {
+        return pushAsync(topic, codec.encode(value), qos);
+    }
+
+    /**
+     * 异步消息推送 Push message asynchronously
+     * <br/>
+     * 不等待服务端确认，最多 maxInflight 条消息同时在途；窗口已满时阻塞直至有消息完成
+     * <br/>
+     * Does not wait for the broker acknowledgement. Up to maxInflight messages are on the wire at once;
+     * when the window is full the call blocks until one of them completes
+     *
+     * @param topic   主题
+     * @param message 消息
+     * @param qos     等级
+     * @return 在服务端确认后完成 completes once the broker has acknowledged the message
+     */
+    public CompletableFuture<IMqttToken> pushAsync(String topic, String message, MQTTQos qos) {
+        return pushAsync(topic, message.getBytes(charset()), qos);
+    }
+
+    /**
+     * 异步消息推送 Push message asynchronously
+     *
+     * @param topic   主题
+     * @param payload 消息体，不做复制 payload, used without copying
+     * @param qos     等级
+     * @return 在服务端确认后完成 completes once the broker has acknowledged the message
+     */
+    public CompletableFuture<IMqttToken> pushAsync(String topic, byte[] payload, MQTTQos qos) {
+        if (divert(topic, payload, qos)) {
+            return CompletableFuture.completedFuture(null);
+        }
         this.ensure();
-        if (!topicMap.containsKey(topic)) {
-            topicMap.put(topic, client.getTopic(topic));
+        if (batcher != null) {
+            return batcher.add(new MQTTRecord(topic, payload, qos));
         }
-        MqttMessage mqttMessage = new MqttMessage(message.getBytes());
+        return publishAsync(topic, message(payload, qos));
+    }
+
+    /**
+     * 异步消息推送 Push message asynchronously
+     *
+     * @param topic   主题
+     * @param payload 消息体 payload
+     * @param qos     等级
+     * @return 在服务端确认后完成 completes once the broker has acknowledged the message
+     */
+    public CompletableFuture<IMqttToken> pushAsync(String topic, ByteBuffer payload, MQTTQos qos) {
+        return pushAsync(topic, bytes(payload), qos);
+    }
+
+    private MqttMessage message(byte[] payload, MQTTQos qos) {
+        MqttMessage mqttMessage = new MqttMessage(compressThreshold > 0
+                ? MQTTCompression.compress(payload, compressThreshold, compressLevel) : payload);
         mqttMessage.setQos(qos.getValue());
-        IMqttDeliveryToken token = topicMap.get(topic).publish(mqttMessage);
-        token.setActionCallback(new IMqttActionListener() {
-            @Override
-            public void onSuccess(IMqttToken iMqttToken) {
-                success.accept(iMqttToken);
+        return mqttMessage;
+    }
+
+    private static byte[] bytes(ByteBuffer payload) {
+        if (payload.hasArray() && payload.arrayOffset() == 0 && payload.position() == 0
+                && payload.remaining() == payload.array().length) {
+            return payload.array();
+        }
+        byte[] copy = new byte[payload.remaining()];
+        payload.duplicate().get(copy);
+        return copy;
+    }
+
+    private PayloadCodec<Object> codec() {
+        if (codec == null) {
+            codec = PayloadCodec.json();
+        }
+        return codec;
+    }
+
+    private Charset charset() {
+        if (charset == null) {
+            charset = MQTTBase.CHARSET == null ? StandardCharsets.UTF_8 : MQTTBase.CHARSET;
+        }
+        return charset;
+    }
+
+    /**
+     * 批量消息推送 Push a batch of messages
+     * <br/>
+     * 所有消息依次写出而不逐条等待，全部得到确认后返回
+     * <br/>
+     * Writes every message without waiting in between and returns once all of them are acknowledged
+     *
+     * @param records 消息 messages
+     * @throws MqttException 任意一条失败 if any message fails
+     */
+    public void pushBatch(Collection<MQTTRecord> records) throws MqttException {
+        try {
+            pushBatchAsync(records).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof MqttException) {
+                throw (MqttException) e.getCause();
+            }
+            throw new MqttException(e.getCause());
+        }
+    }
+
+    /**
+     * 异步批量消息推送 Push a batch of messages asynchronously
+     *
+     * @param records 消息 messages
+     * @return 全部确认后完成 completes once every message is acknowledged
+     */
+    public CompletableFuture<Void> pushBatchAsync(Collection<MQTTRecord> records) {
+        if (journal != null) {
+            List<MQTTRecord> direct = new ArrayList<>(records.size());
+            for (MQTTRecord record : records) {
+                if (!divert(record.getTopic(), record.getPayload(charset()), record.getQos())) direct.add(record);
+            }
+            records = direct;
+        }
+        this.ensure();
+        List<CompletableFuture<IMqttToken>> sent = publishBatch(records);
+        return CompletableFuture.allOf(sent.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * 作为 Reactive Streams Subscriber 推送上游的消息 Push upstream records as a Reactive Streams Subscriber
+     * <br/>
+     * 最多 inflight 条在途，每得到一条确认再向上游请求一条；需要 org.reactivestreams:reactive-streams
+     * <br/>
+     * At most inflight records are on the wire; one more is requested from upstream per acknowledgement.
+     * Needs org.reactivestreams:reactive-streams on the classpath
+     * <br/>
+     * 第一条推送失败即取消订阅，getCompletion() 以该异常完成；要逐条处理失败并继续，使用 {@link #subscriber(int, Consumer)}
+     * <br/>
+     * The first failed record cancels the subscription and completes getCompletion() with its exception; to handle
+     * failures one by one and carry on, use {@link #subscriber(int, Consumer)}
+     *
+     * @param inflight 在途上限 in-flight limit
+     * @return MQTTPushSubscriber
+     */
+    public MQTTPushSubscriber subscriber(int inflight) {
+        return new MQTTPushSubscriber(this, inflight, null);
+    }
+
+    /**
+     * 作为 Reactive Streams Subscriber 推送上游的消息 Push upstream records as a Reactive Streams Subscriber
+     *
+     * @param inflight 在途上限 in-flight limit
+     * @param error    单条推送失败时调用，订阅继续 called when a record fails, the subscription continues
+     * @return MQTTPushSubscriber
+     */
+    public MQTTPushSubscriber subscriber(int inflight, Consumer<Throwable> error) {
+        return new MQTTPushSubscriber(this, inflight, Objects.requireNonNull(error, "error"));
+    }
+
+    List<CompletableFuture<IMqttToken>> publishBatch(Collection<MQTTRecord> records) {
+        List<CompletableFuture<IMqttToken>> sent = new ArrayList<>(records.size());
+        for (MQTTRecord record : records) {
+            sent.add(publishAsync(record.getTopic(), message(record.getPayload(charset()), record.getQos())));
+        }
+        return sent;
+    }
+
+    /**
+     * 立即写出攒批中的消息 Write out the messages waiting for their batch now
+     */
+    public void flush() {
+        if (batcher != null) {
+            batcher.flush();
+        }
+    }
+
+    CompletableFuture<IMqttToken> publishAsync(String topic, MqttMessage mqttMessage) {
+        CompletableFuture<IMqttToken> future = new CompletableFuture<>();
+        try {
+            throttle(topic);
+            acquireWindow();
+        } catch (MqttException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        long start = clock();
+        try {
+            MacchiattoClient.asyncOf(client).publish(topic, mqttMessage, null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken iMqttToken) {
+                    window.release();
+                    record(mqttMessage, start, true);
+                    future.complete(iMqttToken);
+                }
+
+                @Override
+                public void onFailure(IMqttToken iMqttToken, Throwable throwable) {
+                    window.release();
+                    record(mqttMessage, start, false);
+                    future.completeExceptionally(throwable);
+                }
+            });
+        } catch (Exception e) {
+            window.release();
+            record(mqttMessage, start, false);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void record(MqttMessage mqttMessage, long start, boolean success) {
+        if (start != 0) {
+            record(MQTTQos.of(mqttMessage.getQos()), mqttMessage.getPayload().length, start, success);
+        }
+    }
+
+    private void record(MQTTQos qos, int bytes, long start, boolean success) {
+        if (start != 0) {
+            long nanos = System.nanoTime() - start;
+            MQTTRateLimiter current = limiter;
+            if (success && current != null) {
+                current.acknowledged(nanos);
+            }
+            MQTTMetrics.current().published(serviceId, qos, bytes, nanos, success);
+        }
+    }
+
+    /**
+     * 自适应限速需要确认延迟，即使未开启指标也计时 Adaptive limiting needs ack latency, so time even without metrics
+     */
+    private long clock() {
+        MQTTRateLimiter current = limiter;
+        return current != null && current.isAdaptive() ? System.nanoTime() : MQTTMetrics.start();
+    }
+
+    private void throttle(String topic) throws MqttException {
+        for (Prefix limit : prefixLimits) {
+            if (topic.startsWith(limit.prefix)) {
+                limit.limiter.acquire();
+                break;
             }
+        }
+        MQTTRateLimiter current = limiter;
+        if (current != null) {
+            current.acquire();
+        }
+    }
 
-            @Override
-            public void onFailure(IMqttToken iMqttToken, Throwable throwable) {
-                failure.accept(iMqttToken, throwable);
+    private static final class Prefix {
+        private final String prefix;
+        private final MQTTRateLimiter limiter;
+
+        private Prefix(String prefix, MQTTRateLimiter limiter) {
+            this.prefix = prefix;
+            this.limiter = limiter;
+        }
+    }
+
+    /**
+     * 可调整大小的在途窗口 In-flight window that can be resized
+     */
+    private static final class Window extends Semaphore {
+        private static final long serialVersionUID = 1L;
+        private int limit;
+
+        private Window() {
+            super(0);
+        }
+
+        /**
+         * 按差值增减许可，在途的消息照常归还 Adds or removes the difference; messages in flight release as usual
+         */
+        synchronized void resize(int limit) {
+            int delta = limit - this.limit;
+            this.limit = limit;
+            if (delta > 0) {
+                release(delta);
+            } else if (delta < 0) {
+                reducePermits(-delta);
             }
-        });
-        token.waitForCompletion();
+        }
+
+        synchronized int getLimit() {
+            return limit;
+        }
+    }
+
+    private void acquireWindow() throws MqttException {
+        try {
+            window.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION, e);
+        }
+    }
+
+    /**
+     * 当前在途消息数 Number of messages currently awaiting acknowledgement
+     *
+     * @return 在途消息数
+     */
+    public int getInflight() {
+        return Math.max(0, window.getLimit() - window.availablePermits());
     }
 
     /**
@@ -307,7 +1173,26 @@ public class MqttPush {
      * @throws MqttException MqttException
      */
     public void stop() throws MqttException {
-        client.disconnect();
+        flush();
+        synchronized (this) {
+            if (drainTask != null) {
+                drainTask.cancel(false);
+                drainTask = null;
+                drainExecutor.shutdown();
+                drainExecutor = null;
+            }
+        }
+        try {
+            if (connection != null) {
+                MQTTConnections.Connection sharedConnection = connection;
+                connection = null;
+                sharedConnection.release(null);
+            } else {
+                client.disconnect();
+            }
+        } finally {
+            MQTTMetrics.current().release(serviceId);
+        }
     }
 
     public void ensure() {
@@ -326,6 +1211,9 @@ public class MqttPush {
         if (this.keepalive == null) {
             this.keepalive = MQTTBase.KEEP_ALIVE;
         }
+        if (this.maxInflight == null) {
+            this.maxInflight = MQTTBase.MAX_INFLIGHT == null ? DEFAULT_MAX_INFLIGHT : MQTTBase.MAX_INFLIGHT;
+        }
         if (this.client == null || this.options == null) {
             try {
                 this.start();
@@ -343,6 +1231,18 @@ public class MqttPush {
         private Integer keepalive = MQTTBase.KEEP_ALIVE;
         private String serviceId = UUID.randomUUID().toString();
         private boolean cleanSession = false;
+        private Integer maxInflight = MQTTBase.MAX_INFLIGHT;
+        private int batchSize;
+        private long lingerMs;
+        private Charset charset = MQTTBase.CHARSET;
+        private MQTTPersistence persistence = MQTTBase.PERSISTENCE;
+        private String persistenceDir = MQTTBase.PERSISTENCE_DIR;
+        private int compressThreshold;
+        private boolean shared = Boolean.TRUE.equals(MQTTBase.SHARED_CONNECTION);
+        private double ratePerSecond;
+        private int rateBurst;
+        private long targetLatencyMs;
+        private double minRatePerSecond;
 
         public builder host(String host) {
             this.host = host;
@@ -379,6 +1279,53 @@ public class MqttPush {
             return this;
         }
 
+        public builder maxInflight(Integer maxInflight) {
+            this.maxInflight = maxInflight;
+            return this;
+        }
+
+        public builder linger(int batchSize, long lingerMs) {
+            this.batchSize = batchSize;
+            this.lingerMs = lingerMs;
+            return this;
+        }
+
+        public builder charset(Charset charset) {
+            this.charset = charset;
+            return this;
+        }
+
+        public builder persistence(MQTTPersistence persistence, String directory) {
+            this.persistence = persistence;
+            this.persistenceDir = directory;
+            return this;
+        }
+
+        public builder compress(int threshold) {
+            if (threshold < 0) {
+                throw new IllegalArgumentException("threshold must not be negative");
+            }
+            this.compressThreshold = threshold;
+            return this;
+        }
+
+        public builder shared(boolean shared) {
+            this.shared = shared;
+            return this;
+        }
+
+        public builder rateLimit(double permitsPerSecond, int burst) {
+            this.ratePerSecond = permitsPerSecond;
+            this.rateBurst = burst;
+            return this;
+        }
+
+        public builder adaptiveRate(long targetLatencyMs, double minPerSecond) {
+            this.targetLatencyMs = targetLatencyMs;
+            this.minRatePerSecond = minPerSecond;
+            return this;
+        }
+
         public MqttPush build() {
             return new MqttPush(this);
         }
@@ -455,4 +1402,20 @@ public class MqttPush {
     public void setCleanSession(boolean cleanSession) {
         this.cleanSession = cleanSession;
     }
+
+    public Charset getCharset() {
+        return charset();
+    }
+
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+    }
+
+    public Integer getMaxInflight() {
+        return maxInflight;
+    }
+
+    public void setMaxInflight(Integer maxInflight) {
+        this.maxInflight = maxInflight;
+    }
 }
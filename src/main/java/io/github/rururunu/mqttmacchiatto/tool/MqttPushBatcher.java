@@ -0,0 +1,91 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import io.github.rururunu.mqttmacchiatto.content.MQTTRecord;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 攒批推送：消息累积到 batchSize 条或等待 lingerMs 后一次性写出
+ * <br/>
+ * Accumulates pushes until batchSize messages are pending or lingerMs has passed, then writes them out together
+ * <p>
+ * 写出会在在途窗口与限速上阻塞，因此等待超时的批次在本批处理器自己的线程上写出，不占用共享调度线程池
+ * <br/>
+ * Writing blocks on the in-flight window and rate limits, so batches whose linger ran out are written on this
+ * batcher's own thread and never on the shared scheduler
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+final class MqttPushBatcher {
+
+    private final MqttPush push;
+    private final int batchSize;
+    private final long lingerMs;
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService timer;
+
+    private List<MQTTRecord> records = new ArrayList<>();
+    private List<CompletableFuture<IMqttToken>> futures = new ArrayList<>();
+    private ScheduledFuture<?> lingerTask;
+
+    MqttPushBatcher(MqttPush push, int batchSize, long lingerMs) {
+        this.push = push;
+        this.batchSize = batchSize;
+        this.lingerMs = lingerMs;
+        // 空闲时线程自行退出，无需关闭 The thread exits by itself when idle, so it needs no shutdown
+        this.timer = MQTTExecutors.single("push-linger-" + push.getServiceId());
+    }
+
+    CompletableFuture<IMqttToken> add(MQTTRecord record) {
+        CompletableFuture<IMqttToken> future = new CompletableFuture<>();
+        boolean full;
+        synchronized (this) {
+            records.add(record);
+            futures.add(future);
+            full = records.size() >= batchSize;
+            if (!full && lingerTask == null) {
+                lingerTask = timer.schedule(this::flush, lingerMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full) {
+            flush();
+        }
+        return future;
+    }
+
+    void flush() {
+        // 串行写出，保证批次之间的顺序 Batches are written one at a time to keep their order
+        synchronized (flushLock) {
+            List<MQTTRecord> batch;
+            List<CompletableFuture<IMqttToken>> pending;
+            synchronized (this) {
+                if (lingerTask != null) {
+                    lingerTask.cancel(false);
+                    lingerTask = null;
+                }
+                if (records.isEmpty()) {
+                    return;
+                }
+                batch = records;
+                pending = futures;
+                records = new ArrayList<>(batchSize);
+                futures = new ArrayList<>(batchSize);
+            }
+            List<CompletableFuture<IMqttToken>> sent = push.publishBatch(batch);
+            for (int i = 0; i < sent.size(); i++) {
+                CompletableFuture<IMqttToken> target = pending.get(i);
+                sent.get(i).whenComplete((token, e) -> {
+                    if (e == null) target.complete(token);
+                    else target.completeExceptionally(e);
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import io.github.rururunu.mqttmacchiatto.content.MQTTRecord;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * <h3>多连接推送池</h3>
+ * <h3>Multi-connection push pool</h3>
+ * <p>
+ * 开启 N 个 MqttPush 连接，按主题一致性哈希选择连接：同一主题始终走同一连接，保证其消息顺序
+ * <p>
+ * Opens N MqttPush connections and picks one per topic by consistent hashing:
+ * a topic always uses the same connection, so its messages stay in order
+ * <pre>{@code
+ *   MqttPushPool pool = MqttPushPool.of(4).init();
+ *   pool.push("test/", "test", MQTTQos.AT_LEAST_ONCE);
+ * }</pre>
+ * <pre>{@code
+ *   MqttPushPool pool = MqttPushPool.of(new MqttPush.builder()
+ *                 .host("tcp://127.0.0.1:1883")
+ *                 .serviceId("publisher")
+ *                 .maxInflight(256), 4)
+ *         .init();
+ *   pool.pushAsync("test/", "test", MQTTQos.AT_LEAST_ONCE);
+ *   pool.stop();
+ * }</pre>
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+public class MqttPushPool {
+
+    private static final int VIRTUAL_NODES = 160;
+
+    private final List<MqttPush> pushes;
+    private final TreeMap<Integer, MqttPush> ring = new TreeMap<>();
+
+    /**
+     * 使用 MQTTBase 默认配置创建 Create with the MQTTBase defaults
+     *
+     * @param size 连接数 number of connections
+     * @return MqttPushPool
+     */
+    public static MqttPushPool of(int size) {
+        return of(new MqttPush.builder(), size);
+    }
+
+    /**
+     * 使用构建器的配置创建，各连接的 serviceId 为 serviceId-序号，且不使用共享连接
+     * <br/>
+     * Create from the builder's settings; each connection uses serviceId-index as its client id and never a shared connection
+     *
+     * @param builder MqttPush 构建器 MqttPush builder
+     * @param size    连接数 number of connections
+     * @return MqttPushPool
+     */
+    public static MqttPushPool of(MqttPush.builder builder, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("MqttPushPool size must be positive");
+        }
+        List<MqttPush> pushes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            MqttPush push = builder.build();
+            push.serviceId(push.getServiceId() + "-" + i);
+            // 连接池的意义在于多个连接 A pool is only useful with connections of its own
+            push.shared(false);
+            pushes.add(push);
+        }
+        return new MqttPushPool(pushes);
+    }
+
+    public MqttPushPool(List<MqttPush> pushes) {
+        this.pushes = Collections.unmodifiableList(new ArrayList<>(pushes));
+        for (MqttPush push : this.pushes) {
+            for (int v = 0; v < VIRTUAL_NODES; v++) {
+                ring.put(hash(push.getServiceId() + "#" + v), push);
+            }
+        }
+    }
+
+    /**
+     * 开启所有连接 Open every connection
+     */
+    public void start() throws MqttException {
+        for (MqttPush push : pushes) {
+            push.start();
+        }
+    }
+
+    /**
+     * 开启所有连接 Open every connection
+     *
+     * @param error 错误回调
+     */
+    public MqttPushPool init(Consumer<Exception> error) {
+        try {
+            start();
+        } catch (Exception e) {
+            error.accept(e);
+        }
+        return this;
+    }
+
+    /**
+     * 开启所有连接 Open every connection
+     */
+    public MqttPushPool init() {
+        try {
+            start();
+            return this;
+        } catch (Exception e) {
+            throw new RuntimeException("MQTT connection exception", e);
+        }
+    }
+
+    /**
+     * 主题对应的连接 The connection a topic is routed to
+     *
+     * @param topic 主题
+     * @return MqttPush
+     */
+    public MqttPush route(String topic) {
+        SortedMap<Integer, MqttPush> tail = ring.tailMap(hash(topic));
+        return tail.isEmpty() ? ring.firstEntry().getValue() : tail.get(tail.firstKey());
+    }
+
+    /**
+     * 消息推送 Push message
+     *
+     * @param topic   主题
+     * @param message 消息
+     * @param qos     等级
+     * @throws MqttException MqttException
+     */
+    public void push(String topic, String message, MQTTQos qos) throws MqttException {
+        route(topic).push(topic, message, qos);
+    }
+
+    /**
+     * 消息推送 Push message
+     *
+     * @param topic   主题
+     * @param payload 消息体 payload
+     * @param qos     等级
+     * @throws MqttException MqttException
+     */
+    public void push(String topic, byte[] payload, MQTTQos qos) throws MqttException {
+        route(topic).push(topic, payload, qos);
+    }
+
+    /**
+     * 异步消息推送 Push message asynchronously
+     *
+     * @param topic   主题
+     * @param message 消息
+     * @param qos     等级
+     * @return 在服务端确认后完成 completes once the broker has acknowledged the message
+     */
+    public CompletableFuture<IMqttToken> pushAsync(String topic, String message, MQTTQos qos) {
+        return route(topic).pushAsync(topic, message, qos);
+    }
+
+    /**
+     * 异步消息推送 Push message asynchronously
+     *
+     * @param topic   主题
+     * @param payload 消息体 payload
+     * @param qos     等级
+     * @return 在服务端确认后完成 completes once the broker has acknowledged the message
+     */
+    public CompletableFuture<IMqttToken> pushAsync(String topic, byte[] payload, MQTTQos qos) {
+        return route(topic).pushAsync(topic, payload, qos);
+    }
+
+    /**
+     * 批量消息推送，按连接分组后并行写出
+     * <br/>
+     * Push a batch of messages; they are grouped by connection and written out in parallel
+     *
+     * @param records 消息 messages
+     * @throws MqttException 任意一条失败 if any message fails
+     */
+    public void pushBatch(Collection<MQTTRecord> records) throws MqttException {
+        try {
+            pushBatchAsync(records).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof MqttException) {
+                throw (MqttException) e.getCause();
+            }
+            throw new MqttException(e.getCause());
+        }
+    }
+
+    /**
+     * 异步批量消息推送 Push a batch of messages asynchronously
+     *
+     * @param records 消息 messages
+     * @return 全部确认后完成 completes once every message is acknowledged
+     */
+    public CompletableFuture<Void> pushBatchAsync(Collection<MQTTRecord> records) {
+        Map<MqttPush, List<MQTTRecord>> groups = new IdentityHashMap<>();
+        for (MQTTRecord record : records) {
+            groups.computeIfAbsent(route(record.getTopic()), k -> new ArrayList<>()).add(record);
+        }
+        List<CompletableFuture<Void>> sent = new ArrayList<>(groups.size());
+        for (Map.Entry<MqttPush, List<MQTTRecord>> group : groups.entrySet()) {
+            sent.add(group.getKey().pushBatchAsync(group.getValue()));
+        }
+        return CompletableFuture.allOf(sent.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * 关闭所有连接 Close every connection
+     *
+     * @throws MqttException 第一个关闭失败的异常 the first failure while closing
+     */
+    public void stop() throws MqttException {
+        MqttException failure = null;
+        for (MqttPush push : pushes) {
+            try {
+                push.stop();
+            } catch (MqttException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public List<MqttPush> getPushes() {
+        return pushes;
+    }
+
+    public int size() {
+        return pushes.size();
+    }
+
+    /**
+     * FNV-1a 加末尾扰动，使相近主题均匀落在环上
+     * FNV-1a with a final avalanche so similar topics spread evenly over the ring
+     */
+    private static int hash(String key) {
+        int h = 0x811c9dc5;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
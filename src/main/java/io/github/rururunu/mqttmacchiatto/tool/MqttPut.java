@@ -1,14 +1,33 @@
 package io.github.rururunu.mqttmacchiatto.tool;
 
+import io.github.rururunu.mqttmacchiatto.codec.MQTTCompression;
+import io.github.rururunu.mqttmacchiatto.codec.PayloadCodec;
+import io.github.rururunu.mqttmacchiatto.config.MQTTBase;
+import io.github.rururunu.mqttmacchiatto.content.MQTTOverflow;
+import io.github.rururunu.mqttmacchiatto.content.MQTTPersistence;
 import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import io.github.rururunu.mqttmacchiatto.metrics.MQTTMetrics;
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * <h3>接收来自MQTT的消息</h3>
@@ -39,6 +58,81 @@ import java.util.function.Consumer;
  *                 .response((topic, msg) -> System.out.println(topic + ":" + msg))
  *                 .start();
  * }</pre>
+ * <pre>{@code
+ *         // 在 8 个工作线程上处理，队列最多 10000 条，满时丢弃最旧的消息
+ *         // Handle on 8 worker threads with up to 10000 queued messages, dropping the oldest when full
+ *         MqttPut.of("test/")
+ *                 .dispatch(8, 10000, MQTTOverflow.DROP_OLDEST)
+ *                 .response(System.out::println)
+ *                 .start();
+ * }</pre>
+ * <pre>{@code
+ *         // 同一主题的消息在同一通道上按顺序处理 Messages of one topic are handled in order on one lane
+ *         MqttPut.of("device/+/status")
+ *                 .dispatchOrdered(8, 10000, MQTTOverflow.BLOCK)
+ *                 .response((topic, msg) -> System.out.println(topic + ":" + msg))
+ *                 .start();
+ * }</pre>
+ * <pre>{@code
+ *         // 直接从消息体解码为对象 Decode objects straight from the payload
+ *         MqttPut.of("device/+/state")
+ *                 .response(DeviceState.class, (topic, state) -> System.out.println(topic + ":" + state))
+ *                 .start();
+ * }</pre>
+ * <pre>{@code
+ *         // 一个连接，多个主题过滤器 One connection, many topic filters
+ *         MqttPut.of()
+ *                 .route("device/+/status", (topic, msg) -> System.out.println(topic + ":" + msg))
+ *                 .route("alerts/#", (topic, msg) -> System.err.println(topic + ":" + msg))
+ *                 .start();
+ * }</pre>
+ * <pre>{@code
+ *         // 共享订阅：本进程 4 个连接加入 workers 组，其他节点使用同一组名即可一起分摊
+ *         // Shared subscription: 4 connections of this process join the workers group, other nodes join with the same name
+ *         MqttPut orders = MqttPut.of("orders/#")
+ *                 .share("workers", 4)
+ *                 .response((topic, msg) -> System.out.println(topic + ":" + msg));
+ *         orders.start();
+ *         orders.getMemberReceived(); // {clientId=count, clientId-1=count, ...}
+ * }</pre>
+ * <pre>{@code
+ *         // broker 不支持共享订阅时，各节点只订阅按 rendezvous 哈希分到自己的过滤器
+ *         // Without broker support for shared subscriptions, each node subscribes only the filters rendezvous hashing gives it
+ *         MqttPut devices = MqttPut.of()
+ *                 .partition("node-a", Arrays.asList("node-a", "node-b", "node-c"), filters)
+ *                 .response((topic, msg) -> System.out.println(topic + ":" + msg));
+ *         devices.start();
+ *         devices.rebalance(Arrays.asList("node-a", "node-c")); // node-b 离开 node-b left
+ * }</pre>
+ * <pre>{@code
+ *         // 重连后 QoS 1 重发的消息在 60 秒内只处理一次 QoS 1 redeliveries after a reconnect are handled once within 60 seconds
+ *         MqttPut.of("orders/#")
+ *                 .qos(MQTTQos.AT_LEAST_ONCE)
+ *                 .dedup(1_000_000, 60_000, (topic, msg) -> orderId(msg))
+ *                 .response((topic, msg) -> System.out.println(topic + ":" + msg))
+ *                 .start();
+ * }</pre>
+ * <pre>{@code
+ *         // 与同一 broker 的 MqttPush 等共用一个连接 Share one connection with MqttPush and others on the same broker
+ *         MqttPut.of("alerts/#")
+ *                 .shared(true)
+ *                 .response((topic, msg) -> System.out.println(topic + ":" + msg))
+ *                 .start();
+ * }</pre>
+ * <pre>{@code
+ *         // 每 500 条或 200 毫秒一批写入数据库，写入成功后才确认 Bulk insert every 500 messages or 200 ms, acking once the insert succeeds
+ *         MqttPut.of("telemetry/#")
+ *                 .qos(MQTTQos.AT_LEAST_ONCE)
+ *                 .responseBatch(batch -> repository.insertAll(batch), 500, Duration.ofMillis(200))
+ *                 .start();
+ * }</pre>
+ * <pre>{@code
+ *         // 按下游需求拉取，处理完才确认 Pull as fast as downstream asks, acking once each message is handled
+ *         Publisher<MqttMessage> orders = MqttPut.of("orders/#")
+ *                 .qos(MQTTQos.AT_LEAST_ONCE)
+ *                 .publisher(256);
+ *         Flux.from(orders).limitRate(64).subscribe(msg -> save(msg.getPayload()));
+ * }</pre>
  *
  * @author rururunu
  * @version 1.5
@@ -48,6 +142,21 @@ public final class MqttPut {
 
     private final MQTTMonitor monitor = new MQTTMonitor();
     private String topic;
+    private MqttDispatcher dispatcher;
+    private BiFunction<String, MqttMessage, ?> dispatchKey;
+    private Charset charset = MQTTBase.CHARSET;
+    private PayloadCodec<Object> codec;
+    private Function<MQTTMonitor, MqttCallback> callback;
+    private int members = 1;
+    private final List<MQTTMonitor> shared = new ArrayList<>();
+    private String partitionNode;
+    private List<String> partitionFilters;
+    private final Set<String> partitions = new LinkedHashSet<>();
+    private int decompressLimit;
+    private MQTTDeduplicator deduplicator;
+    private BiFunction<String, MqttMessage, ?> dedupKey;
+    private boolean holdAcks;
+    private MqttPutBatcher batcher;
 
     public MqttPut() {
     }
@@ -99,6 +208,31 @@ public final class MqttPut {
         return this;
     }
 
+    public MqttPut reconnectMaxMs(int ms) {
+        monitor.reconnectMaxMs(ms);
+        return this;
+    }
+
+    public MqttPut persistence(MQTTPersistence persistence, String directory) {
+        monitor.persistence(persistence, directory);
+        return this;
+    }
+
+    /**
+     * Share one connection with other instances on the same broker and credentials, defaults to mto-mqtt.shared-connection
+     * <br/>
+     * 与同一 broker、账号的其他实例共用连接，默认取 mto-mqtt.shared-connection；需要持久会话或独立连接时传 false
+     * <br/>
+     * Shared connections use a clean session; pass false when a persistent session or a connection of its own is needed
+     *
+     * @param shared Whether to share 是否共用
+     * @return MqttPut
+     */
+    public MqttPut shared(boolean shared) {
+        monitor.shared(shared);
+        return this;
+    }
+
     public MqttPut qos(MQTTQos qos) {
         monitor.setQos(qos);
         return this;
@@ -119,6 +253,253 @@ public final class MqttPut {
         return this;
     }
 
+    /**
+     * Charset used to decode String payloads, defaults to mto-mqtt.charset or UTF-8
+     * <br/>
+     * String 消息的解码字符集，默认取 mto-mqtt.charset，未配置时为 UTF-8
+     *
+     * @param charset charset 字符集
+     * @return MqttPut
+     */
+    public MqttPut charset(Charset charset) {
+        this.charset = charset;
+        return this;
+    }
+
+    /**
+     * Join a shared subscription group with one connection, see {@link #share(String, int)}
+     * <br/>
+     * 以一个连接加入共享订阅组，见 {@link #share(String, int)}
+     *
+     * @param group Share group name 共享组名
+     * @return MqttPut
+     */
+    public MqttPut share(String group) {
+        return share(group, 1);
+    }
+
+    /**
+     * Subscribe as $share/{group}/{filter} from several connections; the broker hands each message to one member
+     * <br/>
+     * 以多个连接按 $share/{group}/{filter} 订阅，broker 将每条消息只交给一个成员
+     * <br/>
+     * 其他节点使用同一组名即加入同一组；成员的 clientId 为 clientId、clientId-1、clientId-2 ……，过滤器应在 start 前添加
+     * <br/>
+     * Other nodes join the same group by using the same name. Members are named clientId, clientId-1, clientId-2 ...;
+     * add filters before start
+     *
+     * @param group   Share group name 共享组名
+     * @param members Connections opened by this process 本进程打开的连接数
+     * @return MqttPut
+     */
+    public MqttPut share(String group, int members) {
+        if (members < 1) {
+            throw new IllegalArgumentException("MQTT share group needs at least one member");
+        }
+        monitor.share(group);
+        this.members = members;
+        return this;
+    }
+
+    /**
+     * Subscribe only this node's share of a topic space, chosen by rendezvous hashing over the member list
+     * <br/>
+     * 只订阅按 rendezvous 哈希分给本节点的那部分主题空间
+     * <br/>
+     * 所有节点使用相同的 members 与 filters 即可无重复地分摊，消息交给 response 设定的响应
+     * <br/>
+     * Nodes given the same members and filters split the space without duplicates; messages go to the response
+     *
+     * @param node    This node, one of members 本节点，属于 members
+     * @param members Every consumer node 全部消费节点
+     * @param filters Topic space as filters, e.g. device/0/# ... device/63/# 以过滤器表示的主题空间
+     * @return MqttPut
+     */
+    public synchronized MqttPut partition(String node, Collection<String> members, Collection<String> filters) {
+        for (String filter : partitions) {
+            monitor.unsubscribe(filter);
+        }
+        partitions.clear();
+        this.partitionNode = node;
+        this.partitionFilters = new ArrayList<>(filters);
+        return rebalance(members);
+    }
+
+    /**
+     * Recompute the assignment after membership changed; only filters that moved are unsubscribed or subscribed
+     * <br/>
+     * 成员变化后重新分配，只对移动的过滤器取消或增加订阅
+     *
+     * @param members Every consumer node now 当前全部消费节点
+     * @return MqttPut
+     */
+    public synchronized MqttPut rebalance(Collection<String> members) {
+        if (partitionNode == null) {
+            throw new IllegalStateException("MQTT partition is not configured");
+        }
+        Set<String> owned = MQTTPartitioner.assign(partitionNode, members, partitionFilters);
+        for (String filter : new ArrayList<>(partitions)) {
+            if (!owned.contains(filter)) {
+                monitor.unsubscribe(filter);
+                partitions.remove(filter);
+            }
+        }
+        for (String filter : owned) {
+            if (partitions.add(filter)) {
+                monitor.subscribe(filter, monitor.getQos(), this::partitionArrived);
+            }
+        }
+        return this;
+    }
+
+    private void partitionArrived(String topic, MqttMessage message) {
+        MqttCallback current = monitor.getMqttCallback();
+        if (current == null) {
+            return;
+        }
+        try {
+            current.messageArrived(topic, message);
+        } catch (Exception e) {
+            throw new RuntimeException("MQTT partition " + topic + " handler exception", e);
+        }
+    }
+
+    /**
+     * 当前分给本节点的过滤器 Filters currently assigned to this node
+     *
+     * @return 过滤器 filters
+     */
+    public synchronized Set<String> getPartitions() {
+        return new LinkedHashSet<>(partitions);
+    }
+
+    /**
+     * Drop messages whose topic and payload were already seen within the window
+     * <br/>
+     * 丢弃时间窗口内已出现过的相同主题与消息体
+     *
+     * @param capacity Maximum messages remembered, memory is bounded by it 记住的消息数上限，决定内存上限
+     * @param windowMs Window in milliseconds 时间窗口，毫秒
+     * @return MqttPut
+     */
+    public MqttPut dedup(int capacity, long windowMs) {
+        return dedup(capacity, windowMs, null);
+    }
+
+    /**
+     * Drop messages whose key was already seen within the window
+     * <br/>
+     * 丢弃时间窗口内键已出现过的消息
+     * <br/>
+     * MQTT 报文 id 会被复用，不适合作为键；请使用消息中的业务 id 或默认的主题加消息体
+     * <br/>
+     * MQTT packet ids are reused and make poor keys; use a business id from the message, or the default topic and payload
+     *
+     * @param capacity Maximum messages remembered, memory is bounded by it 记住的消息数上限，决定内存上限
+     * @param windowMs Window in milliseconds 时间窗口，毫秒
+     * @param key      Key of a message, null for topic and payload 消息的键，null 表示主题加消息体
+     *                 <br/>
+     *                 key param1 topic:string, param2 msg:MqttMessage
+     * @return MqttPut
+     */
+    public MqttPut dedup(int capacity, long windowMs, BiFunction<String, MqttMessage, ?> key) {
+        this.deduplicator = new MQTTDeduplicator(capacity, windowMs);
+        this.dedupKey = key;
+        return this;
+    }
+
+    /**
+     * Inflate payloads compressed by MqttPush.compress before the handler sees them, off by default
+     * <br/>
+     * 在交给响应前解压由 MqttPush.compress 压缩的消息体，默认关闭；解压后最长 MQTTCompression.DEFAULT_MAX_LENGTH
+     * <br/>
+     * Inflated payloads are limited to MQTTCompression.DEFAULT_MAX_LENGTH; longer ones reach the handler still compressed
+     *
+     * @param decompress Whether to detect and inflate compressed payloads 是否识别并解压
+     * @return MqttPut
+     */
+    public MqttPut decompress(boolean decompress) {
+        return decompress(decompress ? MQTTCompression.DEFAULT_MAX_LENGTH : 0);
+    }
+
+    /**
+     * Inflate payloads compressed by MqttPush.compress up to maxLength bytes
+     * <br/>
+     * 解压由 MqttPush.compress 压缩的消息体，解压后超过 maxLength 的原样交给响应；压缩的消息体来自发布方，不可信，上限应按业务设定
+     * <br/>
+     * Payloads that would inflate beyond maxLength reach the handler as they are. Compressed payloads come from
+     * publishers and are not trusted, so set the limit from what the application expects
+     *
+     * @param maxLength Largest inflated payload, 0 turns decompression off 解压后的最大长度，0 表示关闭
+     * @return MqttPut
+     */
+    public MqttPut decompress(int maxLength) {
+        this.decompressLimit = maxLength;
+        return this;
+    }
+
+    /**
+     * Handle messages on a worker pool instead of the MQTT callback thread
+     * <br/>
+     * 在工作线程池而非 MQTT 回调线程上处理消息
+     *
+     * @param workers  Number of worker threads 工作线程数
+     * @param capacity Maximum queued messages 最大排队消息数
+     * @param overflow What to do when the queue is full 队列已满时的处理策略
+     * @return MqttPut
+     */
+    public MqttPut dispatch(int workers, int capacity, MQTTOverflow overflow) {
+        this.dispatcher = new MqttDispatcher(monitor.getClientId(), workers, capacity, overflow);
+        this.dispatchKey = null;
+        return this;
+    }
+
+    /**
+     * Handle messages on a worker pool, blocking the callback thread when the queue is full
+     * <br/>
+     * 在工作线程池上处理消息，队列已满时阻塞回调线程
+     *
+     * @param workers  Number of worker threads 工作线程数
+     * @param capacity Maximum queued messages 最大排队消息数
+     * @return MqttPut
+     */
+    public MqttPut dispatch(int workers, int capacity) {
+        return dispatch(workers, capacity, MQTTOverflow.BLOCK);
+    }
+
+    /**
+     * Handle messages on single-threaded lanes chosen by topic, keeping per-topic order
+     * <br/>
+     * 按主题选择单线程通道处理消息，保证同一主题内的顺序
+     *
+     * @param lanes    Number of lanes 通道数
+     * @param capacity Maximum queued messages over all lanes 所有通道合计的最大排队消息数
+     * @param overflow What to do when a lane is full 通道已满时的处理策略
+     * @return MqttPut
+     */
+    public MqttPut dispatchOrdered(int lanes, int capacity, MQTTOverflow overflow) {
+        return dispatchOrdered(lanes, capacity, overflow, (topic, message) -> topic);
+    }
+
+    /**
+     * Handle messages on single-threaded lanes chosen by a key, keeping per-key order
+     * <br/>
+     * 按自定义键选择单线程通道处理消息，保证同一键内的顺序
+     *
+     * @param lanes    Number of lanes 通道数
+     * @param capacity Maximum queued messages over all lanes 所有通道合计的最大排队消息数
+     * @param overflow What to do when a lane is full 通道已满时的处理策略
+     * @param key      Key of a message, e.g. the device id 消息的键，例如设备 id
+     *                 <br/>
+     *                 key param1 topic:string, param2 msg:MqttMessage
+     * @return MqttPut
+     */
+    public MqttPut dispatchOrdered(int lanes, int capacity, MQTTOverflow overflow, BiFunction<String, MqttMessage, ?> key) {
+        this.dispatcher = new MqttDispatcher(monitor.getClientId(), lanes, capacity, overflow, true);
+        this.dispatchKey = key;
+        return this;
+    }
+
 
     /**
      * 只返回 String payload
@@ -128,28 +509,7 @@ public final class MqttPut {
                                            BiConsumer<String, String> handler,
                                            Consumer<Throwable> lost,
                                            Consumer<IMqttDeliveryToken> complete) {
-        monitor.setClientId(clientId);
-        monitor.setMqttCallback(new MqttCallback() {
-            @Override
-            public void connectionLost(Throwable cause) {
-                System.err.println(clientId + " MQTT Connection disconnected " + cause);
-                monitor.reconnect();
-                if (lost != null) lost.accept(cause);
-            }
-
-            @Override
-            public void messageArrived(String topic, MqttMessage message) {
-                String payload = new String(message.getPayload());
-                if (withTopic) handler.accept(topic, payload);
-                else handler.accept(null, payload);
-            }
-
-            @Override
-            public void deliveryComplete(IMqttDeliveryToken token) {
-                if (complete != null) complete.accept(token);
-            }
-        });
-        return this;
+        return doResponse(clientId, withTopic, (t, m) -> handler.accept(t, decode(m)), lost, complete);
     }
 
     /**
@@ -161,28 +521,203 @@ public final class MqttPut {
                                Consumer<Throwable> lost,
                                Consumer<IMqttDeliveryToken> complete) {
         monitor.setClientId(clientId);
-        monitor.setMqttCallback(new MqttCallback() {
+        callback = owner -> new MqttCallback() {
             @Override
             public void connectionLost(Throwable cause) {
-                System.err.println(clientId + " MQTT Connection disconnected " + cause);
-                monitor.reconnect();
+                System.err.println(owner.getClientId() + " MQTT Connection disconnected " + cause);
+                owner.reconnect();
                 if (lost != null) lost.accept(cause);
             }
 
             @Override
             public void messageArrived(String topic, MqttMessage message) {
-                if (withTopic) handler.accept(topic, message);
-                else handler.accept(null, message);
+                deliver(topic, message, withTopic ? handler : (t, m) -> handler.accept(null, m));
             }
 
             @Override
             public void deliveryComplete(IMqttDeliveryToken token) {
                 if (complete != null) complete.accept(token);
             }
-        });
+        };
+        monitor.setMqttCallback(callback.apply(monitor));
+        return this;
+    }
+
+
+    /**
+     * Codec used by response(Class, ...), defaults to JSON
+     * <br/>
+     * response(Class, ...) 使用的编解码器，默认为 JSON
+     *
+     * @param codec codec 编解码器
+     * @return MqttPut
+     */
+    public MqttPut codec(PayloadCodec<Object> codec) {
+        this.codec = codec;
         return this;
     }
 
+    /**
+     * Set the response after listening to messages
+     * <br/>
+     * 设定监听到消息后的响应
+     *
+     * @param type     Type the payload is decoded into 消息体解码的目标类型
+     * @param consumer Response after listening to the message 监听到消息后的响应
+     *                 <br/>
+     *                 consumer 的参数值是由 codec 直接从消息体字节解码的对象
+     *                 <br/>
+     *                 The parameter value of the consumer is decoded by the codec straight from the payload bytes
+     * @param <T>      Decoded type 解码类型
+     * @return MqttPut
+     */
+    public <T> MqttPut response(Class<T> type, Consumer<T> consumer) {
+        return doResponse(UUID.randomUUID().toString(), false, (t, m) -> consumer.accept(codec().decode(m.getPayload(), type)), null, null);
+    }
+
+    /**
+     * Set the response after listening to messages
+     * <br/>
+     * 设定监听到消息后的响应
+     *
+     * @param type       Type the payload is decoded into 消息体解码的目标类型
+     * @param biConsumer Response after listening to the message 监听到消息后的响应
+     *                   <br/>
+     *                   biConsumer param1 topic:string, param2 msg:T
+     * @param <T>        Decoded type 解码类型
+     * @return MqttPut
+     */
+    public <T> MqttPut response(Class<T> type, BiConsumer<String, T> biConsumer) {
+        return doResponse(UUID.randomUUID().toString(), true, (t, m) -> biConsumer.accept(t, codec().decode(m.getPayload(), type)), null, null);
+    }
+
+    /**
+     * Set the response after listening to messages
+     * <br/>
+     * 设定监听到消息后的响应
+     *
+     * @param type       Type the payload is decoded into 消息体解码的目标类型
+     * @param codec      Codec for this response 此响应使用的编解码器
+     * @param biConsumer Response after listening to the message 监听到消息后的响应
+     *                   <br/>
+     *                   biConsumer param1 topic:string, param2 msg:T
+     * @param <T>        Decoded type 解码类型
+     * @return MqttPut
+     */
+    public <T> MqttPut response(Class<T> type, PayloadCodec<? super T> codec, BiConsumer<String, T> biConsumer) {
+        return doResponse(UUID.randomUUID().toString(), true, (t, m) -> biConsumer.accept(t, codec.decode(m.getPayload(), type)), null, null);
+    }
+
+    private PayloadCodec<Object> codec() {
+        if (codec == null) {
+            codec = PayloadCodec.json();
+        }
+        return codec;
+    }
+
+    private String decode(MqttMessage message) {
+        Charset current = charset;
+        if (current == null) {
+            current = charset = MQTTBase.CHARSET == null ? StandardCharsets.UTF_8 : MQTTBase.CHARSET;
+        }
+        return new String(message.getPayload(), current);
+    }
+
+    private static ByteBuffer view(MqttMessage message) {
+        return ByteBuffer.wrap(message.getPayload()).asReadOnlyBuffer();
+    }
+
+    private void deliver(String topic, MqttMessage received, BiConsumer<String, MqttMessage> handler) {
+        MqttMessage message = decompressLimit > 0 ? inflate(received, decompressLimit) : received;
+        MQTTDeduplicator dedup = deduplicator;
+        if (dedup != null) {
+            long hash = dedupKey == null ? MQTTDeduplicator.hash(topic, message) : MQTTDeduplicator.hash(dedupKey.apply(topic, message));
+            if (!dedup.firstSeenHash(hash)) {
+                return;
+            }
+            BiConsumer<String, MqttMessage> checked = handler;
+            // 处理失败的消息会被重发，重发的那条不能算重复 A failed message gets redelivered, and the redelivery is no duplicate
+            handler = (t, m) -> {
+                try {
+                    checked.accept(t, m);
+                } catch (RuntimeException | Error e) {
+                    dedup.forgetHash(hash);
+                    throw e;
+                }
+            };
+            MQTTHeldMessage.onFailure(message, () -> dedup.forgetHash(hash));
+        }
+        BiConsumer<String, MqttMessage> target = handler;
+        MqttDispatcher current = dispatcher;
+        // 扣下确认的消费方自带缓冲，不经分发线程 Consumers holding acks buffer by themselves, bypassing the dispatcher
+        if (current == null || holdAcks) handle(topic, message, target);
+        else if (dispatchKey == null) current.dispatch(() -> handle(topic, message, target));
+        else current.dispatch(dispatchKey.apply(topic, message), () -> handle(topic, message, target));
+    }
+
+    /**
+     * 解压后换成新消息，保留等级、保留标志与 id；手动确认的消息原地替换，以免丢失其确认
+     * Swaps in a new message with the inflated payload, keeping QoS, retained flag and id; a manual-ack message is
+     * updated in place so its ack is not lost
+     */
+    private static MqttMessage inflate(MqttMessage message, int maxLength) {
+        byte[] payload = message.getPayload();
+        byte[] plain = MQTTCompression.decompress(payload, maxLength);
+        if (plain == payload) {
+            return message;
+        }
+        if (message instanceof MQTTHeldMessage) {
+            message.setPayload(plain);
+            return message;
+        }
+        MqttMessage inflated = new MqttMessage(plain);
+        inflated.setQos(message.getQos());
+        inflated.setRetained(message.isRetained());
+        inflated.setId(message.getId());
+        return inflated;
+    }
+
+    private void handle(String topic, MqttMessage message, BiConsumer<String, MqttMessage> handler) {
+        long start = MQTTMetrics.start();
+        try {
+            handler.accept(topic, message);
+        } finally {
+            if (start != 0) {
+                MQTTMetrics.current().handled(monitor.getClientId(), System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Add a topic filter with its own response on the same connection
+     * <br/>
+     * 在同一连接上添加主题过滤器及其响应
+     *
+     * @param filter     Topic filter, + and # allowed 主题过滤器，支持 + 和 #
+     * @param biConsumer Response for messages matching the filter 匹配该过滤器的消息的响应
+     *                   <br/>
+     *                   biConsumer param1 topic:string, param2 msg:string
+     * @return MqttPut
+     */
+    public MqttPut route(String filter, BiConsumer<String, String> biConsumer) {
+        return routeRow(filter, (t, m) -> biConsumer.accept(t, decode(m)));
+    }
+
+    /**
+     * Add a topic filter with its own response on the same connection
+     * <br/>
+     * 在同一连接上添加主题过滤器及其响应
+     *
+     * @param filter     Topic filter, + and # allowed 主题过滤器，支持 + 和 #
+     * @param biConsumer Response for messages matching the filter 匹配该过滤器的消息的响应
+     *                   <br/>
+     *                   biConsumer param1 topic:string, param2 msg:MqttMessage
+     * @return MqttPut
+     */
+    public MqttPut routeRow(String filter, BiConsumer<String, MqttMessage> biConsumer) {
+        monitor.subscribe(filter, monitor.getQos(), (t, m) -> deliver(t, m, biConsumer));
+        return this;
+    }
 
     /**
      * Set the response after listening to messages
@@ -318,6 +853,42 @@ public final class MqttPut {
         return doResponse(String.valueOf(UUID.randomUUID()), false, (t, m) -> consumer.accept(m), connectionLost, deliveryComplete);
     }
 
+    /**
+     * Set the response after listening to messages
+     * <br/>
+     * 设定监听到消息后的响应
+     *
+     * @param consumer Response after listening to the message 监听到消息后的响应
+     *                 <br/>
+     *                 consumer 的参数值是消息内容的只读 ByteBuffer 视图，不做复制
+     *                 <br/>
+     *                 The parameter value of the consumer is a read-only ByteBuffer view of the payload, no copy is made
+     * @return MqttPut
+     */
+    public MqttPut responseBuffer(Consumer<ByteBuffer> consumer) {
+        return doResponse(UUID.randomUUID().toString(), false, (t, m) -> consumer.accept(view(m)), null, null);
+    }
+
+    /**
+     * Set the response after listening to messages
+     * <br/>
+     * 设定监听到消息后的响应
+     *
+     * @param biConsumer Response after listening to the message 监听到消息后的响应
+     *                   <br/>
+     *                   biConsumer param1 topic:string
+     *                   <br/>
+     *                   biConsumer param2 msg:read-only ByteBuffer view, no copy is made
+     *                   <br/>
+     *                   biConsumer 参数1 主题:string
+     *                   <br/>
+     *                   biConsumer 参数2 消息:只读 ByteBuffer 视图，不做复制
+     * @return MqttPut
+     */
+    public MqttPut responseBuffer(BiConsumer<String, ByteBuffer> biConsumer) {
+        return doResponse(UUID.randomUUID().toString(), true, (t, m) -> biConsumer.accept(t, view(m)), null, null);
+    }
+
     /**
      * Set the response after listening to messages
      * <br/>
@@ -442,11 +1013,81 @@ public final class MqttPut {
         return doResponseToMessString(UUID.randomUUID().toString(), true, biConsumer, connectionLost, deliveryComplete);
     }
 
+    /**
+     * Set a response that receives messages in batches
+     * <br/>
+     * 设定按批接收消息的响应
+     * <br/>
+     * 消息累积到 maxSize 条或第一条等待了 maxWait 后，在独立线程上整批交给 consumer；consumer 返回后才向 broker 确认这一批，
+     * 抛出异常时不确认并断开重连，由 broker 重发这一批，需要 cleanSession(false)
+     * <br/>
+     * Messages accumulate until maxSize are pending or the first has waited maxWait, then the batch goes to the consumer
+     * on a thread of its own. The batch is acknowledged to the broker once the consumer returns. When it throws, the
+     * connection is dropped and reopened so the broker redelivers the batch; that needs cleanSession(false)
+     *
+     * @param consumer Response for each batch, in arrival order 每批消息的响应，按到达顺序
+     * @param maxSize  Largest batch 每批最多条数
+     * @param maxWait  Longest a message waits for its batch 消息等待成批的最长时间
+     * @return MqttPut
+     */
+    public MqttPut responseBatch(Consumer<List<MqttMessage>> consumer, int maxSize, Duration maxWait) {
+        MqttPutBatcher created = new MqttPutBatcher(monitor.getClientId(), consumer, monitor::redeliver, maxSize, maxWait.toMillis());
+        batcher = created;
+        holdAcks = true;
+        monitor.manualAcks(true);
+        return doResponse(monitor.getClientId(), false, (t, m) -> created.add(m), null, null);
+    }
+
+    /**
+     * Expose the messages as a Reactive Streams Publisher; subscribing starts the connection
+     * <br/>
+     * 以 Reactive Streams Publisher 的形式交付消息，订阅时开启连接
+     * <br/>
+     * 消息只按订阅者的需求交付，onNext 返回后才向 broker 确认；需要 org.reactivestreams:reactive-streams
+     * <br/>
+     * Messages are delivered only as the subscriber requests them and acked to the broker after onNext returns.
+     * Needs org.reactivestreams:reactive-streams on the classpath
+     *
+     * @param bufferSize Messages buffered ahead of demand 需求之外预先缓冲的消息数
+     * @return MQTTMessagePublisher
+     */
+    public MQTTMessagePublisher publisher(int bufferSize) {
+        MQTTMessagePublisher publisher = new MQTTMessagePublisher(this, bufferSize);
+        holdAcks = true;
+        monitor.manualAcks(true);
+        doResponse(monitor.getClientId(), false, (t, m) -> publisher.offer(m), null, null);
+        return publisher;
+    }
+
     /**
      * 开启MQTT连接
      */
     public void start() {
+        if (batcher != null) {
+            batcher.start();
+        }
+        if (dispatcher != null) {
+            dispatcher.start();
+            MQTTMetrics.current().gauge("mqtt.dispatch.queue.depth", monitor.getClientId(), dispatcher, MqttDispatcher::getQueueDepth);
+            MQTTMetrics.current().counter("mqtt.dispatch.dropped", monitor.getClientId(), dispatcher, MqttDispatcher::getDropped);
+        }
+        if (deduplicator != null) {
+            MQTTMetrics.current().counter("mqtt.dedup.checked", monitor.getClientId(), deduplicator, MQTTDeduplicator::getChecked);
+            MQTTMetrics.current().counter("mqtt.dedup.duplicates", monitor.getClientId(), deduplicator, MQTTDeduplicator::getDuplicates);
+            MQTTMetrics.current().gauge("mqtt.dedup.size", monitor.getClientId(), deduplicator, MQTTDeduplicator::size);
+        }
+        monitor.handlerTiming(false);
         monitor.start(topic);
+        if (shared.isEmpty()) {
+            for (int i = 1; i < members; i++) {
+                MQTTMonitor member = monitor.member(monitor.getClientId() + "-" + i);
+                if (callback != null) member.setMqttCallback(callback.apply(member));
+                shared.add(member);
+            }
+        }
+        for (MQTTMonitor member : shared) {
+            member.start(topic);
+        }
     }
 
     /**
@@ -454,13 +1095,72 @@ public final class MqttPut {
      */
     public void stop() {
         try {
-            monitor.getClient().disconnect();
+            // 断开后才处理完的批次不再确认，由 broker 重发 Batches finishing after the disconnect stay unacked and are redelivered
+            if (batcher != null) batcher.stop();
+            monitor.stop();
+            for (MQTTMonitor member : shared) {
+                member.stop();
+            }
         } catch (MqttException e) {
             throw new RuntimeException("MQTT" + topic + "Termination of connection exception", e);
+        } finally {
+            if (dispatcher != null) dispatcher.stop();
         }
     }
 
+    /**
+     * 分发队列中等待处理的消息数 Messages waiting in the dispatch queue
+     *
+     * @return 队列深度 queue depth, 0 when dispatch is off
+     */
+    public int getDispatchQueueDepth() {
+        return dispatcher == null ? 0 : dispatcher.getQueueDepth();
+    }
+
+    /**
+     * 因队列已满被丢弃的消息数 Messages dropped because the dispatch queue was full
+     *
+     * @return 丢弃数 dropped count
+     */
+    public long getDispatchDropped() {
+        return dispatcher == null ? 0 : dispatcher.getDropped();
+    }
+
+    /**
+     * 去重统计，未开启时为 null Dedup statistics, null when dedup is off
+     *
+     * @return MQTTDeduplicator
+     */
+    public MQTTDeduplicator getDeduplicator() {
+        return deduplicator;
+    }
+
     public MQTTMonitor getMonitor() {
         return monitor;
     }
+
+    /**
+     * 共享订阅组在本进程的全部成员，第一个即 getMonitor() All members of the share group in this process, the first is getMonitor()
+     *
+     * @return 成员 members
+     */
+    public List<MQTTMonitor> getMembers() {
+        List<MQTTMonitor> all = new ArrayList<>(shared.size() + 1);
+        all.add(monitor);
+        all.addAll(shared);
+        return all;
+    }
+
+    /**
+     * 每个成员收到的消息数，用于观察负载是否均衡 Messages received by each member, to see whether the load is balanced
+     *
+     * @return clientId -> 消息数 message count
+     */
+    public Map<String, Long> getMemberReceived() {
+        Map<String, Long> received = new LinkedHashMap<>();
+        for (MQTTMonitor member : getMembers()) {
+            received.put(member.getClientId(), member.getReceived());
+        }
+        return received;
+    }
 }
\ No newline at end of file
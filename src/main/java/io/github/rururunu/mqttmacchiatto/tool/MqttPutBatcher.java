@@ -0,0 +1,133 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import io.github.rururunu.mqttmacchiatto.content.MQTTOverflow;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 攒批接收：到达的消息累积到 maxSize 条或等待 maxWaitMs 后，在独立线程上整批交给处理器，处理器返回后才确认
+ * <br/>
+ * Accumulates arrived messages until maxSize are pending or maxWaitMs has passed, then hands the batch to the handler
+ * on a thread of its own; the messages are acknowledged once the handler returns
+ * <p>
+ * 等待超时的批次由本批处理器自己的线程交出，队列已满时只阻塞该线程，不占用共享调度线程池
+ * <br/>
+ * Batches whose wait ran out are handed over on this batcher's own thread, so a full queue only blocks that thread and
+ * never the shared scheduler
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+final class MqttPutBatcher {
+
+    /**
+     * 等待处理的批次上限，超出时回调线程阻塞 Batches waiting for the handler before the callback thread blocks
+     */
+    private static final int QUEUED_BATCHES = 4;
+
+    private final Consumer<List<MqttMessage>> handler;
+    private final Runnable redeliver;
+    private final int maxSize;
+    private final long maxWaitMs;
+    private final MqttDispatcher worker;
+    private final ScheduledExecutorService timer;
+    private final Object flushLock = new Object();
+
+    private List<MqttMessage> messages;
+    private ScheduledFuture<?> waitTask;
+
+    /**
+     * @param redeliver 处理器失败后调用，使未确认的消息得到重发 called after the handler fails so the unacked messages are redelivered
+     */
+    MqttPutBatcher(String name, Consumer<List<MqttMessage>> handler, Runnable redeliver, int maxSize, long maxWaitMs) {
+        if (maxSize < 1 || maxWaitMs < 1) {
+            throw new IllegalArgumentException("maxSize and maxWait must be positive");
+        }
+        this.handler = handler;
+        this.redeliver = redeliver;
+        this.maxSize = maxSize;
+        this.maxWaitMs = maxWaitMs;
+        this.messages = new ArrayList<>(maxSize);
+        // 单个工作线程，批次按到达顺序处理 One worker, so batches are handled in arrival order
+        this.worker = new MqttDispatcher(name + "-batch", 1, QUEUED_BATCHES, MQTTOverflow.BLOCK);
+        this.timer = MQTTExecutors.single("batch-wait-" + name);
+    }
+
+    void start() {
+        worker.start();
+    }
+
+    void add(MqttMessage message) {
+        MQTTHeldMessage.hold(message);
+        boolean full;
+        synchronized (this) {
+            messages.add(message);
+            full = messages.size() >= maxSize;
+            if (!full && waitTask == null) {
+                waitTask = timer.schedule(this::flush, maxWaitMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    void flush() {
+        // 取批与入队一起加锁，保证批次之间的顺序 Taking and queueing a batch happen under one lock to keep batches in order
+        synchronized (flushLock) {
+            List<MqttMessage> batch;
+            synchronized (this) {
+                if (waitTask != null) {
+                    waitTask.cancel(false);
+                    waitTask = null;
+                }
+                if (messages.isEmpty()) {
+                    return;
+                }
+                batch = messages;
+                messages = new ArrayList<>(maxSize);
+            }
+            worker.dispatch(() -> handle(batch));
+        }
+    }
+
+    /**
+     * 处理器抛出异常时不确认，并断开重连，使 broker 重发这些消息；否则它们会一直占用 broker 的在途窗口
+     * Not acked when the handler throws. The connection is dropped and reopened so the broker redelivers them;
+     * otherwise they would hold the broker's in-flight window for good
+     */
+    private void handle(List<MqttMessage> batch) {
+        try {
+            handler.accept(Collections.unmodifiableList(batch));
+        } catch (RuntimeException e) {
+            boolean held = false;
+            for (MqttMessage message : batch) {
+                MQTTHeldMessage.fail(message);
+                held |= message.getQos() > 0;
+            }
+            if (held) {
+                redeliver.run();
+            }
+            throw e;
+        }
+        for (MqttMessage message : batch) {
+            MQTTHeldMessage.ack(message);
+        }
+    }
+
+    /**
+     * 交出剩余的消息并停止，已入队的批次继续处理完 Hand over what is left and stop; queued batches still run
+     */
+    void stop() {
+        flush();
+        timer.shutdown();
+        worker.stop();
+    }
+}
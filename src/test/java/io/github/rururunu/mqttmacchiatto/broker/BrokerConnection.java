@@ -0,0 +1,327 @@
+package io.github.rururunu.mqttmacchiatto.broker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 一条客户端连接上的 MQTT 3.1.1 协议处理 MQTT 3.1.1 protocol handling for one client connection
+ */
+final class BrokerConnection implements Runnable {
+
+    /**
+     * 字节流传输：TCP 套接字或进程内管道 Byte stream transport: a TCP socket or an in-process pipe
+     */
+    interface Transport {
+        InputStream input() throws IOException;
+
+        OutputStream output() throws IOException;
+
+        void readTimeout(int ms) throws IOException;
+
+        void close();
+    }
+
+    private final MQTTEmbeddedBroker broker;
+    private final Transport transport;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private BrokerSession session;
+    private BrokerMessage will;
+    private boolean willRetain;
+    private volatile boolean closed;
+
+    BrokerConnection(MQTTEmbeddedBroker broker, Transport transport) throws IOException {
+        this.broker = broker;
+        this.transport = transport;
+        this.in = new DataInputStream(new BufferedInputStream(transport.input()));
+        this.out = new BufferedOutputStream(transport.output());
+    }
+
+    @Override
+    public void run() {
+        boolean graceful = false;
+        try {
+            while (!closed) {
+                int header = in.read();
+                if (header < 0) {
+                    break;
+                }
+                byte[] body = new byte[remainingLength()];
+                in.readFully(body);
+                if (session == null && header >> 4 != 1) {
+                    // 首个报文必须是 CONNECT The first packet must be CONNECT
+                    break;
+                }
+                if (header >> 4 == 14) {
+                    graceful = true;
+                    break;
+                }
+                handle(header, body);
+            }
+        } catch (IOException | RuntimeException e) {
+            // 连接断开、超时或报文格式错误 Connection dropped, timed out or sent a malformed packet
+        } finally {
+            close();
+            if (!graceful && will != null) {
+                broker.publish(will, willRetain);
+            }
+            if (session != null) {
+                broker.detach(session, this);
+            }
+        }
+    }
+
+    void close() {
+        closed = true;
+        transport.close();
+    }
+
+    private void handle(int header, byte[] body) throws IOException {
+        switch (header >> 4) {
+            case 1:
+                connect(body);
+                break;
+            case 3:
+                publish(header, body);
+                break;
+            case 4:
+                // PUBACK
+                send(session.acknowledged(id(body, 0)));
+                break;
+            case 5:
+                // PUBREC -> PUBREL
+                session.received(id(body, 0));
+                write(0x62, body[0], body[1]);
+                break;
+            case 6:
+                // PUBREL -> PUBCOMP
+                session.releaseQos2(id(body, 0));
+                write(0x70, body[0], body[1]);
+                break;
+            case 7:
+                // PUBCOMP
+                send(session.acknowledged(id(body, 0)));
+                break;
+            case 8:
+                subscribe(body);
+                break;
+            case 10:
+                unsubscribe(body);
+                break;
+            case 12:
+                // PINGREQ -> PINGRESP
+                write(0xD0);
+                break;
+            default:
+                throw new IOException("Unexpected MQTT packet type " + (header >> 4));
+        }
+    }
+
+    private void connect(byte[] body) throws IOException {
+        if (session != null) {
+            throw new IOException("Second CONNECT");
+        }
+        int[] position = {0};
+        String protocol = string(body, position);
+        int level = body[position[0]++] & 0xff;
+        int flags = body[position[0]++] & 0xff;
+        int keepalive = id(body, position[0]);
+        position[0] += 2;
+        if (!("MQTT".equals(protocol) && level == 4) && !("MQIsdp".equals(protocol) && level == 3)) {
+            // 不支持的协议版本 Unacceptable protocol version
+            write(0x20, 0, 1);
+            throw new IOException("Unsupported protocol " + protocol + " " + level);
+        }
+        boolean clean = (flags & 0x02) != 0;
+        String clientId = string(body, position);
+        if ((flags & 0x04) != 0) {
+            String topic = string(body, position);
+            byte[] payload = bytes(body, position);
+            will = new BrokerMessage(topic, payload, (flags >> 3) & 3);
+            willRetain = (flags & 0x20) != 0;
+        }
+        String username = (flags & 0x80) != 0 ? string(body, position) : null;
+        byte[] password = (flags & 0x40) != 0 ? bytes(body, position) : null;
+        if (clientId.isEmpty()) {
+            if (!clean) {
+                // 持久会话必须有客户端 id A persistent session needs a client id
+                write(0x20, 0, 2);
+                throw new IOException("Empty client id with a persistent session");
+            }
+            clientId = "embedded-" + UUID.randomUUID();
+        }
+        if (!broker.authenticate(username, password == null ? null : new String(password, StandardCharsets.UTF_8).toCharArray())) {
+            write(0x20, 0, 4);
+            throw new IOException("Bad user name or password");
+        }
+        if (keepalive > 0) {
+            transport.readTimeout(keepalive * 1500);
+        }
+        boolean[] present = new boolean[1];
+        session = broker.attach(clientId, clean, this, present);
+        write(0x20, present[0] ? 1 : 0, 0);
+        send(session.attach(this));
+    }
+
+    private void publish(int header, byte[] body) throws IOException {
+        int qos = (header >> 1) & 3;
+        if (qos == 3) {
+            throw new IOException("Invalid QoS 3");
+        }
+        int[] position = {0};
+        String topic = string(body, position);
+        int id = 0;
+        if (qos > 0) {
+            id = id(body, position[0]);
+            position[0] += 2;
+        }
+        byte[] payload = new byte[body.length - position[0]];
+        System.arraycopy(body, position[0], payload, 0, payload.length);
+        boolean retain = (header & 1) != 0;
+        if (qos < 2 || session.firstQos2(id)) {
+            broker.publish(new BrokerMessage(topic, payload, qos), retain);
+        }
+        if (qos == 1) {
+            write(0x40, id >> 8, id);
+        } else if (qos == 2) {
+            write(0x50, id >> 8, id);
+        }
+    }
+
+    private void subscribe(byte[] body) throws IOException {
+        int[] position = {2};
+        byte[] ack = new byte[body.length];
+        ack[0] = body[0];
+        ack[1] = body[1];
+        int count = 2;
+        List<String> filters = new ArrayList<>();
+        List<Integer> granted = new ArrayList<>();
+        while (position[0] < body.length) {
+            String filter = string(body, position);
+            int qos = body[position[0]++] & 3;
+            if (broker.subscribe(session, filter, qos)) {
+                ack[count++] = (byte) qos;
+                filters.add(filter);
+                granted.add(qos);
+            } else {
+                ack[count++] = (byte) 0x80;
+            }
+        }
+        write(0x90, ack, count);
+        for (int i = 0; i < filters.size(); i++) {
+            broker.sendRetained(session, filters.get(i), granted.get(i));
+        }
+    }
+
+    private void unsubscribe(byte[] body) throws IOException {
+        int[] position = {2};
+        while (position[0] < body.length) {
+            broker.unsubscribe(session, string(body, position));
+        }
+        write(0xB0, body[0], body[1]);
+    }
+
+    /**
+     * 发出会话交出的消息 Sends what the session handed back
+     */
+    void send(List<BrokerSession.Outbound> outbound) throws IOException {
+        if (outbound == null) {
+            return;
+        }
+        for (BrokerSession.Outbound message : outbound) {
+            if (message.released) {
+                write(0x62, message.id >> 8, message.id);
+            } else {
+                send(message);
+            }
+        }
+    }
+
+    private void send(BrokerSession.Outbound outbound) throws IOException {
+        byte[] topic = outbound.message.topic.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = outbound.message.payload;
+        int length = 2 + topic.length + (outbound.qos > 0 ? 2 : 0) + payload.length;
+        int header = 0x30 | (outbound.dup ? 0x08 : 0) | outbound.qos << 1 | (outbound.retain ? 1 : 0);
+        synchronized (out) {
+            out.write(header);
+            writeLength(length);
+            out.write(topic.length >> 8);
+            out.write(topic.length);
+            out.write(topic);
+            if (outbound.qos > 0) {
+                out.write(outbound.id >> 8);
+                out.write(outbound.id);
+            }
+            out.write(payload);
+            out.flush();
+        }
+    }
+
+    private void write(int header, int... body) throws IOException {
+        byte[] bytes = new byte[body.length];
+        for (int i = 0; i < body.length; i++) {
+            bytes[i] = (byte) body[i];
+        }
+        write(header, bytes, bytes.length);
+    }
+
+    private void write(int header, byte[] body, int length) throws IOException {
+        synchronized (out) {
+            out.write(header);
+            writeLength(length);
+            out.write(body, 0, length);
+            out.flush();
+        }
+    }
+
+    private void writeLength(int length) throws IOException {
+        do {
+            int digit = length % 128;
+            length /= 128;
+            out.write(length > 0 ? digit | 0x80 : digit);
+        } while (length > 0);
+    }
+
+    private int remainingLength() throws IOException {
+        int value = 0;
+        int multiplier = 1;
+        int digit;
+        do {
+            digit = in.read();
+            if (digit < 0) {
+                throw new EOFException();
+            }
+            value += (digit & 0x7f) * multiplier;
+            multiplier *= 128;
+        } while ((digit & 0x80) != 0);
+        return value;
+    }
+
+    private static int id(byte[] body, int position) {
+        return ((body[position] & 0xff) << 8) | (body[position + 1] & 0xff);
+    }
+
+    private static String string(byte[] body, int[] position) {
+        int length = id(body, position[0]);
+        String value = new String(body, position[0] + 2, length, StandardCharsets.UTF_8);
+        position[0] += 2 + length;
+        return value;
+    }
+
+    private static byte[] bytes(byte[] body, int[] position) {
+        int length = id(body, position[0]);
+        byte[] value = new byte[length];
+        System.arraycopy(body, position[0] + 2, value, 0, length);
+        position[0] += 2 + length;
+        return value;
+    }
+}
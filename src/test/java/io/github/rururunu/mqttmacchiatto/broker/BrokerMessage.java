@@ -0,0 +1,17 @@
+package io.github.rururunu.mqttmacchiatto.broker;
+
+/**
+ * 路由中的消息 A message being routed
+ */
+final class BrokerMessage {
+
+    final String topic;
+    final byte[] payload;
+    final int qos;
+
+    BrokerMessage(String topic, byte[] payload, int qos) {
+        this.topic = topic;
+        this.payload = payload;
+        this.qos = qos;
+    }
+}
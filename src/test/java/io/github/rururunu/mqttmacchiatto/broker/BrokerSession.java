@@ -0,0 +1,158 @@
+package io.github.rururunu.mqttmacchiatto.broker;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 客户端会话：订阅、未确认的出站消息、离线期间的待发消息与入站 QoS 2 去重
+ * <br/>
+ * Client session: subscriptions, unacknowledged outbound messages, messages queued while offline and inbound QoS 2 dedup
+ */
+final class BrokerSession {
+
+    private static final int MAX_INFLIGHT = 1024;
+
+    final String clientId;
+    final boolean clean;
+    final Map<String, Integer> subscriptions = new ConcurrentHashMap<>();
+
+    private final Map<Integer, Outbound> inflight = new LinkedHashMap<>();
+    private final ArrayDeque<Outbound> pending = new ArrayDeque<>();
+    private final Set<Integer> inboundQos2 = new HashSet<>();
+    private BrokerConnection connection;
+    private int lastId;
+
+    BrokerSession(String clientId, boolean clean) {
+        this.clientId = clientId;
+        this.clean = clean;
+    }
+
+    /**
+     * 入队一条消息，返回需要立即发出的部分 Queue a message and return what has to be sent right away
+     */
+    synchronized List<Outbound> deliver(BrokerMessage message, int qos, boolean retain) {
+        Outbound outbound = new Outbound(message, qos, retain);
+        if (qos == 0) {
+            return connection == null ? null : single(outbound);
+        }
+        if (connection == null || inflight.size() >= MAX_INFLIGHT) {
+            pending.addLast(outbound);
+            return null;
+        }
+        outbound.id = nextId();
+        inflight.put(outbound.id, outbound);
+        return single(outbound);
+    }
+
+    synchronized BrokerConnection connection() {
+        return connection;
+    }
+
+    /**
+     * 绑定新连接，返回需要重发的在途消息与待发消息 Attach a connection and return the in-flight and queued messages to resend
+     */
+    synchronized List<Outbound> attach(BrokerConnection connection) {
+        this.connection = connection;
+        List<Outbound> resend = new ArrayList<>(inflight.values());
+        for (Outbound outbound : resend) {
+            outbound.dup = true;
+        }
+        List<Outbound> queued = drain();
+        if (queued != null) {
+            resend.addAll(queued);
+        }
+        return resend;
+    }
+
+    /**
+     * 仅当仍是当前连接时解绑 Detach only if this is still the current connection
+     */
+    synchronized boolean detach(BrokerConnection connection) {
+        if (this.connection != connection) {
+            return false;
+        }
+        this.connection = null;
+        return true;
+    }
+
+    /**
+     * PUBACK 或 PUBCOMP：释放在途位置并返回可补发的待发消息
+     * PUBACK or PUBCOMP: frees the in-flight slot and returns queued messages that can now go out
+     */
+    synchronized List<Outbound> acknowledged(int id) {
+        inflight.remove(id);
+        return drain();
+    }
+
+    /**
+     * PUBREC：标记为已收到，之后只重发 PUBREL PUBREC: marks the message received, only PUBREL is resent from now on
+     */
+    synchronized void received(int id) {
+        Outbound outbound = inflight.get(id);
+        if (outbound != null) {
+            outbound.released = true;
+        }
+    }
+
+    /**
+     * 入站 QoS 2 首次到达时返回 true Returns true the first time an inbound QoS 2 packet id is seen
+     */
+    synchronized boolean firstQos2(int id) {
+        return inboundQos2.add(id);
+    }
+
+    synchronized void releaseQos2(int id) {
+        inboundQos2.remove(id);
+    }
+
+    private List<Outbound> drain() {
+        if (connection == null || pending.isEmpty()) {
+            return null;
+        }
+        List<Outbound> sent = new ArrayList<>();
+        while (!pending.isEmpty() && inflight.size() < MAX_INFLIGHT) {
+            Outbound outbound = pending.pollFirst();
+            outbound.id = nextId();
+            inflight.put(outbound.id, outbound);
+            sent.add(outbound);
+        }
+        return sent;
+    }
+
+    private int nextId() {
+        do {
+            lastId = lastId == 65535 ? 1 : lastId + 1;
+        } while (inflight.containsKey(lastId));
+        return lastId;
+    }
+
+    private static List<Outbound> single(Outbound outbound) {
+        List<Outbound> list = new ArrayList<>(1);
+        list.add(outbound);
+        return list;
+    }
+
+    /**
+     * 发往客户端的一条消息 A message on its way to the client
+     */
+    static final class Outbound {
+        final BrokerMessage message;
+        final int qos;
+        final boolean retain;
+        int id;
+        boolean dup;
+        boolean released;
+
+        private Outbound(BrokerMessage message, int qos, boolean retain) {
+            this.message = message;
+            this.qos = qos;
+            this.retain = retain;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package io.github.rururunu.mqttmacchiatto.broker;
+
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.internal.NetworkModule;
+import org.eclipse.paho.client.mqttv3.spi.NetworkModuleFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <h3>local:// 传输</h3>
+ * <h3>local:// transport</h3>
+ * <p>
+ * 通过 Paho 的 NetworkModuleFactory SPI 注册 local 协议，客户端与同一 JVM 内的 {@link MQTTEmbeddedBroker} 以内存管道直连，
+ * 不占用端口也不经过网络协议栈
+ * <p>
+ * Registers the local scheme through Paho's NetworkModuleFactory SPI. Clients talk to a {@link MQTTEmbeddedBroker}
+ * in the same JVM over in-memory pipes, with no port and no network stack involved
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+public class LocalNetworkModuleFactory implements NetworkModuleFactory {
+
+    private static final Map<String, MQTTEmbeddedBroker> BROKERS = new ConcurrentHashMap<>();
+
+    static boolean register(String name, MQTTEmbeddedBroker broker) {
+        return BROKERS.putIfAbsent(name, broker) == null;
+    }
+
+    static void unregister(String name, MQTTEmbeddedBroker broker) {
+        BROKERS.remove(name, broker);
+    }
+
+    @Override
+    public Set<String> getSupportedUriSchemes() {
+        return Collections.singleton("local");
+    }
+
+    @Override
+    public void validateURI(URI brokerUri) throws IllegalArgumentException {
+        String name = brokerUri.getAuthority();
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Missing broker name in " + brokerUri);
+        }
+    }
+
+    @Override
+    public NetworkModule createNetworkModule(URI brokerUri, MqttConnectOptions options, String clientId) {
+        return new LocalNetworkModule(brokerUri);
+    }
+
+    private static final class LocalNetworkModule implements NetworkModule {
+        private final URI uri;
+        private Pipe up;
+        private Pipe down;
+
+        private LocalNetworkModule(URI uri) {
+            this.uri = uri;
+        }
+
+        @Override
+        public void start() throws IOException, MqttException {
+            MQTTEmbeddedBroker broker = BROKERS.get(uri.getAuthority());
+            if (broker == null) {
+                throw new MqttException(MqttException.REASON_CODE_SERVER_CONNECT_ERROR,
+                        new IOException("No embedded broker at " + uri));
+            }
+            Pipe up = new Pipe();
+            Pipe down = new Pipe();
+            broker.accept(new BrokerConnection.Transport() {
+                @Override
+                public InputStream input() {
+                    return up.input;
+                }
+
+                @Override
+                public OutputStream output() {
+                    return down.output;
+                }
+
+                @Override
+                public void readTimeout(int ms) {
+                    up.timeout = ms;
+                }
+
+                @Override
+                public void close() {
+                    up.close();
+                    down.close();
+                }
+            });
+            this.up = up;
+            this.down = down;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return down.input;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return up.output;
+        }
+
+        @Override
+        public void stop() {
+            if (up != null) {
+                up.close();
+                down.close();
+            }
+        }
+
+        @Override
+        public String getServerURI() {
+            return uri.toString();
+        }
+    }
+
+    /**
+     * 单向有界字节管道，读端支持超时 One-way bounded byte pipe whose read side supports a timeout
+     */
+    private static final class Pipe {
+        private final byte[] buffer = new byte[64 * 1024];
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition readable = lock.newCondition();
+        private final Condition writable = lock.newCondition();
+        private int head;
+        private int count;
+        private boolean closed;
+        private volatile int timeout;
+
+        final InputStream input = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return Pipe.this.read(b, off, len);
+            }
+
+            @Override
+            public int available() {
+                lock.lock();
+                try {
+                    return count;
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        final OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                Pipe.this.write(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        private int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            lock.lock();
+            try {
+                long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+                while (count == 0 && !closed) {
+                    if (timeout <= 0) {
+                        readable.await();
+                    } else if (remaining <= 0) {
+                        throw new SocketTimeoutException("Read timed out");
+                    } else {
+                        remaining = readable.awaitNanos(remaining);
+                    }
+                }
+                if (count == 0) {
+                    return -1;
+                }
+                int n = Math.min(len, Math.min(count, buffer.length - head));
+                System.arraycopy(buffer, head, b, off, n);
+                head = (head + n) % buffer.length;
+                count -= n;
+                writable.signalAll();
+                return n;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void write(byte[] b, int off, int len) throws IOException {
+            lock.lock();
+            try {
+                while (len > 0) {
+                    while (count == buffer.length && !closed) {
+                        writable.await();
+                    }
+                    if (closed) {
+                        throw new IOException("Pipe closed");
+                    }
+                    int tail = (head + count) % buffer.length;
+                    int n = Math.min(len, Math.min(buffer.length - count, buffer.length - tail));
+                    System.arraycopy(b, off, buffer, tail, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                    readable.signalAll();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void close() {
+            lock.lock();
+            try {
+                closed = true;
+                readable.signalAll();
+                writable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
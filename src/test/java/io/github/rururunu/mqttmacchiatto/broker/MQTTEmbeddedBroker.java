@@ -0,0 +1,398 @@
+package io.github.rururunu.mqttmacchiatto.broker;
+
+import io.github.rururunu.mqttmacchiatto.tool.MQTTTopicTrie;
+import org.eclipse.paho.client.mqttv3.MqttTopic;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+
+/**
+ * <h3>内嵌 MQTT broker</h3>
+ * <h3>Embedded MQTT broker</h3>
+ * <p>
+ * 供测试、压测与基准测试使用的进程内 MQTT 3.1.1 broker：支持 QoS 0/1/2、保留消息、+ 和 # 通配符、持久会话、遗嘱消息，
+ * 以及按轮询分摊的 $share/{group}/{filter} 共享订阅。
+ * 同时监听 127.0.0.1 的端口和进程内的 local:// 地址，后者不经过网络协议栈
+ * <p>
+ * An in-process MQTT 3.1.1 broker for tests, load tests and benchmarks: QoS 0/1/2, retained messages, + and #
+ * wildcards, persistent sessions, wills, and $share/{group}/{filter} shared subscriptions balanced round-robin. It listens on a 127.0.0.1 port and on an in-process local:// address;
+ * the latter never touches the network stack
+ * <pre>{@code
+ *   try (MQTTEmbeddedBroker broker = MQTTEmbeddedBroker.start()) {
+ *       MqttPush push = new MqttPush.builder().host(broker.getLocalUri())
+ *               .username("test").password("test").timeout(10).keepalive(60).build().init();
+ *       MqttPut.of("test/#").host(broker.getUri())
+ *               .username("test").password("test").timeout(10).keepalive(60)
+ *               .response((topic, message) -> System.out.println(message))
+ *               .start();
+ *       push.push("test/1", "hello", MQTTQos.EXACTLY_ONCE);
+ *   }
+ * }</pre>
+ * 以 test-jar 形式发布 Published as a test-jar:
+ * <pre>{@code
+ *   <dependency>
+ *       <groupId>io.github.rururunu</groupId>
+ *       <artifactId>MQTT-Macchiatto</artifactId>
+ *       <version>${version}</version>
+ *       <type>test-jar</type>
+ *       <scope>test</scope>
+ *   </dependency>
+ * }</pre>
+ *
+ * @author rururunu
+ * @since 0.1.6
+ */
+public class MQTTEmbeddedBroker implements Closeable {
+
+    private final ServerSocket server;
+    private final String name;
+    private final MQTTTopicTrie<String> filters = new MQTTTopicTrie<>();
+    private final Map<String, Map<BrokerSession, Integer>> subscribers = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> cursors = new ConcurrentHashMap<>();
+    private final Map<String, BrokerSession> sessions = new ConcurrentHashMap<>();
+    private final Map<String, BrokerMessage> retained = new ConcurrentHashMap<>();
+    private final Set<BrokerConnection> connections = ConcurrentHashMap.newKeySet();
+    private volatile BiPredicate<String, char[]> authenticator;
+    private volatile boolean closed;
+
+    /**
+     * 在随机端口与随机 local:// 名称上启动 Start on a random port and a random local:// name
+     *
+     * @return MQTTEmbeddedBroker
+     * @throws IOException 端口不可用 the port cannot be bound
+     */
+    public static MQTTEmbeddedBroker start() throws IOException {
+        return new MQTTEmbeddedBroker(0, "broker-" + UUID.randomUUID());
+    }
+
+    /**
+     * @param port 端口，0 表示随机 port, 0 for a random one
+     * @param name local:// 名称 local:// name
+     * @throws IOException 端口不可用 the port cannot be bound
+     */
+    public MQTTEmbeddedBroker(int port, String name) throws IOException {
+        this.name = name;
+        this.server = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        if (!LocalNetworkModuleFactory.register(name, this)) {
+            server.close();
+            throw new IllegalStateException("local://" + name + " is already in use");
+        }
+        Thread acceptor = new Thread(this::accept, "mto-mqtt-broker-accept-" + name);
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * 校验用户名密码，默认全部接受 Check user names and passwords; everything is accepted by default
+     *
+     * @param authenticator 参数1 用户名，参数2 密码，均可能为 null param1 user name, param2 password, both may be null
+     * @return this
+     */
+    public MQTTEmbeddedBroker authenticator(BiPredicate<String, char[]> authenticator) {
+        this.authenticator = authenticator;
+        return this;
+    }
+
+    /**
+     * TCP 地址 TCP address
+     *
+     * @return tcp://127.0.0.1:port
+     */
+    public String getUri() {
+        return "tcp://127.0.0.1:" + server.getLocalPort();
+    }
+
+    /**
+     * 进程内地址 In-process address
+     *
+     * @return local://name
+     */
+    public String getLocalUri() {
+        return "local://" + name;
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * 当前保留的消息 Retained messages currently held
+     *
+     * @return 主题到消息体 topic to payload
+     */
+    public Map<String, byte[]> getRetained() {
+        Map<String, byte[]> copy = new HashMap<>();
+        for (BrokerMessage message : retained.values()) {
+            copy.put(message.topic, message.payload.clone());
+        }
+        return copy;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LocalNetworkModuleFactory.unregister(name, this);
+        server.close();
+        for (BrokerConnection connection : connections) {
+            connection.close();
+        }
+    }
+
+    /**
+     * 接入一条进程内连接 Accept an in-process connection
+     */
+    void accept(BrokerConnection.Transport transport) throws IOException {
+        if (closed) {
+            throw new IOException("MQTT embedded broker " + name + " is closed");
+        }
+        serve(transport, "local");
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                serve(new SocketTransport(socket), String.valueOf(socket.getPort()));
+            } catch (IOException e) {
+                if (server.isClosed()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void serve(BrokerConnection.Transport transport, String label) throws IOException {
+        BrokerConnection connection = new BrokerConnection(this, transport);
+        connections.add(connection);
+        Thread reader = new Thread(() -> {
+            try {
+                connection.run();
+            } finally {
+                connections.remove(connection);
+            }
+        }, "mto-mqtt-broker-" + name + "-" + label);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    boolean authenticate(String username, char[] password) {
+        BiPredicate<String, char[]> current = authenticator;
+        return current == null || current.test(username, password);
+    }
+
+    /**
+     * 建立或恢复会话；同一 clientId 的旧连接被断开 Create or resume a session; an older connection with the same clientId is dropped
+     */
+    BrokerSession attach(String clientId, boolean clean, BrokerConnection connection, boolean[] present) {
+        BrokerSession existing = sessions.get(clientId);
+        if (existing != null) {
+            BrokerConnection old = existing.connection();
+            if (old != null && old != connection) {
+                old.close();
+            }
+        }
+        if (clean || existing == null || existing.clean) {
+            if (existing != null) {
+                discard(existing);
+            }
+            BrokerSession session = new BrokerSession(clientId, clean);
+            sessions.put(clientId, session);
+            return session;
+        }
+        present[0] = true;
+        return existing;
+    }
+
+    void detach(BrokerSession session, BrokerConnection connection) {
+        if (session.detach(connection) && session.clean) {
+            discard(session);
+        }
+    }
+
+    private void discard(BrokerSession session) {
+        sessions.remove(session.clientId, session);
+        for (String filter : session.subscriptions.keySet()) {
+            unsubscribe(session, filter);
+        }
+    }
+
+    boolean subscribe(BrokerSession session, String filter, int qos) {
+        String plain = plain(filter);
+        try {
+            MqttTopic.validate(plain, true);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        session.subscriptions.put(filter, qos);
+        subscribers.computeIfAbsent(filter, f -> {
+            filters.add(plain, f);
+            return new ConcurrentHashMap<>();
+        }).put(session, qos);
+        return true;
+    }
+
+    /**
+     * $share/{group}/{filter} 去掉前缀后的过滤器，非共享订阅原样返回
+     * The filter behind $share/{group}/{filter}; plain subscriptions are returned as is
+     */
+    private static String plain(String filter) {
+        if (!filter.startsWith("$share/")) {
+            return filter;
+        }
+        int slash = filter.indexOf('/', 7);
+        if (slash < 8) {
+            // 组名为空或缺少过滤器 Empty group or missing filter
+            return "";
+        }
+        return filter.substring(slash + 1);
+    }
+
+    void unsubscribe(BrokerSession session, String filter) {
+        session.subscriptions.remove(filter);
+        Map<BrokerSession, Integer> current = subscribers.get(filter);
+        if (current != null) {
+            current.remove(session);
+        }
+    }
+
+    /**
+     * 新订阅收到匹配的保留消息 A new subscription receives the matching retained messages
+     */
+    void sendRetained(BrokerSession session, String filter, int qos) throws IOException {
+        BrokerConnection connection = session.connection();
+        if (connection == null || retained.isEmpty() || filter.startsWith("$share/")) {
+            // 共享订阅不接收保留消息 Shared subscriptions get no retained messages
+            return;
+        }
+        MQTTTopicTrie<String> single = new MQTTTopicTrie<>(0);
+        single.add(filter, filter);
+        for (BrokerMessage message : retained.values()) {
+            if (!single.match(message.topic).isEmpty()) {
+                connection.send(session.deliver(message, Math.min(qos, message.qos), true));
+            }
+        }
+    }
+
+    /**
+     * 路由一条消息；同一会话的多个匹配订阅只投递一次，取最高等级
+     * Route a message; a session with several matching subscriptions gets it once, at the highest granted QoS
+     */
+    void publish(BrokerMessage message, boolean retain) {
+        if (retain) {
+            if (message.payload.length == 0) {
+                retained.remove(message.topic);
+            } else {
+                retained.put(message.topic, message);
+            }
+        }
+        List<String> matched = filters.match(message.topic);
+        if (matched.isEmpty()) {
+            return;
+        }
+        Map<BrokerSession, Integer> targets = new HashMap<>();
+        for (String filter : matched) {
+            Map<BrokerSession, Integer> current = subscribers.get(filter);
+            if (current == null || current.isEmpty()) {
+                continue;
+            }
+            if (filter.startsWith("$share/")) {
+                Map.Entry<BrokerSession, Integer> member = next(filter, current);
+                if (member != null) {
+                    targets.merge(member.getKey(), member.getValue(), Math::max);
+                }
+                continue;
+            }
+            for (Map.Entry<BrokerSession, Integer> entry : current.entrySet()) {
+                targets.merge(entry.getKey(), entry.getValue(), Math::max);
+            }
+        }
+        for (Map.Entry<BrokerSession, Integer> target : new ArrayList<>(targets.entrySet())) {
+            BrokerSession session = target.getKey();
+            List<BrokerSession.Outbound> outbound = session.deliver(message, Math.min(message.qos, target.getValue()), false);
+            BrokerConnection connection = session.connection();
+            if (outbound != null && connection != null) {
+                try {
+                    connection.send(outbound);
+                } catch (IOException e) {
+                    // 订阅者已断开，QoS 1/2 消息留在会话中重连后重发
+                    // The subscriber is gone; QoS 1/2 messages stay in the session and are resent on reconnect
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * 共享组内轮询选出一个在线成员，都离线时选任意一个使消息留在其会话中
+     * Round-robin over the online members of a share group; if all are offline any member keeps the message in its session
+     */
+    private Map.Entry<BrokerSession, Integer> next(String filter, Map<BrokerSession, Integer> members) {
+        List<Map.Entry<BrokerSession, Integer>> all = new ArrayList<>(members.entrySet());
+        if (all.isEmpty()) {
+            return null;
+        }
+        int start = cursors.computeIfAbsent(filter, f -> new AtomicInteger()).getAndIncrement();
+        for (int i = 0; i < all.size(); i++) {
+            Map.Entry<BrokerSession, Integer> member = all.get(Math.floorMod(start + i, all.size()));
+            if (member.getKey().connection() != null) {
+                return member;
+            }
+        }
+        return all.get(Math.floorMod(start, all.size()));
+    }
+
+    private static final class SocketTransport implements BrokerConnection.Transport {
+        private final Socket socket;
+
+        private SocketTransport(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public InputStream input() throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream output() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        @Override
+        public void readTimeout(int ms) throws IOException {
+            socket.setSoTimeout(ms);
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // 已关闭 Already closed
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package io.github.rururunu.mqttmacchiatto.codec;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MQTTCompressionTest {
+
+    @Test
+    void roundTrip() {
+        byte[] json = json(4096);
+        byte[] wire = MQTTCompression.compress(json, 1024, Deflater.BEST_SPEED);
+        assertTrue(MQTTCompression.isCompressed(wire));
+        assertTrue(wire.length < json.length);
+        assertArrayEquals(json, MQTTCompression.decompress(wire));
+    }
+
+    @Test
+    void payloadUnderThresholdStaysPlain() {
+        byte[] json = json(512);
+        assertSame(json, MQTTCompression.compress(json, 1024, Deflater.BEST_SPEED));
+        assertSame(json, MQTTCompression.decompress(json));
+    }
+
+    @Test
+    void payloadOverLimitIsNotInflated() {
+        byte[] wire = MQTTCompression.compress(json(64 * 1024), 1024, Deflater.BEST_SPEED);
+        assertSame(wire, MQTTCompression.decompress(wire, 16 * 1024));
+    }
+
+    @Test
+    void forgedLengthIsNotTrusted() {
+        byte[] wire = MQTTCompression.compress(json(4096), 1024, Deflater.BEST_SPEED);
+        // 声明 2GB 解压长度 Declare a 2GB inflated length
+        byte[] forged = Arrays.copyOf(wire, wire.length);
+        forged[4] = 0x7f;
+        forged[5] = (byte) 0xff;
+        forged[6] = (byte) 0xff;
+        forged[7] = (byte) 0xff;
+        assertSame(forged, MQTTCompression.decompress(forged, Integer.MAX_VALUE));
+        // 声明长度在压缩比内但与数据不符 A declared length within the ratio that does not match the data
+        byte[] mismatched = Arrays.copyOf(wire, wire.length);
+        mismatched[6] = (byte) (mismatched[6] + 1);
+        assertSame(mismatched, MQTTCompression.decompress(mismatched));
+    }
+
+    private static byte[] json(int length) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; json.length() < length - 32; i++) {
+            json.append("{\"sensor\":").append(i % 16).append(",\"value\":").append(i % 100).append("},");
+        }
+        json.setLength(json.length() - 1);
+        json.append(']');
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
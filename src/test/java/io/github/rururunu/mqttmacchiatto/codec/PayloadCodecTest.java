@@ -0,0 +1,128 @@
+package io.github.rururunu.mqttmacchiatto.codec;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInput;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PayloadCodecTest {
+
+    private static final BinaryCodec<Reading> BINARY = BinaryCodec.of(Reading.class,
+            (r, out) -> {
+                out.writeUTF(r.getSensor());
+                out.writeLong(r.getTime());
+                out.writeDouble(r.getValue());
+            },
+            in -> new Reading(in.readUTF(), in.readLong(), in.readDouble()));
+
+    @Test
+    void jsonRoundTrip() {
+        Reading reading = new Reading("温度-1", 1700000000000L, 21.5);
+        byte[] payload = PayloadCodec.json().encode(reading);
+        assertEquals(reading, PayloadCodec.json().decode(payload, Reading.class));
+        // 读取的是其他客户端发出的普通 JSON Plain JSON as sent by any other client
+        @SuppressWarnings("unchecked")
+        Map<String, Object> map = PayloadCodec.json().decode(payload, Map.class);
+        assertEquals("温度-1", map.get("sensor"));
+    }
+
+    @Test
+    void jsonRejectsMalformedPayload() {
+        byte[] payload = "{\"sensor\":".getBytes(StandardCharsets.UTF_8);
+        assertThrows(UncheckedIOException.class, () -> PayloadCodec.json().decode(payload, Reading.class));
+    }
+
+    @Test
+    void binaryRoundTrip() {
+        List<Reading> readings = Arrays.asList(
+                new Reading("a", 0, 0),
+                new Reading("温度-1", Long.MAX_VALUE, -1.25),
+                new Reading("", Long.MIN_VALUE, Double.NaN));
+        for (Reading reading : readings) {
+            assertEquals(reading, BINARY.decode(BINARY.encode(reading), Reading.class));
+        }
+    }
+
+    @Test
+    void binaryBufferIsNotSharedBetweenPayloads() {
+        byte[] first = BINARY.encode(new Reading("first", 1, 1));
+        byte[] copy = first.clone();
+        // 复用的缓冲区即使变大后被收回也不影响已编码的消息体 Payloads already handed out survive buffer reuse and trimming
+        char[] large = new char[40 * 1024];
+        Arrays.fill(large, 'x');
+        BINARY.encode(new Reading(new String(large), 2, 2));
+        BINARY.encode(new Reading("second", 3, 3));
+        assertArrayEquals(copy, first);
+    }
+
+    @Test
+    void binaryRejectsTruncatedPayloadAndOtherTypes() {
+        byte[] payload = BINARY.encode(new Reading("a", 1, 1));
+        assertThrows(UncheckedIOException.class,
+                () -> BINARY.decode(Arrays.copyOf(payload, payload.length - 1), Reading.class));
+        BinaryCodec<Object> objects = BinaryCodec.of(Object.class, (v, out) -> out.writeUTF(v.toString()), DataInput::readUTF);
+        assertThrows(IllegalArgumentException.class, () -> objects.decode(payload, String.class));
+    }
+
+    public static class Reading {
+        private String sensor;
+        private long time;
+        private double value;
+
+        public Reading() {
+        }
+
+        Reading(String sensor, long time, double value) {
+            this.sensor = sensor;
+            this.time = time;
+            this.value = value;
+        }
+
+        public String getSensor() {
+            return sensor;
+        }
+
+        public void setSensor(String sensor) {
+            this.sensor = sensor;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public void setTime(long time) {
+            this.time = time;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        public void setValue(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Reading)) {
+                return false;
+            }
+            Reading other = (Reading) o;
+            return sensor.equals(other.sensor) && time == other.time
+                    && Double.compare(value, other.value) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return sensor.hashCode();
+        }
+    }
+}
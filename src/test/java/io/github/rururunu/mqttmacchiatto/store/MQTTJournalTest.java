@@ -0,0 +1,73 @@
+package io.github.rururunu.mqttmacchiatto.store;
+
+import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import io.github.rururunu.mqttmacchiatto.content.MQTTRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MQTTJournalTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void capDropsOldestSegmentAndDeletesItsFile() throws Exception {
+        try (MQTTJournal journal = new MQTTJournal(dir, 1024, 2048, 0)) {
+            for (int i = 0; i < 100; i++) {
+                journal.append("telemetry/" + i, new byte[100], MQTTQos.AT_LEAST_ONCE);
+            }
+            assertTrue(journal.getDropped() > 0);
+            assertEquals(100, journal.getPending() + journal.getDropped());
+            assertTrue(segments() <= 2, "dropped segments must be deleted");
+        }
+    }
+
+    @Test
+    void expiredMessagesAreSkipped() throws Exception {
+        try (MQTTJournal journal = new MQTTJournal(dir, 1024, 2048, 1)) {
+            journal.append("telemetry/1", bytes("stale"), MQTTQos.AT_LEAST_ONCE);
+            Thread.sleep(20);
+            assertTrue(journal.peek(10).isEmpty());
+            journal.commit();
+            assertEquals(1, journal.getExpired());
+            assertTrue(journal.isEmpty());
+        }
+    }
+
+    @Test
+    void reopenedJournalResumesAfterCommittedMessages() throws Exception {
+        try (MQTTJournal journal = new MQTTJournal(dir, 1024, 4096, 0)) {
+            for (int i = 1; i <= 3; i++) {
+                journal.append("telemetry/" + i, bytes("reading-" + i), MQTTQos.AT_LEAST_ONCE);
+            }
+            assertEquals("telemetry/1", journal.peek(1).get(0).getTopic());
+            journal.commit();
+        }
+        try (MQTTJournal journal = new MQTTJournal(dir, 1024, 4096, 0)) {
+            assertEquals(2, journal.getPending());
+            List<MQTTRecord> records = journal.peek(10);
+            assertEquals(2, records.size());
+            assertEquals("telemetry/2", records.get(0).getTopic());
+            assertEquals("reading-3", new String(records.get(1).getPayload(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private long segments() throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.toString().endsWith(".seg")).count();
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,77 @@
+package io.github.rururunu.mqttmacchiatto.store;
+
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+import org.eclipse.paho.client.mqttv3.internal.MqttPersistentData;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MQTTMappedPersistenceTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void compactionKeepsLiveRecordsAcrossRestart() throws Exception {
+        MQTTMappedPersistence persistence = new MQTTMappedPersistence(dir.toString(), 4096);
+        persistence.open("client", "tcp://127.0.0.1:1883");
+        for (int i = 0; i < 2000; i++) {
+            persistence.put("s-" + i, record("s-" + i, i));
+            if (i >= 3) {
+                persistence.remove("s-" + (i - 3));
+            }
+        }
+        persistence.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            assertFalse(files.anyMatch(file -> file.toString().endsWith(".compact")), "compaction left its temp file");
+        }
+
+        MQTTMappedPersistence reopened = new MQTTMappedPersistence(dir.toString(), 4096);
+        reopened.open("client", "tcp://127.0.0.1:1883");
+        try {
+            for (int i = 1997; i < 2000; i++) {
+                assertTrue(reopened.containsKey("s-" + i));
+                assertArrayEquals(payload(i), reopened.get("s-" + i).getPayloadBytes());
+            }
+            assertFalse(reopened.containsKey("s-1996"));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void secondOpenOfSameClientIsRejected() throws Exception {
+        MQTTMappedPersistence first = new MQTTMappedPersistence(dir.toString(), 4096);
+        first.open("client", "tcp://127.0.0.1:1883");
+        try {
+            MqttPersistenceException e = assertThrows(MqttPersistenceException.class, () ->
+                    new MQTTMappedPersistence(dir.toString(), 4096).open("client", "tcp://127.0.0.1:1883"));
+            assertEquals(MqttPersistenceException.REASON_CODE_PERSISTENCE_IN_USE, e.getReasonCode());
+        } finally {
+            first.close();
+        }
+    }
+
+    private static MqttPersistable record(String key, int i) {
+        byte[] header = {0x32, 0x10};
+        byte[] payload = payload(i);
+        return new MqttPersistentData(key, header, 0, header.length, payload, 0, payload.length);
+    }
+
+    private static byte[] payload(int i) {
+        byte[] payload = new byte[200];
+        payload[0] = (byte) i;
+        payload[1] = (byte) (i >> 8);
+        return payload;
+    }
+}
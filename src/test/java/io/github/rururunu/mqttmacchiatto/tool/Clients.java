@@ -0,0 +1,51 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 连接内嵌 broker 的客户端，不依赖 Spring 配置 Clients connected to the embedded broker, without Spring configuration
+ */
+final class Clients {
+
+    private Clients() {
+    }
+
+    static MqttPush push(String uri) {
+        return new MqttPush()
+                .host(uri)
+                .username("test")
+                .password("test")
+                .timeout(10)
+                .keepalive(60)
+                .serviceId("test-push-" + UUID.randomUUID())
+                .cleanSession(true)
+                .shared(false);
+    }
+
+    static MqttPut put(String uri, String topic) {
+        return MqttPut.of(topic)
+                .host(uri)
+                .username("test")
+                .password("test")
+                .timeout(10)
+                .keepalive(60)
+                .reconnectFrequencyMs(50)
+                .reconnectMaxMs(200)
+                .shared(false);
+    }
+
+    /**
+     * 等待条件成立，超时返回 false Wait for the condition, false on timeout
+     */
+    static boolean await(BooleanSupplier condition, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,124 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import io.github.rururunu.mqttmacchiatto.broker.MQTTEmbeddedBroker;
+import io.github.rururunu.mqttmacchiatto.config.MQTTBase;
+import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MQTTConnectionsTest {
+
+    @Test
+    void instancesShareOneConnection() throws Exception {
+        try (MQTTEmbeddedBroker broker = MQTTEmbeddedBroker.start()) {
+            List<String> received = new CopyOnWriteArrayList<>();
+            MqttPush push = Clients.push(broker.getLocalUri()).shared(true).init();
+            MqttPut put = Clients.put(broker.getLocalUri(), "shared/#")
+                    .shared(true)
+                    .qos(MQTTQos.AT_LEAST_ONCE)
+                    .response((topic, msg) -> received.add(msg));
+            put.start();
+            try {
+                assertEquals(1, broker.getConnectionCount());
+                push.push("shared/1", "hello", MQTTQos.AT_LEAST_ONCE);
+                assertTrue(Clients.await(() -> received.contains("hello"), 10_000));
+            } finally {
+                push.stop();
+                assertEquals(1, broker.getConnectionCount());
+                put.stop();
+            }
+            assertTrue(Clients.await(() -> broker.getConnectionCount() == 0, 10_000));
+        }
+    }
+
+    @Test
+    void connectionRetriesFailedFirstConnectForItsUsers() throws Exception {
+        Integer frequency = MQTTBase.RECONNECT_FREQUENCY_MS;
+        Integer max = MQTTBase.RECONNECT_MAX_MS;
+        MQTTBase.RECONNECT_FREQUENCY_MS = 50;
+        MQTTBase.RECONNECT_MAX_MS = 200;
+        String name = "late-" + UUID.randomUUID();
+        List<String> received = new CopyOnWriteArrayList<>();
+        MqttPut put = Clients.put("local://" + name, "late/#")
+                .shared(true)
+                .qos(MQTTQos.AT_LEAST_ONCE)
+                .response((topic, msg) -> received.add(msg));
+        try {
+            assertThrows(RuntimeException.class, put::start);
+            try (MQTTEmbeddedBroker broker = new MQTTEmbeddedBroker(0, name)) {
+                // 监听器不自行连接，只有共享连接重试 Monitors never connect on their own, only the shared connection retries
+                assertTrue(Clients.await(() -> broker.getConnectionCount() == 1, 10_000));
+                MqttPush push = Clients.push(broker.getLocalUri()).init();
+                try {
+                    // 连上后异步重新订阅 Filters are subscribed again asynchronously once connected
+                    assertTrue(Clients.await(() -> {
+                        pushQuietly(push, "late/1", "hello");
+                        return received.contains("hello");
+                    }, 10_000));
+                    assertEquals(2, broker.getConnectionCount());
+                } finally {
+                    push.stop();
+                }
+            }
+        } finally {
+            put.stop();
+            MQTTBase.RECONNECT_FREQUENCY_MS = frequency;
+            MQTTBase.RECONNECT_MAX_MS = max;
+        }
+    }
+
+    @Test
+    void failingHandlerDoesNotStarveOtherUsers() throws Exception {
+        try (MQTTEmbeddedBroker broker = MQTTEmbeddedBroker.start()) {
+            AtomicInteger failures = new AtomicInteger();
+            List<String> received = new CopyOnWriteArrayList<>();
+            MqttPut failing = Clients.put(broker.getLocalUri(), "fan/#")
+                    .shared(true)
+                    .qos(MQTTQos.AT_LEAST_ONCE)
+                    .response((topic, msg) -> {
+                        if (failures.getAndIncrement() == 0) {
+                            throw new IllegalStateException("database down");
+                        }
+                    });
+            MqttPut healthy = Clients.put(broker.getLocalUri(), "fan/#")
+                    .shared(true)
+                    .qos(MQTTQos.AT_LEAST_ONCE)
+                    .response((topic, msg) -> received.add(msg));
+            failing.start();
+            healthy.start();
+            MqttPush push = Clients.push(broker.getLocalUri()).init();
+            try {
+                push.push("fan/1", "first", MQTTQos.AT_LEAST_ONCE);
+                assertTrue(Clients.await(() -> received.contains("first"), 10_000));
+                // 异常使 Paho 断开，共享连接自动重连后继续收到消息
+                // The exception makes Paho disconnect; the shared connection reconnects and messages flow again
+                assertTrue(Clients.await(() -> {
+                    pushQuietly(push, "fan/2", "second");
+                    return received.contains("second");
+                }, 15_000));
+                assertTrue(Clients.await(() -> broker.getConnectionCount() == 2, 10_000));
+            } finally {
+                push.stop();
+                failing.stop();
+                healthy.stop();
+            }
+        }
+    }
+
+    private static void pushQuietly(MqttPush push, String topic, String message) {
+        try {
+            push.push(topic, message, MQTTQos.AT_MOST_ONCE);
+            Thread.sleep(100);
+        } catch (Exception e) {
+            // 下次再试 Try again
+        }
+    }
+}
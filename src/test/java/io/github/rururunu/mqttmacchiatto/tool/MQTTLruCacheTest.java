@@ -0,0 +1,67 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MQTTLruCacheTest {
+
+    @Test
+    void leastRecentlyUsedIsEvictedFirst() {
+        // 容量小于 32 时只有一段，顺序严格 Below 32 entries there is one segment, so the order is exact
+        MQTTLruCache<String, Integer> cache = new MQTTLruCache<>(3);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+        assertEquals(1, cache.get("a"));
+        cache.put("d", 4);
+        assertFalse(cache.containsKey("b"));
+        assertTrue(cache.containsKey("a"));
+        assertTrue(cache.containsKey("c"));
+        assertTrue(cache.containsKey("d"));
+        // containsKey 不算访问，c 仍是最久未用 containsKey is not an access, so c is still the least recently used
+        cache.put("e", 5);
+        assertFalse(cache.containsKey("c"));
+        assertTrue(cache.containsKey("a"));
+        assertEquals(3, cache.size());
+        assertEquals(2, cache.getEvictions());
+    }
+
+    @Test
+    void countersFollowLookups() {
+        MQTTLruCache<String, String> cache = new MQTTLruCache<>(2);
+        assertEquals("A", cache.computeIfAbsent("a", String::toUpperCase));
+        assertEquals("A", cache.computeIfAbsent("a", key -> "unused"));
+        assertEquals("A", cache.get("a"));
+        assertNull(cache.get("b"));
+        // 映射返回 null 时不缓存 Nothing is cached when the mapping returns null
+        assertNull(cache.computeIfAbsent("c", key -> null));
+        assertEquals(2, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        assertEquals(0.4, cache.getHitRate(), 1e-9);
+        assertEquals(1, cache.size());
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    void segmentsAddUpToTheCapacity() {
+        MQTTLruCache<Integer, Integer> cache = new MQTTLruCache<>(1000);
+        for (int i = 0; i < 100_000; i++) {
+            cache.put(i, i);
+        }
+        assertEquals(1000, cache.size());
+        assertEquals(99_000, cache.getEvictions());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(1000, cache.getCapacity());
+    }
+
+    @Test
+    void capacityMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new MQTTLruCache<>(0));
+    }
+}
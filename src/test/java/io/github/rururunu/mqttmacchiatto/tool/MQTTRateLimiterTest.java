@@ -0,0 +1,74 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MQTTRateLimiterTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    void burstIsAvailableAtOnce() {
+        MQTTRateLimiter limiter = new MQTTRateLimiter(1, 3);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+    }
+
+    @Test
+    void reservationsQueueBehindTheDebt() {
+        MQTTRateLimiter limiter = new MQTTRateLimiter(10, 1);
+        assertEquals(0, limiter.reserve());
+        long second = limiter.reserve();
+        long third = limiter.reserve();
+        // 每个令牌 100ms Each token takes 100ms
+        assertTrue(second > 80 * MS && second <= 100 * MS, String.valueOf(second));
+        assertTrue(third > 180 * MS && third <= 200 * MS, String.valueOf(third));
+        // 透支未还清前拿不到令牌 No token until the debt is paid off
+        assertFalse(limiter.tryAcquire());
+    }
+
+    @Test
+    void fixedRateIgnoresLatency() {
+        MQTTRateLimiter limiter = new MQTTRateLimiter(1000, 10);
+        limiter.acknowledged(500 * MS);
+        assertFalse(limiter.isAdaptive());
+        assertEquals(1000, limiter.getRate(), 1e-9);
+    }
+
+    @Test
+    void slowAcksCutTheRateDownToTheFloor() throws Exception {
+        MQTTRateLimiter limiter = new MQTTRateLimiter(1000, 10).adaptive(10, 500);
+        limiter.acknowledged(50 * MS);
+        assertEquals(700, limiter.getRate(), 1e-9);
+        // 调整间隔内不再调整 No further change within the adjustment interval
+        limiter.acknowledged(50 * MS);
+        assertEquals(700, limiter.getRate(), 1e-9);
+        Thread.sleep(110);
+        limiter.acknowledged(50 * MS);
+        assertEquals(500, limiter.getRate(), 1e-9);
+    }
+
+    @Test
+    void fastAcksRaiseTheRateUpToTheCeiling() throws Exception {
+        MQTTRateLimiter limiter = new MQTTRateLimiter(1000, 10).adaptive(10, 500);
+        limiter.acknowledged(50 * MS);
+        assertEquals(700, limiter.getRate(), 1e-9);
+        for (int i = 0; i < 50; i++) {
+            limiter.acknowledged(MS);
+        }
+        Thread.sleep(110);
+        limiter.acknowledged(MS);
+        assertEquals(750, limiter.getRate(), 1e-9);
+
+        MQTTRateLimiter full = new MQTTRateLimiter(1000, 10).adaptive(10, 500);
+        full.acknowledged(MS);
+        assertEquals(1000, full.getRate(), 1e-9);
+    }
+}
@@ -0,0 +1,203 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import io.github.rururunu.mqttmacchiatto.broker.MQTTEmbeddedBroker;
+import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import io.github.rururunu.mqttmacchiatto.content.MQTTRecord;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MQTTReactiveTest {
+
+    @Test
+    void subscriberPushesEverythingWithinTheInflightLimit() throws Exception {
+        try (MQTTEmbeddedBroker broker = MQTTEmbeddedBroker.start()) {
+            Set<String> received = ConcurrentHashMap.newKeySet();
+            MqttPut put = Clients.put(broker.getLocalUri(), "stream/#")
+                    .qos(MQTTQos.AT_LEAST_ONCE)
+                    .response((topic, msg) -> received.add(msg));
+            put.start();
+            MqttPush push = Clients.push(broker.getLocalUri()).init();
+            try {
+                MQTTPushSubscriber sink = push.subscriber(8);
+                ListPublisher upstream = new ListPublisher(records(100, -1), sink);
+                upstream.subscribe(sink);
+                sink.getCompletion().get(10, TimeUnit.SECONDS);
+                assertTrue(upstream.peak.get() <= 8, "in-flight exceeded the limit: " + upstream.peak.get());
+                assertTrue(Clients.await(() -> received.size() == 100, 10_000));
+            } finally {
+                push.stop();
+                put.stop();
+            }
+        }
+    }
+
+    @Test
+    void firstFailureFailsCompletionWithoutHandler() throws Exception {
+        try (MQTTEmbeddedBroker broker = MQTTEmbeddedBroker.start()) {
+            MqttPush push = Clients.push(broker.getLocalUri()).init();
+            try {
+                MQTTPushSubscriber sink = push.subscriber(4);
+                ListPublisher upstream = new ListPublisher(records(20, 2), sink);
+                upstream.subscribe(sink);
+                ExecutionException e = assertThrows(ExecutionException.class,
+                        () -> sink.getCompletion().get(10, TimeUnit.SECONDS));
+                assertTrue(e.getCause() instanceof IllegalArgumentException, String.valueOf(e.getCause()));
+                assertTrue(Clients.await(upstream.cancelled::get, 10_000), "subscription was not cancelled");
+            } finally {
+                push.stop();
+            }
+        }
+    }
+
+    @Test
+    void handlerSeesFailuresAndSubscriptionContinues() throws Exception {
+        try (MQTTEmbeddedBroker broker = MQTTEmbeddedBroker.start()) {
+            Set<String> received = ConcurrentHashMap.newKeySet();
+            MqttPut put = Clients.put(broker.getLocalUri(), "stream/#")
+                    .qos(MQTTQos.AT_LEAST_ONCE)
+                    .response((topic, msg) -> received.add(msg));
+            put.start();
+            MqttPush push = Clients.push(broker.getLocalUri()).init();
+            try {
+                List<Throwable> errors = new CopyOnWriteArrayList<>();
+                MQTTPushSubscriber sink = push.subscriber(4, errors::add);
+                new ListPublisher(records(10, 2), sink).subscribe(sink);
+                sink.getCompletion().get(10, TimeUnit.SECONDS);
+                assertEquals(1, errors.size());
+                assertTrue(Clients.await(() -> received.size() == 9, 10_000));
+            } finally {
+                push.stop();
+                put.stop();
+            }
+        }
+    }
+
+    @Test
+    void publisherDeliversOnlyWhatWasRequested() throws Exception {
+        try (MQTTEmbeddedBroker broker = MQTTEmbeddedBroker.start()) {
+            MQTTMessagePublisher publisher = Clients.put(broker.getLocalUri(), "orders/#")
+                    .qos(MQTTQos.AT_LEAST_ONCE)
+                    .publisher(16);
+            List<String> received = new CopyOnWriteArrayList<>();
+            AtomicReference<Subscription> subscription = new AtomicReference<>();
+            publisher.subscribe(new Subscriber<MqttMessage>() {
+                @Override
+                public void onSubscribe(Subscription s) {
+                    subscription.set(s);
+                }
+
+                @Override
+                public void onNext(MqttMessage message) {
+                    received.add(new String(message.getPayload()));
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            });
+            MqttPush push = Clients.push(broker.getLocalUri()).init();
+            try {
+                for (int i = 0; i < 5; i++) {
+                    push.push("orders/" + i, "order-" + i, MQTTQos.AT_LEAST_ONCE);
+                }
+                assertTrue(Clients.await(() -> publisher.getBuffered() == 5, 10_000));
+                assertTrue(received.isEmpty());
+                subscription.get().request(3);
+                assertTrue(Clients.await(() -> received.size() == 3, 10_000));
+                subscription.get().request(2);
+                assertTrue(Clients.await(() -> received.size() == 5, 10_000));
+                assertEquals(0, publisher.getBuffered());
+            } finally {
+                push.stop();
+                subscription.get().cancel();
+            }
+        }
+    }
+
+    /**
+     * 第 invalid 条使用非法主题，推送时失败 Record number invalid has an illegal topic and fails to push
+     */
+    private static List<MQTTRecord> records(int count, int invalid) {
+        List<MQTTRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String topic = i == invalid ? "stream/+" : "stream/" + i;
+            records.add(new MQTTRecord(topic, "reading-" + i, MQTTQos.AT_LEAST_ONCE));
+        }
+        return records;
+    }
+
+    /**
+     * 按需求逐条发出列表的上游 Upstream emitting a list as far as demand allows
+     */
+    private static final class ListPublisher implements Publisher<MQTTRecord> {
+        private final List<MQTTRecord> records;
+        private final MQTTPushSubscriber sink;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicInteger peak = new AtomicInteger();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private int next;
+        private boolean completed;
+
+        private ListPublisher(List<MQTTRecord> records, MQTTPushSubscriber sink) {
+            this.records = records;
+            this.sink = sink;
+        }
+
+        @Override
+        public void subscribe(Subscriber<? super MQTTRecord> subscriber) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                    demand.addAndGet(n);
+                    drain(subscriber);
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled.set(true);
+                }
+            });
+        }
+
+        private void drain(Subscriber<? super MQTTRecord> subscriber) {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                while (demand.get() > 0 && next < records.size() && !cancelled.get()) {
+                    demand.decrementAndGet();
+                    subscriber.onNext(records.get(next++));
+                    peak.accumulateAndGet(sink.getInflight(), Math::max);
+                }
+                if (next == records.size() && !completed && !cancelled.get()) {
+                    completed = true;
+                    subscriber.onComplete();
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MQTTReconnectorTest {
+
+    @Test
+    void jitterKeepsAtLeastHalfOfTheDelay() {
+        for (int i = 0; i < 1000; i++) {
+            long delay = MQTTReconnector.Task.jitter(1000);
+            assertTrue(delay >= 500 && delay <= 1000, String.valueOf(delay));
+        }
+        assertEquals(0, MQTTReconnector.Task.jitter(0));
+    }
+
+    @Test
+    void backoffDoublesUpToTheCeiling() {
+        for (int i = 0; i < 100; i++) {
+            long first = MQTTReconnector.Task.backoff(100, 1000, 1);
+            long third = MQTTReconnector.Task.backoff(100, 1000, 3);
+            long capped = MQTTReconnector.Task.backoff(100, 1000, 10);
+            // 大量失败后不溢出 No overflow after many failures
+            long many = MQTTReconnector.Task.backoff(100, 1000, Integer.MAX_VALUE);
+            assertTrue(first >= 50 && first <= 100, String.valueOf(first));
+            assertTrue(third >= 200 && third <= 400, String.valueOf(third));
+            assertTrue(capped >= 500 && capped <= 1000, String.valueOf(capped));
+            assertTrue(many >= 500 && many <= 1000, String.valueOf(many));
+        }
+    }
+
+    @Test
+    void failedAttemptIsRetriedUntilConnected() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicBoolean connected = new AtomicBoolean();
+        AtomicBoolean done = new AtomicBoolean();
+        MQTTReconnector.schedule("retry", () -> {
+            // 连上但订阅失败视为失败 Connected but failed to subscribe counts as a failure
+            if (attempts.incrementAndGet() < 3) {
+                throw new IllegalStateException("subscribe failed");
+            }
+            connected.set(true);
+        }, connected::get, 10, 40, () -> done.set(true));
+        assertTrue(Clients.await(done::get, 10_000));
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    void attemptsWaitForAPermit() throws Exception {
+        Semaphore permits = MQTTReconnector.permits();
+        int drained = permits.drainPermits();
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicBoolean done = new AtomicBoolean();
+        MQTTReconnector.Task task = null;
+        try {
+            task = MQTTReconnector.schedule("gated", attempts::incrementAndGet,
+                    () -> attempts.get() > 0, 10, 40, () -> done.set(true));
+            assertFalse(Clients.await(() -> attempts.get() > 0, 300), "attempted without a permit");
+        } finally {
+            permits.release(drained);
+        }
+        assertTrue(Clients.await(done::get, 10_000));
+        assertEquals(1, attempts.get());
+        task.cancel();
+    }
+}
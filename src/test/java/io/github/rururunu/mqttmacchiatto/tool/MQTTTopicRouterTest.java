@@ -0,0 +1,63 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MQTTTopicRouterTest {
+
+    @Test
+    void messageGoesToEveryMatchingHandler() {
+        List<String> calls = new CopyOnWriteArrayList<>();
+        MQTTTopicRouter router = new MQTTTopicRouter();
+        router.add("device/+/status", MQTTQos.AT_LEAST_ONCE, (topic, msg) -> calls.add("status:" + topic));
+        router.add("device/#", MQTTQos.AT_MOST_ONCE, (topic, msg) -> calls.add("all:" + topic));
+        router.add("other/#", MQTTQos.AT_MOST_ONCE, (topic, msg) -> calls.add("other:" + topic));
+
+        assertTrue(router.route("device/42/status", new MqttMessage()));
+        assertEquals(2, calls.size());
+        assertTrue(calls.containsAll(Arrays.asList("status:device/42/status", "all:device/42/status")));
+        // a/# 也匹配 a 本身 a/# also matches a itself
+        assertTrue(router.route("device", new MqttMessage()));
+        assertTrue(calls.contains("all:device"));
+        assertFalse(router.route("unrouted/1", new MqttMessage()));
+    }
+
+    @Test
+    void filtersKeepTheirQosAndCanBeRemoved() {
+        MQTTTopicRouter router = new MQTTTopicRouter();
+        router.add("a/#", MQTTQos.AT_LEAST_ONCE, (topic, msg) -> {
+        });
+        router.add("b/+", MQTTQos.EXACTLY_ONCE, (topic, msg) -> {
+        });
+        assertEquals(MQTTQos.AT_LEAST_ONCE, router.getFilters().get("a/#"));
+        assertEquals(MQTTQos.EXACTLY_ONCE, router.getFilters().get("b/+"));
+
+        assertTrue(router.remove("a/#"));
+        assertFalse(router.remove("a/#"));
+        assertTrue(router.match("a/1").isEmpty());
+        assertEquals(1, router.match("b/1").size());
+        assertTrue(router.remove("b/+"));
+        assertTrue(router.isEmpty());
+    }
+
+    @Test
+    void systemTopicsNeedAnExplicitFilter() {
+        List<String> calls = new CopyOnWriteArrayList<>();
+        MQTTTopicRouter router = new MQTTTopicRouter();
+        router.add("#", MQTTQos.AT_MOST_ONCE, (topic, msg) -> calls.add("#"));
+        router.add("+/broker/uptime", MQTTQos.AT_MOST_ONCE, (topic, msg) -> calls.add("+"));
+        assertFalse(router.route("$SYS/broker/uptime", new MqttMessage()));
+        router.add("$SYS/#", MQTTQos.AT_MOST_ONCE, (topic, msg) -> calls.add("$SYS"));
+        assertTrue(router.route("$SYS/broker/uptime", new MqttMessage()));
+        assertEquals(Arrays.asList("$SYS"), calls);
+    }
+}
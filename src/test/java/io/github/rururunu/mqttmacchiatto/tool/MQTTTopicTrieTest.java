@@ -0,0 +1,75 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MQTTTopicTrieTest {
+
+    @Test
+    void hashMatchesTheParentLevel() {
+        MQTTTopicTrie<String> trie = new MQTTTopicTrie<>();
+        trie.add("a/#", "a/#");
+        assertEquals(Collections.singletonList("a/#"), trie.match("a"));
+        assertEquals(Collections.singletonList("a/#"), trie.match("a/b/c"));
+        assertTrue(trie.match("ab").isEmpty());
+        assertTrue(trie.match("b/a").isEmpty());
+    }
+
+    @Test
+    void plusMatchesExactlyOneLevelEvenWhenEmpty() {
+        MQTTTopicTrie<String> trie = new MQTTTopicTrie<>();
+        trie.add("a/+/c", "a/+/c");
+        trie.add("+", "+");
+        assertEquals(Collections.singletonList("a/+/c"), trie.match("a//c"));
+        assertEquals(Collections.singletonList("a/+/c"), trie.match("a/b/c"));
+        assertTrue(trie.match("a/b/b/c").isEmpty());
+        assertTrue(trie.match("a/c").isEmpty());
+        assertEquals(Collections.singletonList("+"), trie.match(""));
+        assertTrue(trie.match("/").isEmpty());
+    }
+
+    @Test
+    void dollarTopicsAreNotMatchedByLeadingWildcards() {
+        MQTTTopicTrie<String> trie = new MQTTTopicTrie<>();
+        trie.add("#", "#");
+        trie.add("+/broker/#", "+");
+        trie.add("$SYS/#", "$SYS/#");
+        trie.add("$SYS/+/uptime", "$SYS/+");
+        assertEquals(new HashSet<>(Arrays.asList("$SYS/#", "$SYS/+")),
+                new HashSet<>(trie.match("$SYS/broker/uptime")));
+        assertEquals(new HashSet<>(Arrays.asList("#", "+")),
+                new HashSet<>(trie.match("SYS/broker/uptime")));
+    }
+
+    @Test
+    void cachedResultsFollowFilterChanges() {
+        MQTTTopicTrie<String> trie = new MQTTTopicTrie<>(4);
+        assertTrue(trie.match("a/b").isEmpty());
+        trie.add("a/b", "exact");
+        assertEquals(Collections.singletonList("exact"), trie.match("a/b"));
+        trie.add("a/b", "second");
+        assertEquals(2, trie.match("a/b").size());
+        assertEquals(Arrays.asList("exact", "second"), trie.remove("a/b"));
+        assertTrue(trie.match("a/b").isEmpty());
+        assertEquals(0, trie.size());
+        // 缓存满后清空，结果不变 Results stay the same once the full cache is cleared
+        trie.add("t/+", "t");
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Collections.singletonList("t"), trie.match("t/" + i));
+        }
+    }
+
+    @Test
+    void invalidFiltersAreRejected() {
+        MQTTTopicTrie<String> trie = new MQTTTopicTrie<>();
+        assertThrows(IllegalArgumentException.class, () -> trie.add("a/#/b", "x"));
+        assertThrows(IllegalArgumentException.class, () -> trie.add("a/b+", "x"));
+    }
+}
@@ -0,0 +1,68 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import io.github.rururunu.mqttmacchiatto.broker.MQTTEmbeddedBroker;
+import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MqttPushAsyncTest {
+
+    @Test
+    void windowBoundsInflightAndEveryPushCompletes() throws Exception {
+        try (MQTTEmbeddedBroker broker = MQTTEmbeddedBroker.start()) {
+            Set<String> received = ConcurrentHashMap.newKeySet();
+            MqttPut put = Clients.put(broker.getLocalUri(), "async/#")
+                    .qos(MQTTQos.AT_LEAST_ONCE)
+                    .response((topic, msg) -> received.add(msg));
+            put.start();
+            MqttPush push = Clients.push(broker.getLocalUri()).maxInflight(4).init();
+            try {
+                int peak = pushAll(push, 200);
+                assertTrue(peak <= 4, "in-flight exceeded the window: " + peak);
+                assertEquals(0, push.getInflight());
+                assertTrue(Clients.await(() -> received.size() == 200, 10_000));
+            } finally {
+                push.stop();
+                put.stop();
+            }
+        }
+    }
+
+    @Test
+    void windowKeepsItsLimitAcrossRestart() throws Exception {
+        try (MQTTEmbeddedBroker broker = MQTTEmbeddedBroker.start()) {
+            MqttPush push = Clients.push(broker.getLocalUri()).maxInflight(2).init();
+            try {
+                pushAll(push, 20);
+                push.stop();
+                push.start();
+                int peak = pushAll(push, 50);
+                assertTrue(peak <= 2, "restart widened the window: " + peak);
+                assertEquals(0, push.getInflight());
+            } finally {
+                push.stop();
+            }
+        }
+    }
+
+    private static int pushAll(MqttPush push, int count) throws Exception {
+        List<CompletableFuture<IMqttToken>> sent = new ArrayList<>(count);
+        int peak = 0;
+        for (int i = 0; i < count; i++) {
+            sent.add(push.pushAsync("async/" + i, "message-" + i, MQTTQos.AT_LEAST_ONCE));
+            peak = Math.max(peak, push.getInflight());
+        }
+        CompletableFuture.allOf(sent.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+        return peak;
+    }
+}
@@ -0,0 +1,46 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import io.github.rururunu.mqttmacchiatto.broker.MQTTEmbeddedBroker;
+import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import io.github.rururunu.mqttmacchiatto.content.MQTTRecord;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MqttPushCharsetTest {
+
+    @Test
+    void batchedTextUsesThePushCharset() throws Exception {
+        try (MQTTEmbeddedBroker broker = MQTTEmbeddedBroker.start()) {
+            Map<String, byte[]> received = new ConcurrentHashMap<>();
+            MqttPut put = Clients.put(broker.getLocalUri(), "text/#")
+                    .qos(MQTTQos.AT_LEAST_ONCE)
+                    .responseRow((topic, msg) -> received.put(topic, msg.getPayload()));
+            put.start();
+            MqttPush push = Clients.push(broker.getLocalUri()).charset(StandardCharsets.UTF_16BE).init();
+            MqttPush lingering = Clients.push(broker.getLocalUri()).charset(StandardCharsets.UTF_16BE)
+                    .linger(10, 20).init();
+            try {
+                push.pushBatch(Arrays.asList(
+                        new MQTTRecord("text/batch", "温度", MQTTQos.AT_LEAST_ONCE),
+                        new MQTTRecord("text/bytes", "温度".getBytes(StandardCharsets.UTF_8), MQTTQos.AT_LEAST_ONCE)));
+                lingering.pushAsync("text/linger", "湿度", MQTTQos.AT_LEAST_ONCE);
+                assertTrue(Clients.await(() -> received.size() == 3, 10_000));
+                assertArrayEquals("温度".getBytes(StandardCharsets.UTF_16BE), received.get("text/batch"));
+                // 字节消息原样推送 Byte payloads are pushed as given
+                assertArrayEquals("温度".getBytes(StandardCharsets.UTF_8), received.get("text/bytes"));
+                assertArrayEquals("湿度".getBytes(StandardCharsets.UTF_16BE), received.get("text/linger"));
+            } finally {
+                push.stop();
+                lingering.stop();
+                put.stop();
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import io.github.rururunu.mqttmacchiatto.broker.MQTTEmbeddedBroker;
+import io.github.rururunu.mqttmacchiatto.config.MQTTBase;
+import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import io.github.rururunu.mqttmacchiatto.store.MQTTJournal;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MqttPushJournalTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void pushesWhileBrokerIsDownAreReplayedInOrder() throws Exception {
+        Integer frequency = MQTTBase.RECONNECT_FREQUENCY_MS;
+        MQTTBase.RECONNECT_FREQUENCY_MS = 50;
+        String name = "journal-" + UUID.randomUUID();
+        try (MQTTJournal journal = new MQTTJournal(dir, 64 * 1024, 1024 * 1024, 0)) {
+            MqttPush push = Clients.push("local://" + name).journal(journal, 1000).init(e -> {
+            });
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                push.push("journal/" + i, "reading-" + i, MQTTQos.AT_LEAST_ONCE);
+                expected.add("journal/" + i);
+            }
+            assertEquals(5, journal.getPending());
+
+            try (MQTTEmbeddedBroker broker = new MQTTEmbeddedBroker(0, name)) {
+                List<String> received = new CopyOnWriteArrayList<>();
+                MqttPut put = Clients.put(broker.getLocalUri(), "journal/#")
+                        .qos(MQTTQos.AT_LEAST_ONCE)
+                        .response((topic, msg) -> received.add(topic));
+                put.start();
+                try {
+                    assertTrue(Clients.await(() -> received.size() == 5, 10_000), received.toString());
+                    assertEquals(expected, received);
+                    assertTrue(journal.isEmpty());
+                    // 日志清空后直接发送 Sent directly once the journal is empty
+                    push.push("journal/5", "reading-5", MQTTQos.AT_LEAST_ONCE);
+                    assertTrue(Clients.await(() -> received.size() == 6, 10_000));
+                    assertEquals(0, journal.getPending());
+                } finally {
+                    push.stop();
+                    put.stop();
+                }
+            }
+        } finally {
+            MQTTBase.RECONNECT_FREQUENCY_MS = frequency;
+        }
+    }
+}
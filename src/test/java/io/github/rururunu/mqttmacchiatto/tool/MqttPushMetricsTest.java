@@ -0,0 +1,37 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import io.github.rururunu.mqttmacchiatto.broker.MQTTEmbeddedBroker;
+import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import io.github.rururunu.mqttmacchiatto.metrics.MQTTMetrics;
+import io.github.rururunu.mqttmacchiatto.metrics.MicrometerMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MqttPushMetricsTest {
+
+    @Test
+    void metersReadTheCurrentCacheAndLimiter() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MQTTMetrics.install(new MicrometerMetrics(registry));
+        try (MQTTEmbeddedBroker broker = MQTTEmbeddedBroker.start()) {
+            MqttPush push = Clients.push(broker.getLocalUri()).init();
+            try {
+                String client = push.getServiceId();
+                // 启动后更换缓存与限速器 Cache and limiter replaced after start
+                push.topicCache(16).rateLimit(new MQTTRateLimiter(250, 10));
+                push.push("meters/1", "a", MQTTQos.AT_LEAST_ONCE);
+                push.push("meters/1", "b", MQTTQos.AT_LEAST_ONCE);
+                assertEquals(1, registry.get("mqtt.topic.cache.size").tag("client", client).gauge().value());
+                assertEquals(1, registry.get("mqtt.topic.cache.misses").tag("client", client).functionCounter().count());
+                assertEquals(1, registry.get("mqtt.topic.cache.hits").tag("client", client).functionCounter().count());
+                assertEquals(250, registry.get("mqtt.publish.rate.limit").tag("client", client).gauge().value());
+            } finally {
+                push.stop();
+            }
+        } finally {
+            MQTTMetrics.install(MQTTMetrics.NOOP);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MqttPushPoolTest {
+
+    @Test
+    void sameTopicAlwaysUsesTheSamePush() {
+        MqttPushPool pool = pool(4);
+        MqttPushPool again = pool(4);
+        for (int i = 0; i < 1000; i++) {
+            String topic = "sensor/" + i + "/temperature";
+            MqttPush push = pool.route(topic);
+            assertSame(push, pool.route(topic));
+            // 只取决于 serviceId，与实例无关 Depends on the serviceIds only, not on the instances
+            assertEquals(push.getServiceId(), again.route(topic).getServiceId());
+        }
+    }
+
+    @Test
+    void topicsSpreadOverEveryPush() {
+        MqttPushPool pool = pool(4);
+        Map<MqttPush, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 4000; i++) {
+            counts.merge(pool.route("sensor/" + i), 1, Integer::sum);
+        }
+        assertEquals(4, counts.size());
+        for (int count : counts.values()) {
+            assertTrue(count > 500 && count < 1500, counts.values().toString());
+        }
+    }
+
+    @Test
+    void addingAPushOnlyMovesTopicsToIt() {
+        MqttPushPool four = pool(4);
+        MqttPushPool five = pool(5);
+        int moved = 0;
+        for (int i = 0; i < 4000; i++) {
+            String topic = "sensor/" + i;
+            String before = four.route(topic).getServiceId();
+            String after = five.route(topic).getServiceId();
+            if (!before.equals(after)) {
+                assertEquals("pool-4", after, topic);
+                moved++;
+            }
+        }
+        assertTrue(moved > 0 && moved < 1600, String.valueOf(moved));
+    }
+
+    private static MqttPushPool pool(int size) {
+        List<MqttPush> pushes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            pushes.add(new MqttPush().serviceId("pool-" + i));
+        }
+        return new MqttPushPool(pushes);
+    }
+}
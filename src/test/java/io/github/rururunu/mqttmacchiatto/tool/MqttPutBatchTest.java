@@ -0,0 +1,73 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import io.github.rururunu.mqttmacchiatto.broker.MQTTEmbeddedBroker;
+import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MqttPutBatchTest {
+
+    @Test
+    void batchesCloseBySizeOrWait() throws Exception {
+        try (MQTTEmbeddedBroker broker = MQTTEmbeddedBroker.start()) {
+            List<Integer> sizes = new CopyOnWriteArrayList<>();
+            AtomicInteger total = new AtomicInteger();
+            MqttPut put = Clients.put(broker.getLocalUri(), "rows/#")
+                    .qos(MQTTQos.AT_LEAST_ONCE)
+                    .responseBatch(batch -> {
+                        sizes.add(batch.size());
+                        total.addAndGet(batch.size());
+                    }, 10, Duration.ofMillis(200));
+            put.start();
+            MqttPush push = Clients.push(broker.getLocalUri()).init();
+            try {
+                for (int i = 0; i < 25; i++) {
+                    push.push("rows/" + i, "row-" + i, MQTTQos.AT_LEAST_ONCE);
+                }
+                // 最后不足一批的消息由等待时间送出 The last partial batch is sent by the wait
+                assertTrue(Clients.await(() -> total.get() == 25, 10_000), sizes.toString());
+                assertTrue(sizes.stream().allMatch(size -> size >= 1 && size <= 10), sizes.toString());
+            } finally {
+                push.stop();
+                put.stop();
+            }
+        }
+    }
+
+    @Test
+    void failedBatchIsRedelivered() throws Exception {
+        try (MQTTEmbeddedBroker broker = MQTTEmbeddedBroker.start()) {
+            AtomicInteger calls = new AtomicInteger();
+            List<String> stored = new CopyOnWriteArrayList<>();
+            MqttPut put = Clients.put(broker.getLocalUri(), "rows/#")
+                    .cleanSession(false)
+                    .qos(MQTTQos.AT_LEAST_ONCE)
+                    .clientId("batch-redelivery")
+                    .responseBatch(batch -> {
+                        if (calls.incrementAndGet() == 1) {
+                            throw new IllegalStateException("bulk insert failed");
+                        }
+                        for (MqttMessage message : batch) {
+                            stored.add(new String(message.getPayload()));
+                        }
+                    }, 10, Duration.ofMillis(50));
+            put.start();
+            MqttPush push = Clients.push(broker.getLocalUri()).init();
+            try {
+                push.push("rows/1", "row-1", MQTTQos.AT_LEAST_ONCE);
+                assertTrue(Clients.await(() -> stored.contains("row-1"), 10_000), "failed batch was not redelivered");
+                assertTrue(calls.get() >= 2);
+            } finally {
+                push.stop();
+                put.stop();
+            }
+        }
+    }
+}
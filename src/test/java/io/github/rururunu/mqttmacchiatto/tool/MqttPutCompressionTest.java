@@ -0,0 +1,72 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import io.github.rururunu.mqttmacchiatto.broker.MQTTEmbeddedBroker;
+import io.github.rururunu.mqttmacchiatto.codec.MQTTCompression;
+import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MqttPutCompressionTest {
+
+    @Test
+    void decompressionIsOptInAndCapped() throws Exception {
+        try (MQTTEmbeddedBroker broker = MQTTEmbeddedBroker.start()) {
+            Map<String, byte[]> inflated = new ConcurrentHashMap<>();
+            Map<String, byte[]> raw = new ConcurrentHashMap<>();
+            Map<String, byte[]> capped = new ConcurrentHashMap<>();
+            MqttPut inflating = Clients.put(broker.getLocalUri(), "diag/#")
+                    .qos(MQTTQos.AT_LEAST_ONCE)
+                    .decompress(true)
+                    .responseRow((topic, msg) -> inflated.put(topic, msg.getPayload()));
+            MqttPut plain = Clients.put(broker.getLocalUri(), "diag/#")
+                    .qos(MQTTQos.AT_LEAST_ONCE)
+                    .responseRow((topic, msg) -> raw.put(topic, msg.getPayload()));
+            MqttPut limited = Clients.put(broker.getLocalUri(), "diag/#")
+                    .qos(MQTTQos.AT_LEAST_ONCE)
+                    .decompress(1024)
+                    .responseRow((topic, msg) -> capped.put(topic, msg.getPayload()));
+            inflating.start();
+            plain.start();
+            limited.start();
+            MqttPush push = Clients.push(broker.getLocalUri()).compress(1024).init();
+            try {
+                byte[] large = json(8 * 1024);
+                byte[] small = json(256);
+                push.push("diag/large", large, MQTTQos.AT_LEAST_ONCE);
+                push.push("diag/small", small, MQTTQos.AT_LEAST_ONCE);
+                assertTrue(Clients.await(() -> inflated.size() == 2 && raw.size() == 2 && capped.size() == 2, 10_000));
+
+                assertArrayEquals(large, inflated.get("diag/large"));
+                assertArrayEquals(small, inflated.get("diag/small"));
+                // 未开启解压时原样交付 Delivered as sent while decompression is off
+                assertTrue(MQTTCompression.isCompressed(raw.get("diag/large")));
+                assertArrayEquals(small, raw.get("diag/small"));
+                // 超过上限的不解压 Not inflated beyond the limit
+                assertTrue(MQTTCompression.isCompressed(capped.get("diag/large")));
+                assertFalse(MQTTCompression.isCompressed(capped.get("diag/small")));
+            } finally {
+                push.stop();
+                inflating.stop();
+                plain.stop();
+                limited.stop();
+            }
+        }
+    }
+
+    private static byte[] json(int length) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; json.length() < length - 32; i++) {
+            json.append("{\"probe\":").append(i % 8).append(",\"status\":\"ok\"},");
+        }
+        json.setLength(json.length() - 1);
+        json.append(']');
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
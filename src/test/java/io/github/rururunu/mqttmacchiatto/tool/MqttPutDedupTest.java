@@ -0,0 +1,86 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import io.github.rururunu.mqttmacchiatto.broker.MQTTEmbeddedBroker;
+import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MqttPutDedupTest {
+
+    @Test
+    void redeliveryAfterFailedHandlerIsNotDropped() throws Exception {
+        try (MQTTEmbeddedBroker broker = MQTTEmbeddedBroker.start()) {
+            AtomicInteger calls = new AtomicInteger();
+            List<String> handled = new CopyOnWriteArrayList<>();
+            MqttPut put = Clients.put(broker.getLocalUri(), "orders/#")
+                    .cleanSession(false)
+                    .qos(MQTTQos.AT_LEAST_ONCE)
+                    .dedup(1000, 60_000)
+                    .response((topic, msg) -> {
+                        if (calls.incrementAndGet() == 1) {
+                            throw new IllegalStateException("database down");
+                        }
+                        handled.add(msg);
+                    })
+                    .clientId("dedup-redelivery");
+            put.start();
+            MqttPush push = Clients.push(broker.getLocalUri()).init();
+            try {
+                push.push("orders/1", "order-1", MQTTQos.AT_LEAST_ONCE);
+                assertTrue(Clients.await(() -> handled.size() == 1, 10_000), "redelivered message was dropped");
+                assertEquals(2, calls.get());
+                assertEquals(0, put.getDeduplicator().getDuplicates());
+            } finally {
+                push.stop();
+                put.stop();
+            }
+        }
+    }
+
+    @Test
+    void duplicatesInsideWindowAreDropped() throws Exception {
+        try (MQTTEmbeddedBroker broker = MQTTEmbeddedBroker.start()) {
+            List<String> handled = new CopyOnWriteArrayList<>();
+            MqttPut put = Clients.put(broker.getLocalUri(), "orders/#")
+                    .cleanSession(true)
+                    .qos(MQTTQos.AT_LEAST_ONCE)
+                    .dedup(1000, 60_000)
+                    .response((topic, msg) -> handled.add(msg));
+            put.start();
+            MqttPush push = Clients.push(broker.getLocalUri()).init();
+            try {
+                push.push("orders/1", "order-1", MQTTQos.AT_LEAST_ONCE);
+                push.push("orders/1", "order-1", MQTTQos.AT_LEAST_ONCE);
+                push.push("orders/1", "order-2", MQTTQos.AT_LEAST_ONCE);
+                assertTrue(Clients.await(() -> put.getDeduplicator().getChecked() == 3, 10_000));
+                assertEquals(2, handled.size());
+                assertEquals(1, put.getDeduplicator().getDuplicates());
+            } finally {
+                push.stop();
+                put.stop();
+            }
+        }
+    }
+
+    @Test
+    void forgottenKeyIsFirstSeenAgain() {
+        MQTTDeduplicator dedup = new MQTTDeduplicator(4, 60_000);
+        long hash = MQTTDeduplicator.hash("order-1");
+        assertTrue(dedup.firstSeenHash(hash));
+        assertFalse(dedup.firstSeenHash(hash));
+        dedup.forgetHash(hash);
+        assertTrue(dedup.firstSeenHash(hash));
+        assertFalse(dedup.firstSeenHash(hash));
+        // 置空的环位出环时不能带走重新加入的键 The blanked ring entry must not evict the key added again
+        dedup.firstSeen("other-1");
+        dedup.firstSeen("other-2");
+        assertFalse(dedup.firstSeen("order-1"));
+    }
+}
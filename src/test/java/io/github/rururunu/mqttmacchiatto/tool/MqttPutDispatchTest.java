@@ -0,0 +1,74 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import io.github.rururunu.mqttmacchiatto.broker.MQTTEmbeddedBroker;
+import io.github.rururunu.mqttmacchiatto.content.MQTTOverflow;
+import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MqttPutDispatchTest {
+
+    @Test
+    void handlersRunOffTheCallbackThread() throws Exception {
+        try (MQTTEmbeddedBroker broker = MQTTEmbeddedBroker.start()) {
+            List<String> threads = new CopyOnWriteArrayList<>();
+            MqttPut put = Clients.put(broker.getLocalUri(), "dispatch/#")
+                    .qos(MQTTQos.AT_LEAST_ONCE)
+                    .dispatch(2, 16)
+                    .response((topic, msg) -> threads.add(Thread.currentThread().getName()));
+            put.start();
+            MqttPush push = Clients.push(broker.getLocalUri()).init();
+            try {
+                for (int i = 0; i < 20; i++) {
+                    push.push("dispatch/" + i, "message-" + i, MQTTQos.AT_LEAST_ONCE);
+                }
+                assertTrue(Clients.await(() -> threads.size() == 20, 10_000));
+                assertTrue(threads.stream().allMatch(name -> name.startsWith("mto-mqtt-dispatch-")), threads.toString());
+            } finally {
+                push.stop();
+                put.stop();
+            }
+        }
+    }
+
+    @Test
+    void fullQueueDropsNewestAndCountsIt() throws Exception {
+        try (MQTTEmbeddedBroker broker = MQTTEmbeddedBroker.start()) {
+            CountDownLatch release = new CountDownLatch(1);
+            AtomicInteger handled = new AtomicInteger();
+            MqttPut put = Clients.put(broker.getLocalUri(), "dispatch/#")
+                    .qos(MQTTQos.AT_MOST_ONCE)
+                    .dispatch(1, 1, MQTTOverflow.DROP_NEWEST)
+                    .response((topic, msg) -> {
+                        try {
+                            release.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        handled.incrementAndGet();
+                    });
+            put.start();
+            MqttPush push = Clients.push(broker.getLocalUri()).init();
+            try {
+                for (int i = 0; i < 10; i++) {
+                    push.push("dispatch/" + i, "message-" + i, MQTTQos.AT_MOST_ONCE);
+                }
+                assertTrue(Clients.await(() -> put.getDispatchDropped() > 0, 10_000));
+                release.countDown();
+                assertTrue(Clients.await(() -> put.getDispatchQueueDepth() == 0
+                        && handled.get() + put.getDispatchDropped() == 10, 10_000));
+            } finally {
+                release.countDown();
+                push.stop();
+                put.stop();
+            }
+        }
+    }
+}
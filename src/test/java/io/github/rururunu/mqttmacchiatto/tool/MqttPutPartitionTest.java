@@ -0,0 +1,82 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import io.github.rururunu.mqttmacchiatto.broker.MQTTEmbeddedBroker;
+import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MqttPutPartitionTest {
+
+    private static final List<String> MEMBERS = Arrays.asList("node-a", "node-b");
+
+    @Test
+    void nodesSplitTheSpaceAndRebalance() throws Exception {
+        List<String> filters = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            filters.add("device/" + i + "/#");
+        }
+        try (MQTTEmbeddedBroker broker = MQTTEmbeddedBroker.start()) {
+            List<String> receivedA = new CopyOnWriteArrayList<>();
+            List<String> receivedB = new CopyOnWriteArrayList<>();
+            MqttPut a = node(broker, "node-a", filters, receivedA);
+            MqttPut b = node(broker, "node-b", filters, receivedB);
+            MqttPush push = Clients.push(broker.getLocalUri()).init();
+            try {
+                Set<String> all = new HashSet<>(a.getPartitions());
+                all.addAll(b.getPartitions());
+                assertEquals(new HashSet<>(filters), all);
+                assertEquals(filters.size(), a.getPartitions().size() + b.getPartitions().size(), "partitions overlap");
+
+                pushEveryDevice(push);
+                assertTrue(Clients.await(() -> receivedA.size() + receivedB.size() == 8, 10_000));
+                for (String topic : receivedA) {
+                    assertTrue(owns(a, topic), topic);
+                }
+                for (String topic : receivedB) {
+                    assertTrue(owns(b, topic), topic);
+                }
+
+                // node-b 离开 node-b leaves
+                b.stop();
+                a.rebalance(Collections.singletonList("node-a"));
+                assertEquals(new HashSet<>(filters), a.getPartitions());
+                receivedA.clear();
+                pushEveryDevice(push);
+                assertTrue(Clients.await(() -> receivedA.size() == 8, 10_000), receivedA.toString());
+            } finally {
+                push.stop();
+                a.stop();
+                b.stop();
+            }
+        }
+    }
+
+    private static MqttPut node(MQTTEmbeddedBroker broker, String node, List<String> filters, List<String> received) {
+        MqttPut put = Clients.put(broker.getLocalUri(), null)
+                .qos(MQTTQos.AT_LEAST_ONCE)
+                .response((topic, msg) -> received.add(topic))
+                .partition(node, MEMBERS, filters);
+        put.start();
+        return put;
+    }
+
+    private static void pushEveryDevice(MqttPush push) throws Exception {
+        for (int i = 0; i < 8; i++) {
+            push.push("device/" + i + "/temperature", "21." + i, MQTTQos.AT_LEAST_ONCE);
+        }
+    }
+
+    private static boolean owns(MqttPut put, String topic) {
+        return put.getPartitions().contains(topic.substring(0, topic.lastIndexOf('/')) + "/#");
+    }
+}
@@ -0,0 +1,42 @@
+package io.github.rururunu.mqttmacchiatto.tool;
+
+import io.github.rururunu.mqttmacchiatto.broker.MQTTEmbeddedBroker;
+import io.github.rururunu.mqttmacchiatto.content.MQTTQos;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MqttPutShareTest {
+
+    @Test
+    void groupMembersSplitTheTopic() throws Exception {
+        try (MQTTEmbeddedBroker broker = MQTTEmbeddedBroker.start()) {
+            Set<String> received = ConcurrentHashMap.newKeySet();
+            MqttPut put = Clients.put(broker.getLocalUri(), "load/#")
+                    .qos(MQTTQos.AT_LEAST_ONCE)
+                    .share("workers", 3)
+                    .response((topic, msg) -> received.add(msg));
+            put.start();
+            MqttPush push = Clients.push(broker.getLocalUri()).init();
+            try {
+                assertEquals(3, put.getMembers().size());
+                for (int i = 0; i < 30; i++) {
+                    push.push("load/" + i, "message-" + i, MQTTQos.AT_LEAST_ONCE);
+                }
+                assertTrue(Clients.await(() -> received.size() == 30, 10_000));
+                Map<String, Long> members = put.getMemberReceived();
+                assertEquals(3, members.size());
+                assertEquals(30, members.values().stream().mapToLong(Long::longValue).sum(), members.toString());
+                assertTrue(members.values().stream().allMatch(count -> count > 0), members.toString());
+            } finally {
+                push.stop();
+                put.stop();
+            }
+        }
+    }
+}